@@ -33,6 +33,8 @@ import backtype.storm.topology.TopologyBuilder;
 import backtype.storm.utils.Utils;
 
 import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.digitalpebble.storm.crawler.util.ContentSerializer;
+import com.digitalpebble.storm.crawler.util.MetadataSerializer;
 
 public abstract class ConfigurableTopology {
 
@@ -68,8 +70,15 @@ public abstract class ConfigurableTopology {
     /** Submits the topology under a specific name **/
     protected int submit(String name, Config conf, TopologyBuilder builder) {
 
-        // register Metadata for serialization with FieldsSerializer
-        Config.registerSerialization(conf, Metadata.class);
+        // register Metadata for serialization with its own serializer
+        Config.registerSerialization(conf, Metadata.class,
+                MetadataSerializer.class);
+
+        // compress the content of the pages sent to other workers
+        if (ConfUtils.getBoolean(conf, "tuple.content.compression", false)) {
+            Config.registerSerialization(conf, byte[].class,
+                    ContentSerializer.class);
+        }
 
         if (isLocal) {
             LocalCluster cluster = new LocalCluster();
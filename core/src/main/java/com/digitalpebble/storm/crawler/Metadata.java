@@ -17,52 +17,74 @@
 
 package com.digitalpebble.storm.crawler;
 
-import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 
-/** Wrapper around Map &lt;String,String[]&gt; **/
-
+/**
+ * Multimap of String keys to String values. The entries are stored in a single
+ * array which is scanned on lookups, which is faster and much smaller than a
+ * HashMap for the handful of keys a document usually has. The instances are
+ * serialized in the topologies by the
+ * {@link com.digitalpebble.storm.crawler.util.MetadataSerializer}.
+ **/
 public class Metadata {
 
-    // TODO customize the behaviour of Kryo via annotations
-    // @BindMap(valueSerializer = IntArraySerializer.class, keySerializer =
-    // StringSerializer.class, valueClass = String[].class, keyClass =
-    // String.class, keysCanBeNull = false)
-    private Map<String, String[]> md;
+    private static final Object[] NO_ENTRIES = new Object[0];
+
+    /** keys at the even positions, their String[] values at the odd ones **/
+    private Object[] entries = NO_ENTRIES;
+
+    private int size = 0;
+
+    private transient boolean readOnly = false;
 
-    public final static Metadata empty = new Metadata(
-            Collections.<String, String[]> emptyMap());
+    public final static Metadata empty = readOnly(new Metadata());
 
     public Metadata() {
-        md = new HashMap<>();
     }
 
-    /**
-     * Wraps an existing HashMap into a Metadata object - does not clone the
-     * content
-     **/
+    /** Creates a Metadata object with the content of an existing Map **/
     public Metadata(Map<String, String[]> metadata) {
         if (metadata == null)
             throw new NullPointerException();
-        md = metadata;
+        entries = new Object[metadata.size() * 2];
+        for (Entry<String, String[]> entry : metadata.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static Metadata readOnly(Metadata md) {
+        md.readOnly = true;
+        return md;
     }
 
     /** Puts all the metadata into the current instance **/
     public void putAll(Metadata m) {
-        md.putAll(m.md);
+        if (m.size == 0)
+            return;
+        if (size == 0 && !readOnly) {
+            // no lookups needed, the other instance can be used by another
+            // thread so its array is copied and never shared
+            entries = Arrays.copyOf(m.entries, 2 * m.size);
+            size = m.size;
+            return;
+        }
+        for (int i = 0; i < m.size; i++) {
+            put((String) m.entries[2 * i], (String[]) m.entries[2 * i + 1]);
+        }
     }
 
     /** @return the first value for the key or null if it does not exist **/
     public String getFirstValue(String key) {
-        String[] values = md.get(key);
+        String[] values = get(key);
         if (values == null)
             return null;
         if (values.length == 0)
@@ -71,7 +93,7 @@ public class Metadata {
     }
 
     public String[] getValues(String key) {
-        String[] values = md.get(key);
+        String[] values = get(key);
         if (values == null)
             return null;
         if (values.length == 0)
@@ -81,52 +103,59 @@ public class Metadata {
 
     /** Set the value for a given key. The value can be null. */
     public void setValue(String key, String value) {
-        md.put(key, new String[] { value });
+        put(key, new String[] { value });
     }
 
     public void setValues(String key, String[] values) {
         if (values == null || values.length == 0)
             return;
-        md.put(key, values);
+        put(key, values);
     }
 
     public void addValue(String key, String value) {
         if (StringUtils.isBlank(value))
             return;
 
-        String[] existingvals = md.get(key);
+        String[] existingvals = get(key);
         if (existingvals == null || existingvals.length == 0) {
             setValue(key, value);
             return;
         }
 
         int currentLength = existingvals.length;
-        String[] newvals = new String[currentLength + 1];
+        String[] newvals = Arrays.copyOf(existingvals, currentLength + 1);
         newvals[currentLength] = value;
-        System.arraycopy(existingvals, 0, newvals, 0, currentLength);
-        md.put(key, newvals);
+        put(key, newvals);
     }
 
     public void addValues(String key, Collection<String> values) {
         if (values == null || values.size() == 0)
             return;
-        String[] existingvals = md.get(key);
+        String[] existingvals = get(key);
         if (existingvals == null) {
-            md.put(key, values.toArray(new String[values.size()]));
+            put(key, values.toArray(new String[values.size()]));
             return;
         }
 
-        ArrayList<String> existing = new ArrayList<>(existingvals.length
+        String[] newvals = Arrays.copyOf(existingvals, existingvals.length
                 + values.size());
-        for (String v : existingvals)
-            existing.add(v);
-
-        existing.addAll(values);
-        md.put(key, existing.toArray(new String[existing.size()]));
+        int i = existingvals.length;
+        for (String v : values)
+            newvals[i++] = v;
+        put(key, newvals);
     }
 
     public void remove(String key) {
-        md.remove(key);
+        int index = indexOf(key);
+        if (index == -1)
+            return;
+        prepareWrite(0);
+        // keep the insertion order
+        System.arraycopy(entries, 2 * index + 2, entries, 2 * index, 2 * (size
+                - index - 1));
+        size--;
+        entries[2 * size] = null;
+        entries[2 * size + 1] = null;
     }
 
     public String toString() {
@@ -138,23 +167,104 @@ public class Metadata {
         StringBuffer sb = new StringBuffer();
         if (prefix == null)
             prefix = "";
-        Iterator<Entry<String, String[]>> iter = md.entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<String, String[]> entry = iter.next();
-            for (String val : entry.getValue()) {
-                sb.append(prefix).append(entry.getKey()).append(": ")
-                        .append(val).append("\n");
+        for (int i = 0; i < size; i++) {
+            String key = (String) entries[2 * i];
+            for (String val : (String[]) entries[2 * i + 1]) {
+                sb.append(prefix).append(key).append(": ").append(val)
+                        .append("\n");
             }
         }
         return sb.toString();
     }
 
     public int size() {
-        return md.size();
+        return size;
     }
 
     public Set<String> keySet() {
-        return md.keySet();
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next >= size)
+                            throw new NoSuchElementException();
+                        return (String) entries[2 * next++];
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (next == 0)
+                            throw new IllegalStateException();
+                        Metadata.this.remove((String) entries[2 * --next]);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && indexOf((String) o) != -1;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexOf(String key) {
+        // try a cheap comparison first
+        for (int i = 0; i < size; i++) {
+            if (entries[2 * i] == key)
+                return i;
+        }
+        for (int i = 0; i < size; i++) {
+            if (entries[2 * i].equals(key))
+                return i;
+        }
+        return -1;
     }
 
+    private String[] get(String key) {
+        int index = indexOf(key);
+        if (index == -1)
+            return null;
+        return (String[]) entries[2 * index + 1];
+    }
+
+    private void put(String key, String[] values) {
+        int index = indexOf(key);
+        if (index != -1) {
+            prepareWrite(0);
+            entries[2 * index + 1] = values;
+            return;
+        }
+        prepareWrite(1);
+        entries[2 * size] = key;
+        entries[2 * size + 1] = values;
+        size++;
+    }
+
+    /**
+     * Makes sure that the entries can be modified and have room for the given
+     * number of new keys
+     **/
+    private void prepareWrite(int newKeys) {
+        if (readOnly)
+            throw new UnsupportedOperationException();
+        int needed = 2 * (size + newKeys);
+        if (needed <= entries.length)
+            return;
+        int capacity = Math.max(needed, Math.max(8, entries.length * 2));
+        entries = Arrays.copyOf(entries, capacity);
+    }
 }
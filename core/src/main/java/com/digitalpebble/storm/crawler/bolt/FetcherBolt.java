@@ -18,22 +18,33 @@
 package com.digitalpebble.storm.crawler.bolt;
 
 import java.io.File;
-import java.net.InetAddress;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -41,12 +52,12 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
 import backtype.storm.Config;
 import backtype.storm.metric.api.IMetric;
 import backtype.storm.metric.api.MeanReducer;
 import backtype.storm.metric.api.MultiCountMetric;
 import backtype.storm.metric.api.MultiReducedMetric;
+import backtype.storm.metric.api.ReducedMetric;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.OutputFieldsDeclarer;
@@ -60,18 +71,28 @@ import backtype.storm.utils.Utils;
 import com.digitalpebble.storm.crawler.Metadata;
 import com.digitalpebble.storm.crawler.filtering.URLFilters;
 import com.digitalpebble.storm.crawler.persistence.Status;
+import com.digitalpebble.storm.crawler.protocol.AsyncProtocol;
 import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
+import com.digitalpebble.storm.crawler.protocol.HttpRobotRulesParser;
 import com.digitalpebble.storm.crawler.protocol.Protocol;
 import com.digitalpebble.storm.crawler.protocol.ProtocolFactory;
 import com.digitalpebble.storm.crawler.protocol.ProtocolResponse;
+import com.digitalpebble.storm.crawler.protocol.RobotRulesParser;
+import com.digitalpebble.storm.crawler.util.BoundedMPSCQueue;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.digitalpebble.storm.crawler.util.DNSCache;
 import com.digitalpebble.storm.crawler.util.MetadataTransfer;
+import com.digitalpebble.storm.crawler.util.PLDCache;
 import com.digitalpebble.storm.crawler.util.PerSecondReducer;
 import com.digitalpebble.storm.crawler.util.URLUtil;
-import com.google.common.collect.Iterables;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.url.PaidLevelDomain;
 
 /**
  * A multithreaded, queue-based fetcher adapted from Apache Nutch. Enforces the
@@ -84,7 +105,7 @@ public class FetcherBolt extends BaseRichBolt {
             .getLogger(FetcherBolt.class);
 
     private final AtomicInteger activeThreads = new AtomicInteger(0);
-    private final AtomicInteger spinWaiting = new AtomicInteger(0);
+    private final AtomicInteger idleThreads = new AtomicInteger(0);
 
     private FetchItemQueues fetchQueues;
     private OutputCollector _collector;
@@ -94,11 +115,23 @@ public class FetcherBolt extends BaseRichBolt {
 
     private ProtocolFactory protocolFactory;
 
-    private final List<Tuple> ackQueue = Collections
-            .synchronizedList(new LinkedList<Tuple>());
+    /**
+     * Tuples to ack and Object[] {stream, anchor, values} to emit, in the order
+     * in which they were produced by the fetching threads, or lists of them for
+     * the async fetches. The collector can only be used by the executor thread,
+     * which drains the queue whenever it gets a tuple, including the ticks sent
+     * every second: that is how long the emits and acks can wait when no input
+     * comes in.
+     **/
+    private BoundedMPSCQueue<Object> emitQueue;
+
+    /**
+     * Batches of the async fetches which did not fit in the emit queue, their
+     * number is bounded by fetcher.async.max.inflight
+     **/
+    private final Queue<List<Object>> emitOverflow = new ConcurrentLinkedQueue<>();
 
-    private final List<Object[]> emitQueue = Collections
-            .synchronizedList(new LinkedList<Object[]>());
+    private ReducedMetric emitLatency;
 
     private int taskID = -1;
 
@@ -114,6 +147,12 @@ public class FetcherBolt extends BaseRichBolt {
 
     private File debugfiletrigger;
 
+    /** longest delay accepted from robots.txt **/
+    private long maxCrawlDelay;
+
+    /** limits the number of requests in flight in async mode, null otherwise **/
+    private Semaphore asyncPermits;
+
     /**
      * This class described the item to be fetched.
      */
@@ -134,10 +173,12 @@ public class FetcherBolt extends BaseRichBolt {
         /**
          * Create an item. Queue id will be created based on
          * <code>queueMode</code> argument, either as a protocol + hostname
-         * pair, protocol + IP address pair or protocol+domain pair.
+         * pair, protocol + IP address pair or protocol+domain pair. The IP
+         * address is resolved by the caller, null if it could not be.
          */
 
-        public static FetchItem create(URL u, Tuple t, String queueMode) {
+        public static FetchItem create(URL u, Tuple t, String queueMode,
+                String address, PLDCache pldCache) {
 
             String queueID;
 
@@ -155,10 +196,8 @@ public class FetcherBolt extends BaseRichBolt {
             }
 
             if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
-                try {
-                    final InetAddress addr = InetAddress.getByName(u.getHost());
-                    key = addr.getHostAddress();
-                } catch (final UnknownHostException e) {
+                key = address;
+                if (key == null) {
                     LOG.warn(
                             "Unable to resolve IP for {}, using hostname as key.",
                             u.getHost());
@@ -166,7 +205,7 @@ public class FetcherBolt extends BaseRichBolt {
                 }
             } else if (FetchItemQueues.QUEUE_MODE_DOMAIN
                     .equalsIgnoreCase(queueMode)) {
-                key = PaidLevelDomain.getPLD(u.getHost());
+                key = pldCache.getPLD(u.getHost());
                 if (key == null) {
                     LOG.warn(
                             "Unknown domain for url: {}, using hostname as key",
@@ -200,6 +239,9 @@ public class FetcherBolt extends BaseRichBolt {
         AtomicInteger inProgress = new AtomicInteger();
         AtomicLong nextFetchTime = new AtomicLong();
 
+        /** whether this queue currently has an entry in the ready queue **/
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+
         long crawlDelay;
         final long minCrawlDelay;
         final int maxThreads;
@@ -221,6 +263,20 @@ public class FetcherBolt extends BaseRichBolt {
             return inProgress.get();
         }
 
+        /**
+         * Returns true if the queue has items waiting and fewer threads than
+         * allowed working on it, regardless of its nextFetchTime
+         **/
+        public boolean isSchedulable() {
+            return !queue.isEmpty() && inProgress.get() < maxThreads;
+        }
+
+        /** Returns true if the queue can be removed without losing state **/
+        public boolean isIdle(long now) {
+            return queue.isEmpty() && inProgress.get() == 0
+                    && nextFetchTime.get() <= now;
+        }
+
         public void finishFetchItem(FetchItem it, boolean asap) {
             if (it != null) {
                 inProgress.decrementAndGet();
@@ -232,7 +288,7 @@ public class FetcherBolt extends BaseRichBolt {
             queue.add(it);
         }
 
-        public FetchItem getFetchItem() {
+        public synchronized FetchItem getFetchItem() {
             if (inProgress.get() >= maxThreads)
                 return null;
             long now = System.currentTimeMillis();
@@ -266,14 +322,51 @@ public class FetcherBolt extends BaseRichBolt {
 
     }
 
+    /**
+     * Entry of the ready queue. Holds a snapshot of the time at which a
+     * FetchItemQueue becomes available so that the ordering within the
+     * DelayQueue is not affected by later changes to the FetchItemQueue.
+     */
+    private static class ScheduledQueue implements Delayed {
+
+        final FetchItemQueue queue;
+        final long time;
+
+        ScheduledQueue(FetchItemQueue queue, long time) {
+            this.queue = queue;
+            this.time = time;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.currentTimeMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(time, ((ScheduledQueue) o).time);
+        }
+    }
+
     /**
      * Convenience class - a collection of queues that keeps track of the total
      * number of items, and provides items eligible for fetching from any queue.
+     * The queues which have items and free slots are kept in a DelayQueue
+     * ordered by their nextFetchTime so that getting the next item does not
+     * require a lock on the whole collection nor a scan of the queues.
      */
     private static class FetchItemQueues {
 
-        Map<String, FetchItemQueue> queues = new LinkedHashMap<>();
-        Iterator<String> it = Iterables.cycle(queues.keySet()).iterator();
+        final ConcurrentMap<String, FetchItemQueue> queues = new ConcurrentHashMap<>();
+
+        final DelayQueue<ScheduledQueue> readyQueues = new DelayQueue<>();
+
+        /**
+         * time elapsed between the moment a queue was ready and the moment a
+         * thread picked an item from it
+         **/
+        final ReducedMetric wakeUpLatency = new ReducedMetric(new MeanReducer());
 
         AtomicInteger inQueues = new AtomicInteger(0);
 
@@ -289,6 +382,18 @@ public class FetcherBolt extends BaseRichBolt {
 
         String queueMode;
 
+        /** used in byIP mode only **/
+        DNSCache dnsCache;
+
+        /** used in byDomain mode only **/
+        PLDCache pldCache;
+
+        /** gets the robots rules of the new queues, can be null **/
+        RobotsPrefetcher robotsPrefetcher;
+
+        /** items for which the IP has been resolved asynchronously **/
+        final Queue<Object[]> resolved = new ConcurrentLinkedQueue<>();
+
         public FetchItemQueues(Config conf) {
             this.conf = conf;
             this.defaultMaxThread = ConfUtils.getInt(conf,
@@ -305,20 +410,66 @@ public class FetcherBolt extends BaseRichBolt {
             }
             LOG.info("Using queue mode : {}", queueMode);
 
+            if (queueMode.equals(QUEUE_MODE_IP)) {
+                dnsCache = DNSCache.getInstance(conf);
+            } else if (queueMode.equals(QUEUE_MODE_DOMAIN)) {
+                pldCache = PLDCache.getInstance(conf);
+            }
+
             this.crawlDelay = (long) (ConfUtils.getFloat(conf,
                     "fetcher.server.delay", 1.0f) * 1000);
             this.minCrawlDelay = (long) (ConfUtils.getFloat(conf,
                     "fetcher.server.min.delay", 0.0f) * 1000);
         }
 
-        public synchronized void addFetchItem(URL u, Tuple input) {
-            FetchItem it = FetchItem.create(u, input, queueMode);
+        /**
+         * Adds the items for which the IP has been resolved since the last
+         * call, called by the bolt's thread
+         **/
+        public void addResolvedItems() {
+            Object[] item;
+            while ((item = resolved.poll()) != null) {
+                ListenableFuture<Optional<String>> address = (ListenableFuture<Optional<String>>) item[2];
+                addFetchItem((URL) item[0], (Tuple) item[1], Futures
+                        .getUnchecked(address).orNull());
+            }
+        }
+
+        public void addFetchItem(final URL u, final Tuple input) {
+            boolean hasKey = input.contains("key")
+                    && StringUtils.isNotBlank(input.getStringByField("key"));
+            String ip = null;
+            if (dnsCache != null && !hasKey) {
+                // don't block the bolt while the IP is being resolved
+                final ListenableFuture<Optional<String>> address = dnsCache
+                        .resolveAsync(u.getHost());
+                if (!address.isDone()) {
+                    address.addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            resolved.add(new Object[] { u, input, address });
+                        }
+                    }, MoreExecutors.directExecutor());
+                    return;
+                }
+                ip = Futures.getUnchecked(address).orNull();
+            }
+            addFetchItem(u, input, ip);
+        }
+
+        private void addFetchItem(URL u, Tuple input, String address) {
+            FetchItem it = FetchItem.create(u, input, queueMode, address,
+                    pldCache);
+            if (robotsPrefetcher != null && !queues.containsKey(it.queueID)) {
+                robotsPrefetcher.prefetch(it.u);
+            }
             FetchItemQueue fiq = getFetchItemQueue(it.queueID);
             fiq.addFetchItem(it);
             inQueues.incrementAndGet();
+            schedule(fiq);
         }
 
-        public synchronized void finishFetchItem(FetchItem it, boolean asap) {
+        public void finishFetchItem(FetchItem it, boolean asap) {
             FetchItemQueue fiq = queues.get(it.queueID);
             if (fiq == null) {
                 LOG.warn("Attempting to finish item from unknown queue: {}",
@@ -326,9 +477,10 @@ public class FetcherBolt extends BaseRichBolt {
                 return;
             }
             fiq.finishFetchItem(it, asap);
+            schedule(fiq);
         }
 
-        public synchronized FetchItemQueue getFetchItemQueue(String id) {
+        public FetchItemQueue getFetchItemQueue(String id) {
             FetchItemQueue fiq = queues.get(id);
             if (fiq == null) {
                 // custom maxThread value?
@@ -337,44 +489,114 @@ public class FetcherBolt extends BaseRichBolt {
                 // initialize queue
                 fiq = new FetchItemQueue(conf, customThreadVal, crawlDelay,
                         minCrawlDelay);
-                queues.put(id, fiq);
-
-                // Reset the cyclic iterator to start of the list.
-                it = Iterables.cycle(queues.keySet()).iterator();
+                FetchItemQueue existing = queues.putIfAbsent(id, fiq);
+                if (existing != null) {
+                    fiq = existing;
+                }
             }
             return fiq;
         }
 
-        public synchronized FetchItem getFetchItem() {
-
-            if (queues.isEmpty() || !it.hasNext())
-                return null;
-
-            FetchItemQueue start = null;
+        /**
+         * Adds the queue to the ready queue if it has items and free slots and
+         * is not there already
+         **/
+        private void schedule(FetchItemQueue fiq) {
+            if (!fiq.isSchedulable())
+                return;
+            if (!fiq.scheduled.compareAndSet(false, true))
+                return;
+            long time = Math.max(fiq.nextFetchTime.get(),
+                    System.currentTimeMillis());
+            readyQueues.add(new ScheduledQueue(fiq, time));
+        }
 
-            do {
-                FetchItemQueue fiq = queues.get(it.next());
-                // reap empty queues
-                if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
-                    it.remove();
+        /**
+         * Blocks until an item is available from any of the queues. Waiting
+         * threads are woken up when the earliest queue becomes ready or when a
+         * new queue is scheduled.
+         **/
+        public FetchItem getFetchItem() throws InterruptedException {
+            while (true) {
+                // only returns entries whose delay has expired
+                ScheduledQueue sq = readyQueues.take();
+                FetchItemQueue fiq = sq.queue;
+
+                // the end time of the queue could have been pushed back
+                // since it was scheduled
+                long due = fiq.nextFetchTime.get();
+                if (due > sq.time && due > System.currentTimeMillis()) {
+                    readyQueues.add(new ScheduledQueue(fiq, due));
                     continue;
                 }
-                // means that we have traversed the
-                // entire list and yet couldn't find any
-                // eligible fetch item
-
-                if (start == null)
-                    start = fiq;
-                else if (start == fiq)
-                    return null;
 
+                fiq.scheduled.set(false);
                 FetchItem fit = fiq.getFetchItem();
+                // put it back if there is still room for other threads
+                schedule(fiq);
                 if (fit != null) {
                     inQueues.decrementAndGet();
+                    wakeUpLatency.update(System.currentTimeMillis() - sq.time);
                     return fit;
                 }
-            } while (it.hasNext());
-            return null;
+            }
+        }
+
+        /**
+         * Removes the queues which have no items waiting or in progress and
+         * whose politeness delay has expired.
+         **/
+        public void reapIdleQueues() {
+            long now = System.currentTimeMillis();
+            Iterator<FetchItemQueue> iter = queues.values().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().isIdle(now)) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches the robots.txt of the queues as soon as they are created, so that
+     * the rules are already cached or being fetched when their first URL is
+     * due. The protocols cache the rules and let the threads wait for a fetch
+     * in progress.
+     */
+    private class RobotsPrefetcher {
+
+        private final ExecutorService executor;
+
+        RobotsPrefetcher(int threads, int queueSize) {
+            // the hosts which don't fit in the queue are simply not prefetched
+            executor = new ThreadPoolExecutor(threads, threads, 0L,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                            queueSize), new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("RobotsPrefetcher-%d").build(),
+                    new ThreadPoolExecutor.DiscardPolicy());
+        }
+
+        void prefetch(final URL u) {
+            if (HttpRobotRulesParser.isCached(u))
+                return;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // could have been fetched in the meantime
+                        if (HttpRobotRulesParser.isCached(u))
+                            return;
+                        Protocol protocol = protocolFactory.getProtocol(u);
+                        if (protocol == null)
+                            return;
+                        protocol.getRobotRules(u.toExternalForm());
+                        eventCounter.scope("robots_prefetched").incrBy(1);
+                    } catch (Exception e) {
+                        LOG.debug("Failed to prefetch robots for {}", u, e);
+                    }
+                }
+            });
         }
     }
 
@@ -383,252 +605,374 @@ public class FetcherBolt extends BaseRichBolt {
      */
     private class FetcherThread extends Thread {
 
-        // longest delay accepted from robots.txt
-        private final long maxCrawlDelay;
-
-        public FetcherThread(Config conf) {
+        public FetcherThread() {
             this.setDaemon(true); // don't hang JVM on exit
             this.setName("FetcherThread"); // use an informative name
-
-            this.maxCrawlDelay = ConfUtils.getInt(conf,
-                    "fetcher.max.crawl.delay", 30) * 1000;
         }
 
         @Override
         public void run() {
             FetchItem fit;
             while (true) {
-                fit = fetchQueues.getFetchItem();
-                if (fit == null) {
-                    LOG.debug("{} spin-waiting ...", getName());
-                    // spin-wait.
-                    spinWaiting.incrementAndGet();
-                    try {
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                    }
-                    spinWaiting.decrementAndGet();
-                    continue;
+                LOG.debug("{} waiting for an item ...", getName());
+                // parks until a queue is ready
+                idleThreads.incrementAndGet();
+                try {
+                    fit = fetchQueues.getFetchItem();
+                } catch (InterruptedException e) {
+                    LOG.info("{} interrupted, stopping", getName());
+                    return;
+                } finally {
+                    idleThreads.decrementAndGet();
                 }
 
-                activeThreads.incrementAndGet(); // count threads
+                fetch(fit);
+            }
+        }
+    }
 
-                LOG.debug(
-                        "[Fetcher #{}] {}  => activeThreads={}, spinWaiting={}, queueID={}",
-                        taskID, getName(), activeThreads, spinWaiting,
-                        fit.queueID);
+    /**
+     * Picks items from the queues and fetches each of them in a new thread from
+     * the executor. The number of items in progress for a given queue is still
+     * limited by its maxThreads value.
+     */
+    private class FetchDispatcher extends Thread {
 
-                LOG.debug("[Fetcher #{}] {} : Fetching {}", taskID, getName(),
-                        fit.url);
+        private final ExecutorService executor;
 
-                Metadata metadata = null;
+        public FetchDispatcher(ExecutorService executor) {
+            this.executor = executor;
+            this.setDaemon(true); // don't hang JVM on exit
+            this.setName("FetchDispatcher"); // use an informative name
+        }
 
-                if (fit.t.contains("metadata")) {
-                    metadata = (Metadata) fit.t.getValueByField("metadata");
-                }
-                if (metadata == null) {
-                    metadata = Metadata.empty;
+        @Override
+        public void run() {
+            while (true) {
+                final FetchItem fit;
+                idleThreads.incrementAndGet();
+                try {
+                    fit = fetchQueues.getFetchItem();
+                } catch (InterruptedException e) {
+                    LOG.info("{} interrupted, stopping", getName());
+                    executor.shutdown();
+                    return;
+                } finally {
+                    idleThreads.decrementAndGet();
                 }
 
-                boolean asap = true;
+                eventCounter.scope("threads_started").incrBy(1);
 
-                try {
-                    Protocol protocol = protocolFactory.getProtocol(new URL(
-                            fit.url));
-
-                    if (protocol == null)
-                        throw new RuntimeException(
-                                "No protocol implementation found for "
-                                        + fit.url);
-
-                    BaseRobotRules rules = protocol.getRobotRules(fit.url);
-
-                    // autodiscovery of sitemaps
-                    // the sitemaps will be sent down the topology
-                    // as many times as there is a URL for a given host
-                    // the status updater will certainly cache things
-                    // but we could also have a simple cache mechanism here
-                    // as well.
-                    if (sitemapsAutoDiscovery) {
-                        for (String sitemapURL : rules.getSitemaps()) {
-                            handleOutlink(fit.t, fit.url, sitemapURL, metadata);
-                        }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fetch(fit);
                     }
+                });
+            }
+        }
+    }
 
-                    if (!rules.isAllowed(fit.u.toString())) {
+    /** Fetches an item, emits the outcome and finishes the item **/
+    private void fetch(FetchItem fit) {
+        activeThreads.incrementAndGet(); // count threads
 
-                        LOG.info("Denied by robots.txt: {}", fit.url);
+        String threadName = Thread.currentThread().getName();
 
-                        // pass the info about denied by robots
-                        metadata.setValue("error.cause", "robots.txt");
+        LOG.debug(
+                "[Fetcher #{}] {}  => activeThreads={}, idleThreads={}, queueID={}",
+                taskID, threadName, activeThreads, idleThreads, fit.queueID);
 
-                        emitQueue
-                                .add(new Object[] {
-                                        com.digitalpebble.storm.crawler.Constants.StatusStreamName,
-                                        fit.t,
-                                        new Values(fit.url, metadata,
-                                                Status.ERROR) });
-                        continue;
-                    }
-                    if (rules.getCrawlDelay() > 0) {
-                        if (rules.getCrawlDelay() > maxCrawlDelay
-                                && maxCrawlDelay >= 0) {
-
-                            LOG.info(
-                                    "Crawl-Delay for {} too long ({}), skipping",
-                                    fit.url, rules.getCrawlDelay());
-
-                            // pass the info about crawl delay
-                            metadata.setValue("error.cause", "crawl_delay");
-
-                            emitQueue
-                                    .add(new Object[] {
-                                            com.digitalpebble.storm.crawler.Constants.StatusStreamName,
-                                            fit.t,
-                                            new Values(fit.url, metadata,
-                                                    Status.ERROR) });
-                            continue;
-                        } else {
-                            FetchItemQueue fiq = fetchQueues
-                                    .getFetchItemQueue(fit.queueID);
-                            fiq.crawlDelay = rules.getCrawlDelay();
-                            LOG.info(
-                                    "Crawl delay for queue: {}  is set to {} as per robots.txt. url: {}",
-                                    fit.queueID, fiq.crawlDelay, fit.url);
+        LOG.debug("[Fetcher #{}] {} : Fetching {}", taskID, threadName, fit.url);
 
-                        }
-                    }
+        Metadata metadata = null;
 
-                    // will enforce the delay on next fetch
-                    asap = false;
+        if (fit.t.contains("metadata")) {
+            metadata = (Metadata) fit.t.getValueByField("metadata");
+        }
+        if (metadata == null) {
+            metadata = Metadata.empty;
+        }
 
-                    long start = System.currentTimeMillis();
-                    ProtocolResponse response = protocol.getProtocolOutput(
-                            fit.url, metadata);
-                    long timeFetching = System.currentTimeMillis() - start;
+        boolean asap = true;
 
-                    final int byteLength = response.getContent().length;
+        boolean async = false;
 
-                    averagedMetrics.scope("fetch_time").update(timeFetching);
-                    averagedMetrics.scope("bytes_fetched").update(byteLength);
-                    perSecMetrics.scope("bytes_fetched_perSec").update(
-                            byteLength);
-                    perSecMetrics.scope("fetched_perSec").update(1);
-                    eventCounter.scope("fetched").incrBy(1);
-                    eventCounter.scope("bytes_fetched").incrBy(byteLength);
+        try {
+            Protocol protocol = protocolFactory.getProtocol(new URL(fit.url));
+
+            if (protocol == null)
+                throw new RuntimeException(
+                        "No protocol implementation found for " + fit.url);
+
+            BaseRobotRules rules = protocol.getRobotRules(fit.url);
+
+            // autodiscovery of sitemaps
+            // the sitemaps will be sent down the topology
+            // as many times as there is a URL for a given host
+            // the status updater will certainly cache things
+            // but we could also have a simple cache mechanism here
+            // as well.
+            if (sitemapsAutoDiscovery) {
+                for (String sitemapURL : rules.getSitemaps()) {
+                    handleOutlink(fit.t, fit.url, sitemapURL, metadata, null);
+                }
+            }
 
-                    LOG.info(
-                            "[Fetcher #{}] Fetched {} with status {} in msec {}",
-                            taskID, fit.url, response.getStatusCode(),
-                            timeFetching);
-
-                    response.getMetadata().setValue("fetch.statusCode",
-                            Integer.toString(response.getStatusCode()));
-
-                    response.getMetadata().setValue("fetch.loadingTime",
-                            Long.toString(timeFetching));
-
-                    // passes the input metadata if any to the response one
-                    response.getMetadata().putAll(metadata);
-
-                    // determine the status based on the status code
-                    final Status status = Status.fromHTTPCode(response
-                            .getStatusCode());
-
-                    final Object[] statusToSend = new Object[] {
-                            com.digitalpebble.storm.crawler.Constants.StatusStreamName,
-                            fit.t,
-                            new Values(fit.url, response.getMetadata(), status) };
-
-                    // if the status is OK emit on default stream
-                    if (status.equals(Status.FETCHED)) {
-                        if (response.getStatusCode() == 304) {
-                            // mark this URL as fetched so that it gets
-                            // rescheduled
-                            // but do not try to parse or index
-                            emitQueue.add(statusToSend);
-                        } else {
-                            // send content for parsing
-                            emitQueue.add(new Object[] {
-                                    Utils.DEFAULT_STREAM_ID,
-                                    fit.t,
-                                    new Values(fit.url, response.getContent(),
-                                            response.getMetadata()) });
-                        }
-                    } else if (status.equals(Status.REDIRECTION)) {
-
-                        // find the URL it redirects to
-                        String redirection = response.getMetadata()
-                                .getFirstValue(HttpHeaders.LOCATION);
-
-                        // stores the URL it redirects to
-                        // used for debugging mainly - do not resolve the target
-                        // URL
-                        if (StringUtils.isNotBlank(redirection)) {
-                            response.getMetadata().setValue("_redirTo",
-                                    redirection);
-                        }
+            if (!rules.isAllowed(fit.u.toString())) {
 
-                        // mark this URL as redirected
-                        emitQueue.add(statusToSend);
+                LOG.info("Denied by robots.txt: {}", fit.url);
 
-                        if (allowRedirs && StringUtils.isNotBlank(redirection)) {
-                            handleOutlink(fit.t, fit.url, redirection,
-                                    response.getMetadata());
-                        }
+                // pass the info about denied by robots
+                metadata.setValue("error.cause", "robots.txt");
 
-                    }
-                    // error
-                    else {
-                        emitQueue.add(statusToSend);
-                    }
+                emitQueue
+                        .put(new Object[] {
+                                com.digitalpebble.storm.crawler.Constants.StatusStreamName,
+                                fit.t,
+                                new Values(fit.url, metadata, Status.ERROR) });
+                return;
+            }
+            if (rules.getCrawlDelay() > 0) {
+                if (rules.getCrawlDelay() > maxCrawlDelay && maxCrawlDelay >= 0) {
 
-                } catch (Exception exece) {
-                    String message = exece.getMessage();
-                    if (message == null)
-                        message = "";
-
-                    // common exceptions for which we log only a short message
-                    if (exece.getCause() instanceof java.util.concurrent.TimeoutException)
-                        LOG.error("Socket timeout fetching {}", fit.url);
-                    else if (message.contains(" timed out"))
-                        LOG.error("Socket timeout fetching {}", fit.url);
-                    else if (exece.getCause() instanceof java.net.UnknownHostException
-                            | exece instanceof java.net.UnknownHostException)
-                        LOG.error("Unknown host {}", fit.url);
-                    else
-                        LOG.error("Exception while fetching {}", fit.url, exece);
-
-                    if (metadata.size() == 0) {
-                        metadata = new Metadata();
-                    }
-                    // add the reason of the failure in the metadata
-                    metadata.setValue("fetch.exception", message);
+                    LOG.info("Crawl-Delay for {} too long ({}), skipping",
+                            fit.url, rules.getCrawlDelay());
+
+                    // pass the info about crawl delay
+                    metadata.setValue("error.cause", "crawl_delay");
 
-                    // send to status stream
                     emitQueue
-                            .add(new Object[] {
+                            .put(new Object[] {
                                     com.digitalpebble.storm.crawler.Constants.StatusStreamName,
                                     fit.t,
-                                    new Values(fit.url, metadata,
-                                            Status.FETCH_ERROR) });
+                                    new Values(fit.url, metadata, Status.ERROR) });
+                    return;
+                } else {
+                    FetchItemQueue fiq = fetchQueues
+                            .getFetchItemQueue(fit.queueID);
+                    fiq.crawlDelay = rules.getCrawlDelay();
+                    LOG.info(
+                            "Crawl delay for queue: {}  is set to {} as per robots.txt. url: {}",
+                            fit.queueID, fiq.crawlDelay, fit.url);
 
-                    eventCounter.scope("exception").incrBy(1);
-                } finally {
-                    fetchQueues.finishFetchItem(fit, asap);
-                    activeThreads.decrementAndGet(); // count threads
-                    // ack it whatever happens
-                    synchronized (ackQueue) {
-                        ackQueue.add(fit.t);
-                    }
                 }
             }
 
+            // will enforce the delay on next fetch
+            asap = false;
+
+            long start = System.currentTimeMillis();
+
+            if (asyncPermits != null && protocol instanceof AsyncProtocol) {
+                // limits the number of requests in flight
+                asyncPermits.acquire();
+                try {
+                    ((AsyncProtocol) protocol).getProtocolOutput(fit.url,
+                            metadata, new FetchCallback(fit, metadata, start));
+                } catch (Exception e) {
+                    asyncPermits.release();
+                    throw e;
+                }
+                // the callback will finish the item
+                async = true;
+                return;
+            }
+
+            ProtocolResponse response = protocol.getProtocolOutput(fit.url,
+                    metadata);
+            long timeFetching = System.currentTimeMillis() - start;
+
+            handleResponse(fit, metadata, response, timeFetching, null);
+
+        } catch (Exception exece) {
+            handleException(fit, metadata, exece, null);
+        } finally {
+            if (!async) {
+                finishFetchItem(fit, asap, null);
+            }
+            activeThreads.decrementAndGet(); // count threads
+        }
+    }
+
+    /**
+     * Handles the outcome of a fetch done with an {@link AsyncProtocol}. Called
+     * from the I/O threads of the protocol implementation, which must never
+     * wait: the emits and ack of the item are queued together as a single batch
+     * and go to an unbounded overflow if the emit queue is full. The permit
+     * taken before the dispatch is released only once the executor thread has
+     * sent the batch, so the backpressure applies to the dispatch.
+     **/
+    private class FetchCallback implements AsyncProtocol.Callback {
+
+        private final FetchItem fit;
+        private final Metadata metadata;
+        private final long start;
+
+        FetchCallback(FetchItem fit, Metadata metadata, long start) {
+            this.fit = fit;
+            this.metadata = metadata;
+            this.start = start;
+        }
+
+        @Override
+        public void completed(ProtocolResponse response) {
+            long timeFetching = System.currentTimeMillis() - start;
+            List<Object> batch = new ArrayList<>(3);
+            try {
+                handleResponse(fit, metadata, response, timeFetching, batch);
+            } catch (Exception e) {
+                handleException(fit, metadata, e, batch);
+            } finally {
+                finishFetchItem(fit, false, batch);
+                publish(batch);
+            }
+        }
+
+        @Override
+        public void failed(Exception exception) {
+            List<Object> batch = new ArrayList<>(2);
+            try {
+                handleException(fit, metadata, exception, batch);
+            } finally {
+                finishFetchItem(fit, false, batch);
+                publish(batch);
+            }
+        }
+
+        private void publish(List<Object> batch) {
+            if (!emitQueue.offer(batch)) {
+                emitOverflow.add(batch);
+            }
+        }
+    }
+
+    /**
+     * Queues an emit or an ack for the executor thread, in the batch of an
+     * async fetch if there is one
+     **/
+    private void enqueue(Object element, List<Object> batch) {
+        if (batch != null) {
+            batch.add(element);
+        } else {
+            emitQueue.put(element);
+        }
+    }
+
+    private void handleResponse(FetchItem fit, Metadata metadata,
+            ProtocolResponse response, long timeFetching, List<Object> batch) {
+
+        final int byteLength = response.getContent().length;
+
+        averagedMetrics.scope("fetch_time").update(timeFetching);
+        averagedMetrics.scope("bytes_fetched").update(byteLength);
+        perSecMetrics.scope("bytes_fetched_perSec").update(byteLength);
+        perSecMetrics.scope("fetched_perSec").update(1);
+        eventCounter.scope("fetched").incrBy(1);
+        eventCounter.scope("bytes_fetched").incrBy(byteLength);
+
+        LOG.info("[Fetcher #{}] Fetched {} with status {} in msec {}", taskID,
+                fit.url, response.getStatusCode(), timeFetching);
+
+        response.getMetadata().setValue("fetch.statusCode",
+                Integer.toString(response.getStatusCode()));
+
+        response.getMetadata().setValue("fetch.loadingTime",
+                Long.toString(timeFetching));
+
+        // passes the input metadata if any to the response one
+        response.getMetadata().putAll(metadata);
+
+        // determine the status based on the status code
+        final Status status = Status.fromHTTPCode(response.getStatusCode());
+
+        final Object[] statusToSend = new Object[] {
+                com.digitalpebble.storm.crawler.Constants.StatusStreamName,
+                fit.t, new Values(fit.url, response.getMetadata(), status) };
+
+        // if the status is OK emit on default stream
+        if (status.equals(Status.FETCHED)) {
+            if (response.getStatusCode() == 304) {
+                // mark this URL as fetched so that it gets
+                // rescheduled
+                // but do not try to parse or index
+                enqueue(statusToSend, batch);
+            } else {
+                // send content for parsing
+                enqueue(new Object[] {
+                        Utils.DEFAULT_STREAM_ID,
+                        fit.t,
+                        new Values(fit.url, response.getContent(),
+                                response.getMetadata()) }, batch);
+            }
+        } else if (status.equals(Status.REDIRECTION)) {
+
+            // find the URL it redirects to
+            String redirection = response.getMetadata().getFirstValue(
+                    HttpHeaders.LOCATION);
+
+            // stores the URL it redirects to
+            // used for debugging mainly - do not resolve the target
+            // URL
+            if (StringUtils.isNotBlank(redirection)) {
+                response.getMetadata().setValue("_redirTo", redirection);
+            }
+
+            // mark this URL as redirected
+            enqueue(statusToSend, batch);
+
+            if (allowRedirs && StringUtils.isNotBlank(redirection)) {
+                handleOutlink(fit.t, fit.url, redirection,
+                        response.getMetadata(), batch);
+            }
+
+        }
+        // error
+        else {
+            enqueue(statusToSend, batch);
+        }
+    }
+
+    private void handleException(FetchItem fit, Metadata metadata,
+            Exception exece, List<Object> batch) {
+        String message = exece.getMessage();
+        if (message == null)
+            message = "";
+
+        // common exceptions for which we log only a short message
+        if (exece.getCause() instanceof java.util.concurrent.TimeoutException)
+            LOG.error("Socket timeout fetching {}", fit.url);
+        else if (message.contains(" timed out"))
+            LOG.error("Socket timeout fetching {}", fit.url);
+        else if (exece.getCause() instanceof java.net.UnknownHostException
+                | exece instanceof java.net.UnknownHostException)
+            LOG.error("Unknown host {}", fit.url);
+        else
+            LOG.error("Exception while fetching {}", fit.url, exece);
+
+        if (metadata.size() == 0) {
+            metadata = new Metadata();
         }
+        // add the reason of the failure in the metadata
+        metadata.setValue("fetch.exception", message);
+
+        // send to status stream
+        enqueue(new Object[] {
+                com.digitalpebble.storm.crawler.Constants.StatusStreamName,
+                fit.t, new Values(fit.url, metadata, Status.FETCH_ERROR) },
+                batch);
+
+        eventCounter.scope("exception").incrBy(1);
+    }
+
+    private void finishFetchItem(FetchItem fit, boolean asap, List<Object> batch) {
+        fetchQueues.finishFetchItem(fit, asap);
+        // ack it whatever happens
+        enqueue(fit.t, batch);
     }
 
     private void handleOutlink(Tuple t, String sourceUrl, String newUrl,
-            Metadata sourceMetadata) {
+            Metadata sourceMetadata, List<Object> batch) {
 
         // build an absolute URL
         URL sURL;
@@ -653,9 +997,9 @@ public class FetcherBolt extends BaseRichBolt {
         Metadata metadata = metadataTransfer.getMetaForOutlink(newUrl,
                 sourceUrl, sourceMetadata);
 
-        emitQueue.add(new Object[] {
+        enqueue(new Object[] {
                 com.digitalpebble.storm.crawler.Constants.StatusStreamName, t,
-                new Values(newUrl, metadata, Status.DISCOVERED) });
+                new Values(newUrl, metadata, Status.DISCOVERED) }, batch);
     }
 
     private void checkConfiguration(Config stormConf) {
@@ -700,6 +1044,30 @@ public class FetcherBolt extends BaseRichBolt {
         this.eventCounter = context.registerMetric("fetcher_counter",
                 new MultiCountMetric(), metricsTimeBucketSecs);
 
+        // the fetching threads wait when it is full
+        emitQueue = new BoundedMPSCQueue<>(ConfUtils.getInt(conf,
+                "fetcher.emit.queue.size", 16384));
+
+        // time between the production of an emit or ack and its execution
+        emitLatency = context.registerMetric("emit_latency", new ReducedMetric(
+                new MeanReducer()), metricsTimeBucketSecs);
+
+        context.registerMetric("emit_queue", new IMetric() {
+            private long lastBlocked = 0;
+
+            @Override
+            public Object getValueAndReset() {
+                long blocked = emitQueue.getBlockedNanos();
+                Map<String, Object> values = new HashMap<>();
+                values.put("size", emitQueue.size());
+                values.put("overflow", emitOverflow.size());
+                values.put("blocked_msec",
+                        TimeUnit.NANOSECONDS.toMillis(blocked - lastBlocked));
+                lastBlocked = blocked;
+                return values;
+            }
+        }, metricsTimeBucketSecs);
+
         // create gauges
         context.registerMetric("activethreads", new IMetric() {
             @Override
@@ -708,6 +1076,13 @@ public class FetcherBolt extends BaseRichBolt {
             }
         }, metricsTimeBucketSecs);
 
+        context.registerMetric("idlethreads", new IMetric() {
+            @Override
+            public Object getValueAndReset() {
+                return idleThreads.get();
+            }
+        }, metricsTimeBucketSecs);
+
         context.registerMetric("in_queues", new IMetric() {
             @Override
             public Object getValueAndReset() {
@@ -732,16 +1107,77 @@ public class FetcherBolt extends BaseRichBolt {
 
         protocolFactory = new ProtocolFactory(conf);
 
+        protocolFactory.registerMetrics(context, metricsTimeBucketSecs);
+
+        RobotRulesParser.registerCacheMetric(context, metricsTimeBucketSecs);
+
         this.fetchQueues = new FetchItemQueues(conf);
 
+        int prefetchThreads = ConfUtils.getInt(conf,
+                "fetcher.robots.prefetch.threads", 0);
+        if (prefetchThreads > 0
+                && !ConfUtils.getBoolean(conf, "http.skip.robots", false)) {
+            fetchQueues.robotsPrefetcher = new RobotsPrefetcher(
+                    prefetchThreads, ConfUtils.getInt(conf,
+                            "fetcher.robots.prefetch.queue.size", 1000));
+        }
+
+        if (fetchQueues.dnsCache != null) {
+            fetchQueues.dnsCache.registerMetric(context, metricsTimeBucketSecs);
+        }
+
+        if (fetchQueues.pldCache != null) {
+            fetchQueues.pldCache.registerMetric(context, metricsTimeBucketSecs);
+        }
+
+        context.registerMetric("wakeup_latency", fetchQueues.wakeUpLatency,
+                metricsTimeBucketSecs);
+
         this.taskID = context.getThisTaskId();
 
-        int threadCount = ConfUtils.getInt(conf, "fetcher.threads.number", 10);
-        for (int i = 0; i < threadCount; i++) { // spawn threads
-            new FetcherThread(conf).start();
+        // use the non-blocking protocol implementations if any
+        if (ConfUtils.getBoolean(conf, "fetcher.async", false)) {
+            final int maxInFlight = ConfUtils.getInt(conf,
+                    "fetcher.async.max.inflight", 1000);
+            asyncPermits = new Semaphore(maxInFlight);
+
+            context.registerMetric("inflight", new IMetric() {
+                @Override
+                public Object getValueAndReset() {
+                    return maxInFlight - asyncPermits.availablePermits();
+                }
+            }, metricsTimeBucketSecs);
+        }
+
+        this.maxCrawlDelay = ConfUtils.getInt(conf, "fetcher.max.crawl.delay",
+                30) * 1000;
+
+        // one virtual thread per item instead of a fixed number of threads?
+        ExecutorService virtualThreads = null;
+        if (ConfUtils.getBoolean(conf, "fetcher.virtual.threads", false)) {
+            virtualThreads = newVirtualThreadExecutor();
+            if (virtualThreads == null) {
+                LOG.warn(
+                        "[Fetcher #{}] Virtual threads are not supported by this JVM, using fetcher.threads.number instead",
+                        taskID);
+            }
+        }
+
+        if (virtualThreads != null) {
+            LOG.info("[Fetcher #{}] Using a virtual thread per fetch item",
+                    taskID);
+            new FetchDispatcher(virtualThreads).start();
+        } else {
+            int threadCount = ConfUtils.getInt(conf, "fetcher.threads.number",
+                    10);
+            for (int i = 0; i < threadCount; i++) { // spawn threads
+                new FetcherThread().start();
+            }
         }
 
         urlFilters = URLFilters.fromConf(stormConf);
+        context.registerMetric("url_filters", urlFilters.getMetric(),
+                metricsTimeBucketSecs);
 
         allowRedirs = ConfUtils.getBoolean(stormConf,
                 com.digitalpebble.storm.crawler.Constants.AllowRedirParamName,
@@ -769,6 +1205,26 @@ public class FetcherBolt extends BaseRichBolt {
 
     }
 
+    /**
+     * Returns an executor which starts a new virtual thread for each task or
+     * null if the JVM does not support them (Java 21 onwards). Uses reflection
+     * so that the code can be compiled and run on older versions.
+     **/
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        protocolFactory.cleanup();
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
         declarer.declare(new Fields("url", "content", "metadata"));
@@ -789,37 +1245,61 @@ public class FetcherBolt extends BaseRichBolt {
         // see
         // https://github.com/nathanmarz/storm/wiki/Troubleshooting#nullpointerexception-from-deep-inside-storm
 
-        int acked;
-        int emitted;
+        final int[] acked = new int[1];
+        final long now = System.nanoTime();
+
+        final int[] emitted = new int[1];
 
-        // emit with or without anchors
-        // before acking
-        synchronized (emitQueue) {
-            for (Object[] toemit : this.emitQueue) {
-                String streamID = (String) toemit[0];
-                Tuple anchor = (Tuple) toemit[1];
-                Values vals = (Values) toemit[2];
-                if (anchor == null)
-                    _collector.emit(streamID, vals);
-                else
-                    _collector.emit(streamID, Arrays.asList(anchor), vals);
+        // in the order in which they were added so that the emits
+        // anchored to a tuple happen before it is acked
+        emitQueue.drain(new BoundedMPSCQueue.Consumer<Object>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void accept(Object element, long enqueued) {
+                emitLatency.update(TimeUnit.NANOSECONDS
+                        .toMillis(now - enqueued));
+                if (element instanceof List) {
+                    sendBatch((List<Object>) element, acked, emitted);
+                } else {
+                    send(element, acked, emitted);
+                }
             }
-            emitted = emitQueue.size();
-            emitQueue.clear();
+        });
+
+        List<Object> batch;
+        while ((batch = emitOverflow.poll()) != null) {
+            sendBatch(batch, acked, emitted);
         }
 
-        // have a tick tuple to make sure we don't get starved
-        synchronized (ackQueue) {
-            for (Tuple toack : this.ackQueue) {
-                _collector.ack(toack);
-            }
-            acked = ackQueue.size();
-            ackQueue.clear();
+        int drained = acked[0] + emitted[0];
+        if (drained > 0)
+            LOG.info("[Fetcher #{}] Acked : {}\tEmitted : {}", taskID,
+                    acked[0], emitted[0]);
+    }
+
+    /** Sends what an async fetch produced and frees its permit **/
+    private void sendBatch(List<Object> batch, int[] acked, int[] emitted) {
+        for (Object element : batch) {
+            send(element, acked, emitted);
         }
+        asyncPermits.release();
+    }
 
-        if (acked + emitted > 0)
-            LOG.info("[Fetcher #{}] Acked : {}\tEmitted : {}", taskID, acked,
-                    emitted);
+    private void send(Object element, int[] acked, int[] emitted) {
+        if (element instanceof Tuple) {
+            _collector.ack((Tuple) element);
+            acked[0]++;
+            return;
+        }
+        Object[] toemit = (Object[]) element;
+        String streamID = (String) toemit[0];
+        Tuple anchor = (Tuple) toemit[1];
+        Values vals = (Values) toemit[2];
+        if (anchor == null)
+            _collector.emit(streamID, vals);
+        else
+            _collector.emit(streamID, Arrays.asList(anchor), vals);
+        emitted[0]++;
     }
 
     @Override
@@ -841,7 +1321,12 @@ public class FetcherBolt extends BaseRichBolt {
             debugfiletrigger.delete();
         }
 
+        fetchQueues.addResolvedItems();
+
         if (TupleUtils.isTick(input)) {
+            // the queues are only added to by this thread
+            // so it is safe to remove the empty ones here
+            fetchQueues.reapIdleQueues();
             _collector.ack(input);
             return;
         }
@@ -876,27 +1361,29 @@ public class FetcherBolt extends BaseRichBolt {
         }
 
         fetchQueues.addFetchItem(url, input);
+
+        // don't wait for the next tuple to send what is ready
+        flushQueues();
     }
 
     private void logQueuesContent() {
         StringBuilder sb = new StringBuilder();
-        synchronized (fetchQueues.queues) {
-            sb.append("\nNum queues : ").append(fetchQueues.queues.size());
-            Iterator<Entry<String, FetchItemQueue>> iterator = fetchQueues.queues
-                    .entrySet().iterator();
-            while (iterator.hasNext()) {
-                Entry<String, FetchItemQueue> entry = iterator.next();
-                sb.append("\nQueue ID : ").append(entry.getKey());
-                FetchItemQueue fiq = entry.getValue();
-                sb.append("\t size : ").append(fiq.getQueueSize());
-                sb.append("\t in progress : ").append(fiq.getInProgressSize());
-                Iterator<FetchItem> urlsIter = fiq.queue.iterator();
-                while (urlsIter.hasNext()) {
-                    sb.append("\n\t").append(urlsIter.next().url);
-                }
+        sb.append("\nNum queues : ").append(fetchQueues.queues.size());
+        sb.append("\nReady queues : ").append(fetchQueues.readyQueues.size());
+        Iterator<Entry<String, FetchItemQueue>> iterator = fetchQueues.queues
+                .entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, FetchItemQueue> entry = iterator.next();
+            sb.append("\nQueue ID : ").append(entry.getKey());
+            FetchItemQueue fiq = entry.getValue();
+            sb.append("\t size : ").append(fiq.getQueueSize());
+            sb.append("\t in progress : ").append(fiq.getInProgressSize());
+            Iterator<FetchItem> urlsIter = fiq.queue.iterator();
+            while (urlsIter.hasNext()) {
+                sb.append("\n\t").append(urlsIter.next().url);
             }
-            LOG.info("Dumping queue content {}", sb.toString());
         }
+        LOG.info("Dumping queue content {}", sb.toString());
     }
 
 }
@@ -89,6 +89,14 @@ public class JSoupParserBolt extends BaseRichBolt {
 
     protected boolean emitOutlinks = true;
 
+    /**
+     * Whether to pass the raw content on with the parsed text, which is not
+     * needed if the next bolts only use the text
+     **/
+    protected boolean emitContent = true;
+
+    private static final byte[] NO_CONTENT = new byte[0];
+
     protected boolean robots_noFollow_strict = true;
 
     /**
@@ -106,15 +114,20 @@ public class JSoupParserBolt extends BaseRichBolt {
         eventCounter = context.registerMetric(this.getClass().getSimpleName(),
                 new MultiCountMetric(), 10);
 
-        parseFilters = ParseFilters.fromConf(conf);
+        ParseFilters filters = ParseFilters.fromConf(conf);
+        parseFilters = filters;
 
         urlFilters = URLFilters.emptyURLFilters;
         emitOutlinks = ConfUtils.getBoolean(conf, "parser.emitOutlinks", true);
+        emitContent = ConfUtils.getBoolean(conf, "parser.emitContent", true);
 
         if (emitOutlinks) {
             urlFilters = URLFilters.fromConf(conf);
         }
 
+        context.registerMetric("parse_filters", filters.getMetric(), 10);
+        context.registerMetric("url_filters", urlFilters.getMetric(), 10);
+
         trackAnchors = ConfUtils.getBoolean(conf, "track.anchors", true);
 
         robots_noFollow_strict = ConfUtils.getBoolean(conf,
@@ -291,8 +304,9 @@ public class JSoupParserBolt extends BaseRichBolt {
 
             collector.emit(
                     tuple,
-                    new Values(doc.getKey(), parseDoc.getContent(), parseDoc
-                            .getMetadata(), parseDoc.getText()));
+                    new Values(doc.getKey(), emitContent ? parseDoc
+                            .getContent() : NO_CONTENT, parseDoc.getMetadata(),
+                            parseDoc.getText()));
         }
 
         collector.ack(tuple);
@@ -17,10 +17,8 @@
 
 package com.digitalpebble.storm.crawler.bolt;
 
-import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
 import java.util.Map;
@@ -37,8 +35,11 @@ import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
 import com.digitalpebble.storm.crawler.protocol.Protocol;
 import com.digitalpebble.storm.crawler.protocol.ProtocolFactory;
 import com.digitalpebble.storm.crawler.protocol.ProtocolResponse;
+import com.digitalpebble.storm.crawler.protocol.RobotRulesParser;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.digitalpebble.storm.crawler.util.DNSCache;
 import com.digitalpebble.storm.crawler.util.MetadataTransfer;
+import com.digitalpebble.storm.crawler.util.PLDCache;
 import com.digitalpebble.storm.crawler.util.PerSecondReducer;
 import com.digitalpebble.storm.crawler.util.URLUtil;
 import com.google.common.cache.Cache;
@@ -58,7 +59,6 @@ import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
 import backtype.storm.utils.Utils;
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.url.PaidLevelDomain;
 
 /**
  * A single-threaded fetcher with no internal queue. Use of this fetcher
@@ -101,6 +101,11 @@ public class SimpleFetcherBolt extends BaseRichBolt {
 
     private String queueMode;
 
+    /** used in byIP mode only **/
+    private DNSCache dnsCache;
+
+    private PLDCache pldCache;
+
     /** default crawl delay in msec, can be overridden by robots directives **/
     private long crawlDelay = 1000;
 
@@ -172,7 +177,13 @@ public class SimpleFetcherBolt extends BaseRichBolt {
 
         protocolFactory = new ProtocolFactory(conf);
 
+        protocolFactory.registerMetrics(context, metricsTimeBucketSecs);
+
+        RobotRulesParser.registerCacheMetric(context, metricsTimeBucketSecs);
+
         urlFilters = URLFilters.fromConf(stormConf);
+        context.registerMetric("url_filters", urlFilters.getMetric(),
+                metricsTimeBucketSecs);
 
         metadataTransfer = MetadataTransfer.getInstance(stormConf);
 
@@ -195,6 +206,14 @@ public class SimpleFetcherBolt extends BaseRichBolt {
         }
         LOG.info("Using queue mode : {}", queueMode);
 
+        if (queueMode.equals(QUEUE_MODE_IP)) {
+            dnsCache = DNSCache.getInstance(conf);
+            dnsCache.registerMetric(context, metricsTimeBucketSecs);
+        } else if (queueMode.equals(QUEUE_MODE_DOMAIN)) {
+            pldCache = PLDCache.getInstance(conf);
+            pldCache.registerMetric(context, metricsTimeBucketSecs);
+        }
+
         this.crawlDelay = (long) (ConfUtils.getFloat(conf,
                 "fetcher.server.delay", 1.0f) * 1000);
 
@@ -202,6 +221,11 @@ public class SimpleFetcherBolt extends BaseRichBolt {
                 "fetcher.max.crawl.delay", 30) * 1000;
     }
 
+    @Override
+    public void cleanup() {
+        protocolFactory.cleanup();
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
         declarer.declare(new Fields("url", "content", "metadata"));
@@ -464,16 +488,14 @@ public class SimpleFetcherBolt extends BaseRichBolt {
     private String getPolitenessKey(URL u) {
         String key;
         if (QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
-            try {
-                final InetAddress addr = InetAddress.getByName(u.getHost());
-                key = addr.getHostAddress();
-            } catch (final UnknownHostException e) {
+            key = dnsCache.resolve(u.getHost());
+            if (key == null) {
                 // unable to resolve it, so don't fall back to host name
                 LOG.warn("Unable to resolve: {}, skipping.", u.getHost());
                 return null;
             }
         } else if (QUEUE_MODE_DOMAIN.equalsIgnoreCase(queueMode)) {
-            key = PaidLevelDomain.getPLD(u.getHost());
+            key = pldCache.getPLD(u.getHost());
             if (key == null) {
                 LOG.warn("Unknown domain for url: {}, using hostname as key",
                         u.toExternalForm());
@@ -329,8 +329,11 @@ public class SiteMapParserBolt extends BaseRichBolt {
 
         urlFilters = URLFilters.fromConf(stormConf);
 
-        parseFilters = ParseFilters.fromConf(stormConf);
+        ParseFilters filters = ParseFilters.fromConf(stormConf);
+        parseFilters = filters;
 
+        context.registerMetric("url_filters", urlFilters.getMetric(), 10);
+        context.registerMetric("parse_filters", filters.getMetric(), 10);
     }
 
     @Override
@@ -17,12 +17,11 @@
 
 package com.digitalpebble.storm.crawler.bolt;
 
-import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -31,7 +30,14 @@ import org.slf4j.LoggerFactory;
 import com.digitalpebble.storm.crawler.Constants;
 import com.digitalpebble.storm.crawler.Metadata;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
-
+import com.digitalpebble.storm.crawler.util.DNSCache;
+import com.digitalpebble.storm.crawler.util.PLDCache;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import backtype.storm.Config;
 import backtype.storm.metric.api.MultiCountMetric;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
@@ -40,11 +46,15 @@ import backtype.storm.topology.base.BaseRichBolt;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
-import crawlercommons.url.PaidLevelDomain;
+import backtype.storm.utils.TupleUtils;
 
 /**
  * Generates a partition key for a given URL based on the hostname, domain or IP
- * address.
+ * address. The IP addresses are resolved without blocking the bolt, which asks
+ * for tick tuples to emit the URLs once resolved even if no other tuples come
+ * in. As the mode is read from partition.url.mode once the topology is running,
+ * the ticks are requested unless a mode other than byIP is passed to the
+ * constructor.
  */
 public class URLPartitionerBolt extends BaseRichBolt {
 
@@ -55,12 +65,37 @@ public class URLPartitionerBolt extends BaseRichBolt {
 
     private MultiCountMetric eventCounter;
 
-    private Map<String, String> cache;
+    private DNSCache dnsCache;
+
+    private PLDCache pldCache;
+
+    /** tuples for which the IP has been resolved asynchronously **/
+    private final Queue<Object[]> resolved = new ConcurrentLinkedQueue<>();
+
+    /** set by the constructor or from the configuration **/
+    private String mode;
 
-    private String mode = Constants.PARTITION_MODE_HOST;
+    public URLPartitionerBolt() {
+    }
+
+    /**
+     * @param mode
+     *            partition mode to use regardless of partition.url.mode
+     **/
+    public URLPartitionerBolt(String mode) {
+        this.mode = mode;
+    }
 
     @Override
     public void execute(Tuple tuple) {
+        // the tuples waiting for their IP are emitted by this thread
+        emitResolved();
+
+        if (TupleUtils.isTick(tuple)) {
+            _collector.ack(tuple);
+            return;
+        }
+
         String url = tuple.getStringByField("url");
         Metadata metadata = null;
 
@@ -104,35 +139,29 @@ public class URLPartitionerBolt extends BaseRichBolt {
 
         // partition by domain : needs fixing
         else if (mode.equalsIgnoreCase(Constants.PARTITION_MODE_DOMAIN)) {
-            partitionKey = PaidLevelDomain.getPLD(host);
+            partitionKey = pldCache.getPLD(host);
         }
 
         // partition by IP
         if (mode.equalsIgnoreCase(Constants.PARTITION_MODE_IP)
                 && partitionKey == null) {
-            // try to get it from cache first
-            partitionKey = cache.get(host);
-            if (partitionKey != null) {
+            final ListenableFuture<Optional<String>> address = dnsCache
+                    .resolveAsync(host);
+            if (address.isDone()) {
                 eventCounter.scope("from cache").incrBy(1);
-            } else {
-                try {
-                    long start = System.currentTimeMillis();
-                    final InetAddress addr = InetAddress.getByName(host);
-                    partitionKey = addr.getHostAddress();
-                    long end = System.currentTimeMillis();
-                    LOG.debug("Resolved IP {} in {} msec for : {}",
-                            partitionKey, end - start, url);
-
-                    // add to cache
-                    cache.put(host, partitionKey);
-
-                } catch (final Exception e) {
-                    eventCounter.scope("Unable to resolve IP").incrBy(1);
-                    LOG.warn("Unable to resolve IP for: {}", host);
-                    _collector.ack(tuple);
-                    return;
-                }
+                emit(tuple, url, host, Futures.getUnchecked(address), metadata);
+                return;
             }
+            // don't block this thread while the IP is being resolved
+            final Object[] pending = new Object[] { tuple, url, host, metadata,
+                    address };
+            address.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    resolved.add(pending);
+                }
+            }, MoreExecutors.directExecutor());
+            return;
         }
 
         LOG.debug("Partition Key for: {} > {}", url, partitionKey);
@@ -141,6 +170,32 @@ public class URLPartitionerBolt extends BaseRichBolt {
         _collector.ack(tuple);
     }
 
+    private void emitResolved() {
+        Object[] pending;
+        while ((pending = resolved.poll()) != null) {
+            ListenableFuture<Optional<String>> address = (ListenableFuture<Optional<String>>) pending[4];
+            emit((Tuple) pending[0], (String) pending[1], (String) pending[2],
+                    Futures.getUnchecked(address), (Metadata) pending[3]);
+        }
+    }
+
+    private void emit(Tuple tuple, String url, String host,
+            Optional<String> address, Metadata metadata) {
+        if (!address.isPresent()) {
+            eventCounter.scope("Unable to resolve IP").incrBy(1);
+            LOG.warn("Unable to resolve IP for: {}", host);
+            _collector.ack(tuple);
+            return;
+        }
+
+        String partitionKey = address.get();
+
+        LOG.debug("Partition Key for: {} > {}", url, partitionKey);
+
+        _collector.emit(tuple, new Values(url, partitionKey, metadata));
+        _collector.ack(tuple);
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
         declarer.declare(new Fields("url", "key", "metadata"));
@@ -150,9 +205,11 @@ public class URLPartitionerBolt extends BaseRichBolt {
     public void prepare(Map stormConf, TopologyContext context,
             OutputCollector collector) {
 
-        mode = ConfUtils.getString(stormConf,
-                Constants.PARTITION_MODEParamName,
-                Constants.PARTITION_MODE_HOST);
+        if (mode == null) {
+            mode = ConfUtils.getString(stormConf,
+                    Constants.PARTITION_MODEParamName,
+                    Constants.PARTITION_MODE_HOST);
+        }
 
         // check that the mode is known
         if (!mode.equals(Constants.PARTITION_MODE_IP)
@@ -173,18 +230,25 @@ public class URLPartitionerBolt extends BaseRichBolt {
         this.eventCounter = context.registerMetric("URLPartitioner",
                 new MultiCountMetric(), 10);
 
-        final int MAX_ENTRIES = 500;
-        cache = new LinkedHashMap(MAX_ENTRIES + 1, .75F, true) {
-            // This method is called just after a new entry has been added
-            @Override
-            public boolean removeEldestEntry(Map.Entry eldest) {
-                return size() > MAX_ENTRIES;
-            }
-        };
+        if (mode.equals(Constants.PARTITION_MODE_IP)) {
+            dnsCache = DNSCache.getInstance(stormConf);
+            dnsCache.registerMetric(context, 10);
+        } else if (mode.equals(Constants.PARTITION_MODE_DOMAIN)) {
+            pldCache = PLDCache.getInstance(stormConf);
+            pldCache.registerMetric(context, 10);
+        }
+    }
 
-        // If the cache is to be used by multiple threads,
-        // the cache must be wrapped with code to synchronize the methods
-        cache = Collections.synchronizedMap(cache);
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        // the mode is only known here if set in the constructor
+        if (mode != null && !Constants.PARTITION_MODE_IP.equals(mode)) {
+            return null;
+        }
+        Config conf = new Config();
+        // emits the tuples resolved asynchronously if no others come in
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+        return conf;
     }
 
 }
@@ -0,0 +1,116 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import com.digitalpebble.storm.crawler.util.PLDCache;
+
+/**
+ * Mutable URL passed along the {@link ParsedURLFilter} of a chain, so that it
+ * is parsed only once and not by each filter. The parsed form and the values
+ * derived from it are cached until the URL is changed with {@link #set(String)}
+ * .
+ **/
+public class ParsedURL {
+
+    private String url;
+
+    private URL parsed;
+
+    /** true if the URL has been parsed, successfully or not **/
+    private boolean isParsed;
+
+    private String paidLevelDomain;
+
+    public ParsedURL(String url) {
+        this.url = url;
+    }
+
+    /** Replaces the URL, what was derived from the previous one is dropped **/
+    public void set(String newURL) {
+        if (newURL.equals(url)) {
+            return;
+        }
+        this.url = newURL;
+        this.parsed = null;
+        this.isParsed = false;
+        this.paidLevelDomain = null;
+    }
+
+    /** Replaces the URL with one which has already been parsed **/
+    public void set(URL newURL) {
+        this.url = newURL.toExternalForm();
+        this.parsed = newURL;
+        this.isParsed = true;
+        this.paidLevelDomain = null;
+    }
+
+    /** Returns the parsed URL or null if it is malformed **/
+    public URL getURL() {
+        if (!isParsed) {
+            isParsed = true;
+            try {
+                parsed = new URL(url);
+            } catch (MalformedURLException e) {
+                parsed = null;
+            }
+        }
+        return parsed;
+    }
+
+    /** Returns the host or null if the URL is malformed **/
+    public String getHost() {
+        URL u = getURL();
+        return u == null ? null : u.getHost();
+    }
+
+    /** Returns the paid level domain of the host or null if there is none **/
+    public String getPaidLevelDomain() {
+        if (paidLevelDomain == null) {
+            String host = getHost();
+            if (host != null) {
+                paidLevelDomain = PLDCache.getInstance().getPLD(host);
+            }
+        }
+        return paidLevelDomain;
+    }
+
+    /** Returns the path or null if the URL is malformed **/
+    public String getPath() {
+        URL u = getURL();
+        return u == null ? null : u.getPath();
+    }
+
+    /** Returns the query, null if there is none or the URL is malformed **/
+    public String getQuery() {
+        URL u = getURL();
+        return u == null ? null : u.getQuery();
+    }
+
+    /** Returns the anchor, null if there is none or the URL is malformed **/
+    public String getRef() {
+        URL u = getURL();
+        return u == null ? null : u.getRef();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
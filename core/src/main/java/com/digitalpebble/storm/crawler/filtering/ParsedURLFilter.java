@@ -0,0 +1,44 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering;
+
+import java.net.URL;
+
+import com.digitalpebble.storm.crawler.Metadata;
+
+/**
+ * URLFilter which works on a {@link ParsedURL} instead of a String, so that the
+ * URL does not need to be parsed again by each filter of the URLFilters. The
+ * filters which only implement URLFilter are called with the String form of the
+ * URL.
+ */
+public interface ParsedURLFilter extends URLFilter {
+
+    /**
+     * Returns false if the URL is to be removed, normalises it in place
+     * otherwise
+     * 
+     * @param sourceUrl
+     *            the URL of the page where the URL was found. Can be null.
+     * @param sourceMetadata
+     *            the metadata collected for the page
+     * @param urlToFilter
+     *            the URL to be filtered
+     */
+    public boolean filter(URL sourceUrl, Metadata sourceMetadata,
+            ParsedURL urlToFilter);
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering;
+
+import java.net.URL;
+import java.util.Map;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Calls a URLFilter which only works on Strings from a chain of
+ * {@link ParsedURLFilter}. What was parsed from the URL is kept unless the
+ * filter changes it.
+ **/
+class URLFilterAdapter implements ParsedURLFilter {
+
+    private final URLFilter filter;
+
+    URLFilterAdapter(URLFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public void configure(Map stormConf, JsonNode filterParams) {
+        filter.configure(stormConf, filterParams);
+    }
+
+    @Override
+    public String filter(URL sourceUrl, Metadata sourceMetadata,
+            String urlToFilter) {
+        return filter.filter(sourceUrl, sourceMetadata, urlToFilter);
+    }
+
+    @Override
+    public boolean filter(URL sourceUrl, Metadata sourceMetadata,
+            ParsedURL urlToFilter) {
+        String url = urlToFilter.toString();
+        String filtered = filter.filter(sourceUrl, sourceMetadata, url);
+        if (filtered == null) {
+            return false;
+        }
+        if (filtered != url) {
+            urlToFilter.set(filtered);
+        }
+        return true;
+    }
+}
@@ -28,26 +28,44 @@ import java.util.Map;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.LoggerFactory;
 
+import backtype.storm.metric.api.IMetric;
+
 import com.digitalpebble.storm.crawler.Metadata;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.digitalpebble.storm.crawler.util.FilterStats;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.NullNode;
 
 /**
- * Wrapper for the URLFilters defined in a JSON configuration
+ * Wrapper for the URLFilters defined in a JSON configuration. The URL is parsed
+ * once and passed as a {@link ParsedURL} along the filters, the ones which
+ * don't implement {@link ParsedURLFilter} get its String form. The number of
+ * calls, time spent and URLs rejected or rewritten by each filter are available
+ * as a metric with {@link #getMetric()}.
  */
-public class URLFilters implements URLFilter {
+public class URLFilters implements ParsedURLFilter {
 
     public static final URLFilters emptyURLFilters = new URLFilters();
 
     private static final org.slf4j.Logger LOG = LoggerFactory
             .getLogger(URLFilters.class);
 
-    private URLFilter[] filters;
+    private static final int REJECTED = 0;
+
+    private static final int REWRITTEN = 1;
+
+    private ParsedURLFilter[] filters;
+
+    private FilterStats stats;
 
     private URLFilters() {
-        filters = new URLFilters[0];
+        filters = new ParsedURLFilter[0];
+        stats = newStats(new String[0], 0);
+    }
+
+    private static FilterStats newStats(String[] names, int sampling) {
+        return new FilterStats(names, sampling, "rejected", "rewritten");
     }
 
     /**
@@ -95,24 +113,48 @@ public class URLFilters implements URLFilter {
     @Override
     public String filter(URL sourceUrl, Metadata sourceMetadata,
             String urlToFilter) {
-        String normalizedURL = urlToFilter;
-        for (URLFilter filter : filters) {
-            long start = System.currentTimeMillis();
-            normalizedURL = filter.filter(sourceUrl, sourceMetadata,
-                    normalizedURL);
-            long end = System.currentTimeMillis();
-            LOG.debug("URLFilter {} took {} msec", filter.getClass().getName(),
-                    end - start);
-            if (normalizedURL == null)
-                break;
+        ParsedURL normalizedURL = new ParsedURL(urlToFilter);
+        if (!filter(sourceUrl, sourceMetadata, normalizedURL)) {
+            return null;
+        }
+        return normalizedURL.toString();
+    }
+
+    @Override
+    public boolean filter(URL sourceUrl, Metadata sourceMetadata,
+            ParsedURL urlToFilter) {
+        for (int i = 0; i < filters.length; i++) {
+            String before = urlToFilter.toString();
+            long start = stats.start(i);
+            boolean kept = filters[i].filter(sourceUrl, sourceMetadata,
+                    urlToFilter);
+            stats.end(i, start);
+            if (!kept) {
+                stats.increment(i, REJECTED);
+                return false;
+            }
+            if (!before.equals(urlToFilter.toString())) {
+                stats.increment(i, REWRITTEN);
+            }
         }
-        return normalizedURL;
+        return true;
+    }
+
+    /**
+     * Returns a metric with for each filter the number of calls, the time spent
+     * in msec and the number of URLs rejected and rewritten
+     **/
+    public IMetric getMetric() {
+        return stats.getMetric();
     }
 
     @Override
     public void configure(Map stormConf, JsonNode jsonNode) {
         // initialises the filters
-        List<URLFilter> filterLists = new ArrayList<>();
+        List<ParsedURLFilter> filterLists = new ArrayList<>();
+        List<String> statsNames = new ArrayList<>();
+        int sampling = ConfUtils.getInt(stormConf, "filters.timing.sampling",
+                16);
 
         // get the filters part
         String name = getClass().getCanonicalName();
@@ -120,7 +162,8 @@ public class URLFilters implements URLFilter {
 
         if (jsonNode == null) {
             LOG.info("No field {} in JSON config. Skipping", name);
-            filters = new URLFilter[0];
+            filters = new ParsedURLFilter[0];
+            stats = newStats(new String[0], sampling);
             return;
         }
 
@@ -140,6 +183,8 @@ public class URLFilters implements URLFilter {
                 continue;
             }
             String className = classNode.textValue().trim();
+            String statsName = nameNode != null ? filterName : StringUtils
+                    .substringAfterLast("." + className, ".");
             filterName += '[' + className + ']';
 
             // check that it is available and implements the interface URLFilter
@@ -162,7 +207,12 @@ public class URLFilters implements URLFilter {
                     filterInstance.configure(stormConf, NullNode.getInstance());
                 }
 
-                filterLists.add(filterInstance);
+                if (filterInstance instanceof ParsedURLFilter) {
+                    filterLists.add((ParsedURLFilter) filterInstance);
+                } else {
+                    filterLists.add(new URLFilterAdapter(filterInstance));
+                }
+                statsNames.add(statsName);
                 LOG.info("Loaded instance of class {}", className);
             } catch (Exception e) {
                 LOG.error("Can't setup {}: {}", filterName, e);
@@ -170,6 +220,7 @@ public class URLFilters implements URLFilter {
             }
         }
 
-        filters = filterLists.toArray(new URLFilter[filterLists.size()]);
+        filters = filterLists.toArray(new ParsedURLFilter[filterLists.size()]);
+        stats = newStats(FilterStats.uniqueNames(statsNames), sampling);
     }
 }
@@ -36,7 +36,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.digitalpebble.storm.crawler.Metadata;
-import com.digitalpebble.storm.crawler.filtering.URLFilter;
+import com.digitalpebble.storm.crawler.filtering.ParsedURL;
+import com.digitalpebble.storm.crawler.filtering.ParsedURLFilter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
@@ -46,7 +47,7 @@ import org.apache.http.client.utils.URLEncodedUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class BasicURLNormalizer implements URLFilter {
+public class BasicURLNormalizer implements ParsedURLFilter {
 
     private static final Logger LOG = LoggerFactory
             .getLogger(BasicURLNormalizer.class);
@@ -90,73 +91,88 @@ public class BasicURLNormalizer implements URLFilter {
     @Override
     public String filter(URL sourceUrl, Metadata sourceMetadata,
             String urlToFilter) {
+        ParsedURL url = new ParsedURL(urlToFilter);
+        if (!filter(sourceUrl, sourceMetadata, url)) {
+            return null;
+        }
+        return url.toString();
+    }
 
-        urlToFilter = urlToFilter.trim();
+    @Override
+    public boolean filter(URL sourceUrl, Metadata sourceMetadata, ParsedURL url) {
+
+        url.set(url.toString().trim());
 
         if (removeAnchorPart) {
-            try {
-                URL theURL = new URL(urlToFilter);
-                String anchor = theURL.getRef();
-                if (anchor != null)
-                    urlToFilter = urlToFilter.replace("#" + anchor, "");
-            } catch (MalformedURLException e) {
-                return null;
+            if (url.getURL() == null) {
+                return false;
             }
+            String anchor = url.getRef();
+            if (anchor != null)
+                url.set(url.toString().replace("#" + anchor, ""));
         }
 
         if (unmangleQueryString) {
-            urlToFilter = unmangleQueryString(urlToFilter);
+            url.set(unmangleQueryString(url.toString()));
         }
 
         if (!queryElementsToRemove.isEmpty()) {
-            urlToFilter = filterQueryElements(urlToFilter);
+            if (!filterQueryElements(url)) {
+                return false;
+            }
         }
 
-        try {
-            URL theURL = new URL(urlToFilter);
-            String file = theURL.getFile();
-            String protocol = theURL.getProtocol();
-            String host = theURL.getHost();
-            boolean hasChanged = false;
-
-            // lowercased protocol
-            if (!urlToFilter.startsWith(protocol)) {
-                hasChanged = true;
-            }
+        // parsed only once if the steps above did not change the URL
+        URL theURL = url.getURL();
+        if (theURL == null) {
+            return false;
+        }
 
-            if (host != null) {
-                String newHost = host.toLowerCase(Locale.ROOT);
-                if (!host.equals(newHost)) {
-                    host = newHost;
-                    hasChanged = true;
-                }
-            }
+        String urlToFilter = url.toString();
+        String file = theURL.getFile();
+        String protocol = theURL.getProtocol();
+        String host = theURL.getHost();
+        boolean hasChanged = false;
+
+        // lowercased protocol
+        if (!urlToFilter.startsWith(protocol)) {
+            hasChanged = true;
+        }
 
-            int port = theURL.getPort();
-            // properly encode characters in path/file using percent-encoding
-            String file2 = unescapePath(file);
-            file2 = escapePath(file2);
-            if (!file.equals(file2)) {
+        if (host != null) {
+            String newHost = host.toLowerCase(Locale.ROOT);
+            if (!host.equals(newHost)) {
+                host = newHost;
                 hasChanged = true;
             }
-            if (hasChanged) {
-                urlToFilter = new URL(protocol, host, port, file2).toString();
+        }
+
+        int port = theURL.getPort();
+        // properly encode characters in path/file using percent-encoding
+        String file2 = unescapePath(file);
+        file2 = escapePath(file2);
+        if (!file.equals(file2)) {
+            hasChanged = true;
+        }
+        if (hasChanged) {
+            try {
+                url.set(new URL(protocol, host, port, file2));
+            } catch (MalformedURLException e) {
+                return false;
             }
-        } catch (MalformedURLException e) {
-            return null;
         }
 
         if (checkValidURI) {
             try {
-                URI uri = URI.create(urlToFilter);
-                urlToFilter = uri.normalize().toString();
+                URI uri = URI.create(url.toString());
+                url.set(uri.normalize().toString());
             } catch (java.lang.IllegalArgumentException e) {
-                LOG.info("Invalid URI {}", urlToFilter);
-                return null;
+                LOG.info("Invalid URI {}", url);
+                return false;
             }
         }
 
-        return urlToFilter;
+        return true;
     }
 
     @Override
@@ -197,14 +213,17 @@ public class BasicURLNormalizer implements URLFilter {
      * a google analytics query parameter like "utm_campaign" which might have
      * several different values for a url that points to the same content.
      */
-    private String filterQueryElements(String urlToFilter) {
+    private boolean filterQueryElements(ParsedURL urlToFilter) {
         try {
             // Handle illegal characters by making a url first
             // this will clean illegal characters like |
-            URL url = new URL(urlToFilter);
+            URL url = urlToFilter.getURL();
+            if (url == null) {
+                throw new MalformedURLException(urlToFilter.toString());
+            }
 
             if (StringUtils.isEmpty(url.getQuery())) {
-                return urlToFilter;
+                return true;
             }
 
             List<NameValuePair> pairs = new ArrayList<>();
@@ -231,11 +250,12 @@ public class BasicURLNormalizer implements URLFilter {
                 newFile.append('#').append(url.getRef());
             }
 
-            return new URL(url.getProtocol(), url.getHost(), url.getPort(),
-                    newFile.toString()).toString();
+            urlToFilter.set(new URL(url.getProtocol(), url.getHost(), url
+                    .getPort(), newFile.toString()));
+            return true;
         } catch (MalformedURLException e) {
             LOG.warn("Invalid urlToFilter {}. {}", urlToFilter, e);
-            return null;
+            return false;
         }
     }
 
@@ -1,15 +1,14 @@
 package com.digitalpebble.storm.crawler.filtering.host;
 
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
 
 import com.digitalpebble.storm.crawler.Metadata;
-import com.digitalpebble.storm.crawler.filtering.URLFilter;
+import com.digitalpebble.storm.crawler.filtering.ParsedURL;
+import com.digitalpebble.storm.crawler.filtering.ParsedURLFilter;
+import com.digitalpebble.storm.crawler.util.PLDCache;
 import com.fasterxml.jackson.databind.JsonNode;
 
-import crawlercommons.url.PaidLevelDomain;
-
 /**
  * Filters URL based on the hostname.
  * 
@@ -21,17 +20,21 @@ import crawlercommons.url.PaidLevelDomain;
  * domain different from the source's domain are filtered out</li>
  * </ul>
  */
-public class HostURLFilter implements URLFilter {
+public class HostURLFilter implements ParsedURLFilter {
 
     private boolean ignoreOutsideHost;
     private boolean ignoreOutsideDomain;
 
+    private PLDCache pldCache;
+
     private URL previousSourceUrl;
     private String previousSourceHost;
     private String previousSourceDomain;
 
     @Override
     public void configure(Map stormConf, JsonNode filterParams) {
+        pldCache = PLDCache.getInstance(stormConf);
+
         JsonNode filterByHostNode = filterParams.get("ignoreOutsideHost");
         if (filterByHostNode == null) {
             ignoreOutsideHost = false;
@@ -57,15 +60,24 @@ public class HostURLFilter implements URLFilter {
     @Override
     public String filter(URL sourceUrl, Metadata sourceMetadata,
             String urlToFilter) {
-        if (sourceUrl == null || (!ignoreOutsideHost && !ignoreOutsideDomain)) {
+        if (filter(sourceUrl, sourceMetadata, new ParsedURL(urlToFilter))) {
             return urlToFilter;
         }
+        return null;
+    }
+
+    @Override
+    public boolean filter(URL sourceUrl, Metadata sourceMetadata,
+            ParsedURL urlToFilter) {
+        if (sourceUrl == null || (!ignoreOutsideHost && !ignoreOutsideDomain)) {
+            return true;
+        }
 
-        URL tURL;
-        try {
-            tURL = new URL(urlToFilter);
-        } catch (MalformedURLException e1) {
-            return null;
+        // resolve the hosts
+        String toHost = urlToFilter.getHost();
+        if (toHost == null) {
+            // malformed
+            return false;
         }
 
         String fromHost;
@@ -79,30 +91,27 @@ public class HostURLFilter implements URLFilter {
         } else {
             fromHost = sourceUrl.getHost();
             if (ignoreOutsideDomain) {
-                fromDomain = PaidLevelDomain.getPLD(fromHost);
+                fromDomain = pldCache.getPLD(fromHost);
             }
             previousSourceHost = fromHost;
             previousSourceDomain = fromDomain;
             previousSourceUrl = sourceUrl;
         }
 
-        // resolve the hosts
-        String toHost = tURL.getHost();
-
         if (ignoreOutsideHost) {
-            if (toHost == null || !toHost.equalsIgnoreCase(fromHost)) {
-                return null;
+            if (!toHost.equalsIgnoreCase(fromHost)) {
+                return false;
             }
         }
 
         if (ignoreOutsideDomain) {
-            String toDomain = PaidLevelDomain.getPLD(toHost);
+            String toDomain = urlToFilter.getPaidLevelDomain();
             if (toDomain == null || !toDomain.equals(fromDomain)) {
-                return null;
+                return false;
             }
         }
 
-        return urlToFilter;
+        return true;
     }
 
 }
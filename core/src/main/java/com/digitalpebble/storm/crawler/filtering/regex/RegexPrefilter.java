@@ -0,0 +1,383 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Literal strings and sets of chars which are found in any string matched by a
+ * regular expression, so that the strings which don't contain them can be
+ * skipped without running the expression. They are extracted conservatively
+ * from the syntax of java.util.regex: anything which is not understood is
+ * treated as not requiring anything, and the expressions which can't be
+ * analysed at all don't get a prefilter.
+ **/
+class RegexPrefilter {
+
+    /** strings which must all be found **/
+    private final String[] literals;
+
+    /** sets of chars of which at least one must be found, for each set **/
+    private final String[] anyOf;
+
+    private RegexPrefilter(List<String> literals, List<String> anyOf) {
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.anyOf = anyOf.toArray(new String[anyOf.size()]);
+    }
+
+    /**
+     * Returns a prefilter for the expression or null if nothing could be
+     * extracted from it
+     **/
+    static RegexPrefilter of(String regex) {
+        List<String> literals = new ArrayList<>();
+        List<String> anyOf = new ArrayList<>();
+        try {
+            new Parser(regex).parse(literals, anyOf);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (literals.isEmpty() && anyOf.isEmpty()) {
+            return null;
+        }
+        return new RegexPrefilter(literals, anyOf);
+    }
+
+    /** False if the expression can't match the input **/
+    boolean mayMatch(String input) {
+        for (String literal : literals) {
+            if (!input.contains(literal)) {
+                return false;
+            }
+        }
+        for (String chars : anyOf) {
+            if (!StringUtils.containsAny(input, chars)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "literals=" + StringUtils.join(literals, ", ") + " anyOf="
+                + StringUtils.join(anyOf, ", ");
+    }
+
+    /** Required parts of an expression **/
+    private static final class Required {
+        final List<String> literals = new ArrayList<>();
+        final List<String> anyOf = new ArrayList<>();
+
+        void addAll(Required other) {
+            literals.addAll(other.literals);
+            anyOf.addAll(other.anyOf);
+        }
+    }
+
+    private static final class Parser {
+        private final String regex;
+        private int pos;
+        /** set as soon as a case insensitive flag is found **/
+        private boolean ignoreCase;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        void parse(List<String> literals, List<String> anyOf) {
+            Required required = parseAlternation();
+            if (pos != regex.length()) {
+                throw invalid();
+            }
+            for (String literal : required.literals) {
+                if (!literals.contains(literal)) {
+                    literals.add(literal);
+                }
+            }
+            anyOf.addAll(required.anyOf);
+        }
+
+        private IllegalArgumentException invalid() {
+            return new IllegalArgumentException(regex);
+        }
+
+        private boolean more() {
+            return pos < regex.length();
+        }
+
+        private char peek() {
+            return regex.charAt(pos);
+        }
+
+        private Required parseAlternation() {
+            Required required = parseSequence();
+            boolean alternatives = false;
+            while (more() && peek() == '|') {
+                pos++;
+                parseSequence();
+                alternatives = true;
+            }
+            // what the alternatives have in common is not worth computing
+            return alternatives ? new Required() : required;
+        }
+
+        private Required parseSequence() {
+            Required required = new Required();
+            StringBuilder run = new StringBuilder();
+            while (more() && peek() != '|' && peek() != ')') {
+                char c = regex.charAt(pos++);
+                Required atom = null;
+                int literal = -1;
+                switch (c) {
+                case '(':
+                    atom = parseGroup();
+                    break;
+                case '[':
+                    atom = parseClass();
+                    break;
+                case '\\':
+                    literal = parseEscape();
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw invalid();
+                default:
+                    literal = c;
+                }
+                if (literal != -1 && ignoreCase
+                        && Character.isLetter((char) literal)) {
+                    literal = -1;
+                }
+                int quantifier = parseQuantifier();
+                if (literal != -1 && quantifier != OPTIONAL) {
+                    run.append((char) literal);
+                    if (quantifier == ONCE) {
+                        continue;
+                    }
+                }
+                flush(run, required);
+                if (atom != null && quantifier != OPTIONAL) {
+                    required.addAll(atom);
+                }
+            }
+            flush(run, required);
+            return required;
+        }
+
+        private static void flush(StringBuilder run, Required required) {
+            if (run.length() > 0) {
+                required.literals.add(run.toString());
+                run.setLength(0);
+            }
+        }
+
+        private static final int ONCE = 0;
+        private static final int OPTIONAL = 1;
+        private static final int REPEATED = 2;
+
+        private int parseQuantifier() {
+            if (!more()) {
+                return ONCE;
+            }
+            int quantifier;
+            switch (peek()) {
+            case '?':
+            case '*':
+                quantifier = OPTIONAL;
+                pos++;
+                break;
+            case '+':
+                quantifier = REPEATED;
+                pos++;
+                break;
+            case '{':
+                int close = regex.indexOf('}', pos);
+                if (close == -1) {
+                    throw invalid();
+                }
+                String bounds = regex.substring(pos + 1, close);
+                pos = close + 1;
+                if (bounds.startsWith("0")) {
+                    quantifier = OPTIONAL;
+                } else if (bounds.equals("1")) {
+                    quantifier = ONCE;
+                } else {
+                    quantifier = REPEATED;
+                }
+                break;
+            default:
+                return ONCE;
+            }
+            // reluctant or possessive
+            if (more() && (peek() == '?' || peek() == '+')) {
+                pos++;
+            }
+            return quantifier;
+        }
+
+        private Required parseGroup() {
+            boolean required = true;
+            if (more() && peek() == '?') {
+                pos++;
+                if (!more()) {
+                    throw invalid();
+                }
+                char c = regex.charAt(pos);
+                if (c == '=' || c == '!') {
+                    // lookahead
+                    required = false;
+                    pos++;
+                } else if (regex.startsWith("<=", pos)
+                        || regex.startsWith("<!", pos)) {
+                    // lookbehind
+                    required = false;
+                    pos += 2;
+                } else if (c == '<') {
+                    // named group
+                    int close = regex.indexOf('>', pos);
+                    if (close == -1) {
+                        throw invalid();
+                    }
+                    pos = close + 1;
+                } else if (c == '>' || c == ':') {
+                    pos++;
+                } else if (parseFlags()) {
+                    // only sets the flags
+                    return null;
+                }
+            }
+            Required content = parseAlternation();
+            if (!more() || peek() != ')') {
+                throw invalid();
+            }
+            pos++;
+            return required ? content : null;
+        }
+
+        /**
+         * Parses the flags following '(?', returns true if they are not
+         * followed by an expression
+         **/
+        private boolean parseFlags() {
+            while (more()) {
+                char c = regex.charAt(pos++);
+                switch (c) {
+                case ')':
+                    return true;
+                case ':':
+                    return false;
+                case 'i':
+                    ignoreCase = true;
+                    break;
+                case 'x':
+                    // whitespace and comments are ignored
+                    throw invalid();
+                default:
+                    if (c != '-' && !Character.isLetter(c)) {
+                        throw invalid();
+                    }
+                }
+            }
+            throw invalid();
+        }
+
+        /**
+         * Parses what follows a backslash out of a class, returns the char if
+         * it is a literal or -1
+         **/
+        private int parseEscape() {
+            if (!more()) {
+                throw invalid();
+            }
+            char c = regex.charAt(pos++);
+            if (!Character.isLetterOrDigit(c)) {
+                return c;
+            }
+            // the ones which are not followed by anything
+            if ("dDwWsSbBAzZGhHvVRXtnrfae".indexOf(c) == -1) {
+                throw invalid();
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the chars of the class if it is a plain list of chars, null
+         * otherwise
+         **/
+        private Required parseClass() {
+            StringBuilder chars = new StringBuilder();
+            boolean plain = true;
+            if (more() && peek() == '^') {
+                plain = false;
+                pos++;
+            }
+            if (more() && peek() == ']') {
+                throw invalid();
+            }
+            int depth = 1;
+            while (true) {
+                if (!more()) {
+                    throw invalid();
+                }
+                char c = regex.charAt(pos++);
+                if (c == ']') {
+                    if (--depth == 0) {
+                        break;
+                    }
+                } else if (c == '[') {
+                    depth++;
+                    plain = false;
+                } else if (c == '\\') {
+                    if (!more()) {
+                        throw invalid();
+                    }
+                    char e = regex.charAt(pos++);
+                    if (Character.isLetterOrDigit(e)) {
+                        if ("dDwWsShHvVtnrfae".indexOf(e) == -1) {
+                            throw invalid();
+                        }
+                        plain = false;
+                    } else {
+                        chars.append(e);
+                    }
+                } else if (c == '-' || c == '&') {
+                    plain = false;
+                } else if (ignoreCase && Character.isLetter(c)) {
+                    plain = false;
+                } else {
+                    chars.append(c);
+                }
+            }
+            if (!plain || chars.length() == 0) {
+                return null;
+            }
+            Required required = new Required();
+            required.anyOf.add(chars.toString());
+            return required;
+        }
+    }
+}
@@ -24,6 +24,8 @@ public abstract class RegexRule {
 
     private final boolean sign;
 
+    private final String regex;
+
     /**
      * Constructs a new regular expression rule.
      * 
@@ -38,6 +40,12 @@ public abstract class RegexRule {
      */
     protected RegexRule(boolean sign, String regex) {
         this.sign = sign;
+        this.regex = regex;
+    }
+
+    /** Returns the regular expression of this rule. */
+    protected String getRegex() {
+        return regex;
     }
 
     /**
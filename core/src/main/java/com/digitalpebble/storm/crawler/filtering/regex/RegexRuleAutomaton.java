@@ -0,0 +1,919 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles a list of {@link RegexRule} into a single automaton which finds in
+ * one pass over a URL the first rule matching it. The expressions are parsed
+ * with the syntax of java.util.regex into a Thompson NFA, from which the states
+ * of a DFA are built lazily and cached. The expressions using features which
+ * need backtracking (backreferences, lookarounds, possessive quantifiers, word
+ * boundaries...) are not compiled and are matched with
+ * {@link RegexRule#match(String)} at their position in the list, so that the
+ * first rule to match is the same as when the rules are tried one by one.
+ **/
+class RegexRuleAutomaton {
+
+    /** Value of a state which does not accept any rule **/
+    private static final int NONE = Integer.MAX_VALUE;
+
+    /** Returned by {@link #match(String)} if the automaton can't be used **/
+    private static final int UNSUPPORTED = -1;
+
+    /** Beyond that number of states the new transitions are not cached **/
+    private static final int MAX_STATES = 10000;
+
+    /** Max number of copies of an expression for a bounded repetition **/
+    private static final int MAX_REPEAT = 100;
+
+    private final List<RegexRule> rules;
+
+    /** indices of the rules which have not been compiled, in order **/
+    private final int[] fallback;
+
+    /** lowest index of the compiled rules **/
+    private final int firstCompiled;
+
+    private final Node[] nodes;
+
+    /** start node of each compiled rule **/
+    private final int[] starts;
+
+    private final ConcurrentHashMap<StateKey, DState> states = new ConcurrentHashMap<>();
+
+    private final DState initial;
+
+    RegexRuleAutomaton(List<RegexRule> rules) {
+        this.rules = rules;
+        List<Node> builder = new ArrayList<>();
+        List<Integer> compiledStarts = new ArrayList<>();
+        List<Integer> others = new ArrayList<>();
+        int first = NONE;
+        for (int i = 0; i < rules.size(); i++) {
+            Expr expr;
+            try {
+                expr = new Parser(rules.get(i).getRegex()).parse();
+            } catch (UnsupportedOperationException e) {
+                others.add(i);
+                continue;
+            }
+            Node accept = new Node(Node.ACCEPT);
+            accept.rule = i;
+            int next = Node.add(builder, accept);
+            compiledStarts.add(expr.compile(builder, next));
+            first = Math.min(first, i);
+        }
+        this.nodes = builder.toArray(new Node[builder.size()]);
+        this.starts = toArray(compiledStarts);
+        this.fallback = toArray(others);
+        this.firstCompiled = first;
+        this.initial = newState(starts, true);
+        // the other states are never at the start
+        this.initial.cached = true;
+    }
+
+    /** Number of rules compiled into the automaton **/
+    int getCompiledRules() {
+        return starts.length;
+    }
+
+    /** Returns the first rule matching the URL or null if none does **/
+    RegexRule firstMatch(String url) {
+        int best = match(url);
+        if (best == UNSUPPORTED) {
+            for (RegexRule rule : rules) {
+                if (rule.match(url)) {
+                    return rule;
+                }
+            }
+            return null;
+        }
+        // the rules which have not been compiled and come before
+        for (int index : fallback) {
+            if (index > best) {
+                break;
+            }
+            RegexRule rule = rules.get(index);
+            if (rule.match(url)) {
+                return rule;
+            }
+        }
+        return best == NONE ? null : rules.get(best);
+    }
+
+    /**
+     * Returns the lowest index of the compiled rules matching the URL, NONE if
+     * there isn't any or UNSUPPORTED if the URL contains characters for which
+     * the automaton would not behave like java.util.regex
+     **/
+    private int match(String url) {
+        DState state = initial;
+        int best = state.accept;
+        for (int i = 0; i < url.length(); i++) {
+            if (best == firstCompiled) {
+                return best;
+            }
+            char c = url.charAt(i);
+            // '.' and '$' treat the line terminators differently
+            // and the classes match code points, not chars
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+                    || c == '\u2029' || Character.isSurrogate(c)) {
+                return UNSUPPORTED;
+            }
+            DState next = c < 128 ? state.next[c] : null;
+            if (next == null) {
+                next = step(state, c);
+            }
+            state = next;
+            if (state.accept < best) {
+                best = state.accept;
+            }
+        }
+        return Math.min(best, state.endAccept);
+    }
+
+    private DState step(DState state, char c) {
+        int[] seed = new int[state.nodes.length + starts.length];
+        int size = 0;
+        for (int n : state.nodes) {
+            Node node = nodes[n];
+            if (node.type == Node.CHAR && node.chars.matches(c)) {
+                seed[size++] = node.out;
+            }
+        }
+        // a match can start at any position
+        System.arraycopy(starts, 0, seed, size, starts.length);
+        size += starts.length;
+        DState next = getState(Arrays.copyOf(seed, size));
+        if (c < 128 && next.cached) {
+            state.next[c] = next;
+        }
+        return next;
+    }
+
+    private DState newState(int[] seed, boolean atStart) {
+        int[] accept = new int[1];
+        int[] frontier = closure(seed, atStart, false, accept);
+        int[] endAccept = new int[1];
+        closure(seed, atStart, true, endAccept);
+        return new DState(frontier, accept[0], endAccept[0]);
+    }
+
+    private DState getState(int[] seed) {
+        int[] accept = new int[1];
+        int[] frontier = closure(seed, false, false, accept);
+        StateKey key = new StateKey(frontier, accept[0]);
+        DState state = states.get(key);
+        if (state != null) {
+            return state;
+        }
+        state = newState(seed, false);
+        if (states.size() >= MAX_STATES) {
+            return state;
+        }
+        DState previous = states.putIfAbsent(key, state);
+        if (previous != null) {
+            return previous;
+        }
+        state.cached = true;
+        return state;
+    }
+
+    /**
+     * Follows the epsilon transitions from the seed nodes and returns the nodes
+     * consuming a char as well as the '$' not at the end of the input, sorted.
+     * Puts the lowest rule accepted into accept[0].
+     **/
+    private int[] closure(int[] seed, boolean atStart, boolean atEnd,
+            int[] accept) {
+        boolean[] visited = new boolean[nodes.length];
+        int[] stack = new int[nodes.length];
+        int[] frontier = new int[nodes.length];
+        int top = 0;
+        int size = 0;
+        accept[0] = NONE;
+        for (int n : seed) {
+            if (!visited[n]) {
+                visited[n] = true;
+                stack[top++] = n;
+            }
+        }
+        while (top > 0) {
+            Node node = nodes[stack[--top]];
+            int[] outs;
+            switch (node.type) {
+            case Node.CHAR:
+                frontier[size++] = node.id;
+                continue;
+            case Node.ACCEPT:
+                accept[0] = Math.min(accept[0], node.rule);
+                continue;
+            case Node.BOL:
+                if (!atStart) {
+                    continue;
+                }
+                outs = new int[] { node.out };
+                break;
+            case Node.EOL:
+                if (!atEnd) {
+                    frontier[size++] = node.id;
+                    continue;
+                }
+                outs = new int[] { node.out };
+                break;
+            default:
+                outs = node.outs;
+            }
+            for (int out : outs) {
+                if (!visited[out]) {
+                    visited[out] = true;
+                    stack[top++] = out;
+                }
+            }
+        }
+        int[] sorted = Arrays.copyOf(frontier, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static final class DState {
+        final int[] nodes;
+        /** lowest rule matched by a match ending here **/
+        final int accept;
+        /** same if the input ends here **/
+        final int endAccept;
+        /** transitions for the ASCII chars, filled lazily **/
+        final DState[] next = new DState[128];
+        volatile boolean cached;
+
+        DState(int[] nodes, int accept, int endAccept) {
+            this.nodes = nodes;
+            this.accept = accept;
+            this.endAccept = Math.min(accept, endAccept);
+        }
+    }
+
+    private static final class StateKey {
+        private final int[] nodes;
+        private final int accept;
+        private final int hash;
+
+        StateKey(int[] nodes, int accept) {
+            this.nodes = nodes;
+            this.accept = accept;
+            this.hash = 31 * Arrays.hashCode(nodes) + accept;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StateKey)) {
+                return false;
+            }
+            StateKey other = (StateKey) obj;
+            return accept == other.accept && Arrays.equals(nodes, other.nodes);
+        }
+    }
+
+    /** Node of the NFA **/
+    private static final class Node {
+        static final int CHAR = 0;
+        static final int SPLIT = 1;
+        static final int BOL = 2;
+        static final int EOL = 3;
+        static final int ACCEPT = 4;
+
+        final int type;
+        int id;
+        CharClass chars;
+        /** next node for CHAR, BOL and EOL **/
+        int out;
+        /** next nodes for SPLIT **/
+        int[] outs;
+        int rule;
+
+        Node(int type) {
+            this.type = type;
+        }
+
+        static int add(List<Node> nodes, Node node) {
+            node.id = nodes.size();
+            nodes.add(node);
+            return node.id;
+        }
+    }
+
+    /** Set of chars as sorted and disjoint ranges **/
+    private static final class CharClass {
+        static final CharClass ALL = new CharClass(new int[] { 0, 0xFFFF });
+        static final CharClass DIGITS = new CharClass(new int[] { '0', '9' });
+        static final CharClass WORD = new CharClass(new int[] { '0', '9', 'A',
+                'Z', '_', '_', 'a', 'z' });
+        static final CharClass SPACES = new CharClass(new int[] { '\t', '\r',
+                ' ', ' ' });
+
+        private final int[] ranges;
+
+        CharClass(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        boolean matches(char c) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (c < ranges[i]) {
+                    return false;
+                }
+                if (c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Builds a class from unsorted and possibly overlapping ranges **/
+        static CharClass of(List<int[]> list) {
+            List<int[]> sorted = new ArrayList<>(list);
+            Collections.sort(sorted, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] a, int[] b) {
+                    return Integer.compare(a[0], b[0]);
+                }
+            });
+            List<Integer> merged = new ArrayList<>();
+            for (int[] range : sorted) {
+                int last = merged.size() - 1;
+                if (last > 0 && range[0] <= merged.get(last) + 1) {
+                    merged.set(last, Math.max(merged.get(last), range[1]));
+                } else {
+                    merged.add(range[0]);
+                    merged.add(range[1]);
+                }
+            }
+            return new CharClass(toArray(merged));
+        }
+
+        void addTo(List<int[]> list) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                list.add(new int[] { ranges[i], ranges[i + 1] });
+            }
+        }
+
+        CharClass negate() {
+            List<int[]> list = new ArrayList<>();
+            int from = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > from) {
+                    list.add(new int[] { from, ranges[i] - 1 });
+                }
+                from = ranges[i + 1] + 1;
+            }
+            if (from <= 0xFFFF) {
+                list.add(new int[] { from, 0xFFFF });
+            }
+            return of(list);
+        }
+
+        /** Adds the other case of the ASCII letters, as java.util.regex **/
+        CharClass ignoreCase() {
+            List<int[]> list = new ArrayList<>();
+            addTo(list);
+            addCase(list, 'a', 'z', 'A' - 'a');
+            addCase(list, 'A', 'Z', 'a' - 'A');
+            return of(list);
+        }
+
+        private void addCase(List<int[]> list, int from, int to, int shift) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                int lo = Math.max(from, ranges[i]);
+                int hi = Math.min(to, ranges[i + 1]);
+                if (lo <= hi) {
+                    list.add(new int[] { lo + shift, hi + shift });
+                }
+            }
+        }
+    }
+
+    /** Parsed regular expression **/
+    private abstract static class Expr {
+        /**
+         * Adds the nodes matching the expression followed by the given node,
+         * returns the start node
+         **/
+        abstract int compile(List<Node> nodes, int next);
+
+        /** True if the expression can match without consuming any char **/
+        abstract boolean nullable();
+    }
+
+    private static final class Chars extends Expr {
+        final CharClass chars;
+
+        Chars(CharClass chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        int compile(List<Node> nodes, int next) {
+            Node node = new Node(Node.CHAR);
+            node.chars = chars;
+            node.out = next;
+            return Node.add(nodes, node);
+        }
+
+        @Override
+        boolean nullable() {
+            return false;
+        }
+    }
+
+    private static final class Anchor extends Expr {
+        final int type;
+
+        Anchor(int type) {
+            this.type = type;
+        }
+
+        @Override
+        int compile(List<Node> nodes, int next) {
+            Node node = new Node(type);
+            node.out = next;
+            return Node.add(nodes, node);
+        }
+
+        @Override
+        boolean nullable() {
+            return true;
+        }
+    }
+
+    private static final class Sequence extends Expr {
+        final List<Expr> items = new ArrayList<>();
+
+        @Override
+        int compile(List<Node> nodes, int next) {
+            int start = next;
+            for (int i = items.size() - 1; i >= 0; i--) {
+                start = items.get(i).compile(nodes, start);
+            }
+            return start;
+        }
+
+        @Override
+        boolean nullable() {
+            for (Expr item : items) {
+                if (!item.nullable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Alternation extends Expr {
+        final List<Expr> options = new ArrayList<>();
+
+        @Override
+        int compile(List<Node> nodes, int next) {
+            if (options.size() == 1) {
+                return options.get(0).compile(nodes, next);
+            }
+            Node split = new Node(Node.SPLIT);
+            split.outs = new int[options.size()];
+            for (int i = 0; i < split.outs.length; i++) {
+                split.outs[i] = options.get(i).compile(nodes, next);
+            }
+            return Node.add(nodes, split);
+        }
+
+        @Override
+        boolean nullable() {
+            for (Expr option : options) {
+                if (option.nullable()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Repeat extends Expr {
+        final Expr expr;
+        final int min;
+        /** -1 if unbounded **/
+        final int max;
+
+        Repeat(Expr expr, int min, int max) {
+            this.expr = expr;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        int compile(List<Node> nodes, int next) {
+            int start;
+            if (max == -1) {
+                Node loop = new Node(Node.SPLIT);
+                start = Node.add(nodes, loop);
+                loop.outs = new int[] { expr.compile(nodes, start), next };
+            } else {
+                start = next;
+                for (int i = min; i < max; i++) {
+                    Node optional = new Node(Node.SPLIT);
+                    optional.outs = new int[] { expr.compile(nodes, start),
+                            next };
+                    start = Node.add(nodes, optional);
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                start = expr.compile(nodes, start);
+            }
+            return start;
+        }
+
+        @Override
+        boolean nullable() {
+            return min == 0 || expr.nullable();
+        }
+    }
+
+    /**
+     * Parses the subset of the syntax of java.util.regex which can be matched
+     * by a finite automaton, throws an UnsupportedOperationException for
+     * anything else. The expressions are expected to be valid, as they have
+     * already been compiled by the rules.
+     **/
+    private static final class Parser {
+        private final String regex;
+        private int pos;
+        private boolean ignoreCase;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Expr parse() {
+            Expr expr = parseAlternation();
+            if (pos != regex.length()) {
+                throw unsupported();
+            }
+            return expr;
+        }
+
+        private UnsupportedOperationException unsupported() {
+            return new UnsupportedOperationException(regex + " at " + pos);
+        }
+
+        private boolean more() {
+            return pos < regex.length();
+        }
+
+        private char peek() {
+            return regex.charAt(pos);
+        }
+
+        private Expr parseAlternation() {
+            Alternation alternation = new Alternation();
+            alternation.options.add(parseSequence());
+            while (more() && peek() == '|') {
+                pos++;
+                alternation.options.add(parseSequence());
+            }
+            return alternation;
+        }
+
+        private Expr parseSequence() {
+            Sequence sequence = new Sequence();
+            while (more() && peek() != '|' && peek() != ')') {
+                Expr atom = parseAtom();
+                if (atom != null) {
+                    sequence.items.add(parseQuantifier(atom));
+                }
+            }
+            return sequence;
+        }
+
+        /** Returns null for the flags changing the rest of the group **/
+        private Expr parseAtom() {
+            char c = regex.charAt(pos++);
+            switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return new Chars(parseClass());
+            case '.':
+                // the line terminators are not passed to the automaton
+                return new Chars(CharClass.ALL);
+            case '^':
+                return new Anchor(Node.BOL);
+            case '$':
+                return new Anchor(Node.EOL);
+            case '\\':
+                return parseEscape();
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw unsupported();
+            default:
+                return literal(c);
+            }
+        }
+
+        private Expr parseGroup() {
+            boolean saved = ignoreCase;
+            if (regex.startsWith("?", pos)) {
+                pos++;
+                if (!parseFlags()) {
+                    // applies to the rest of the enclosing group
+                    return null;
+                }
+            }
+            Expr expr = parseAlternation();
+            if (!more() || peek() != ')') {
+                throw unsupported();
+            }
+            pos++;
+            ignoreCase = saved;
+            return expr;
+        }
+
+        /**
+         * Parses what follows '(?', returns true if it is followed by an
+         * expression or false if it only sets the flags
+         **/
+        private boolean parseFlags() {
+            boolean on = true;
+            while (more()) {
+                char c = regex.charAt(pos++);
+                switch (c) {
+                case ':':
+                    return true;
+                case ')':
+                    return false;
+                case '-':
+                    on = false;
+                    break;
+                case 'i':
+                    ignoreCase = on;
+                    break;
+                default:
+                    // lookarounds, named groups, other flags...
+                    throw unsupported();
+                }
+            }
+            throw unsupported();
+        }
+
+        private Expr parseQuantifier(Expr atom) {
+            if (!more()) {
+                return atom;
+            }
+            int min;
+            int max;
+            switch (peek()) {
+            case '*':
+                min = 0;
+                max = -1;
+                pos++;
+                break;
+            case '+':
+                min = 1;
+                max = -1;
+                pos++;
+                break;
+            case '?':
+                min = 0;
+                max = 1;
+                pos++;
+                break;
+            case '{':
+                int close = regex.indexOf('}', pos);
+                if (close == -1) {
+                    throw unsupported();
+                }
+                String[] bounds = regex.substring(pos + 1, close)
+                        .split(",", -1);
+                try {
+                    min = Integer.parseInt(bounds[0].trim());
+                    if (bounds.length == 1) {
+                        max = min;
+                    } else if (bounds[1].trim().isEmpty()) {
+                        max = -1;
+                    } else {
+                        max = Integer.parseInt(bounds[1].trim());
+                    }
+                } catch (NumberFormatException e) {
+                    throw unsupported();
+                }
+                if (bounds.length > 2 || min > MAX_REPEAT || max > MAX_REPEAT) {
+                    throw unsupported();
+                }
+                pos = close + 1;
+                break;
+            default:
+                return atom;
+            }
+            if (more() && peek() == '+') {
+                // possessive
+                throw unsupported();
+            }
+            if (more() && peek() == '?') {
+                // reluctant, does not change whether there is a match
+                pos++;
+            }
+            if (more() && "*+?{".indexOf(peek()) != -1) {
+                throw unsupported();
+            }
+            // java.util.regex stops repeating empty matches in its own way
+            if (max != 1 && atom.nullable()) {
+                throw unsupported();
+            }
+            return new Repeat(atom, min, max);
+        }
+
+        private Expr literal(char c) {
+            return new Chars(single(c));
+        }
+
+        private CharClass single(int c) {
+            CharClass chars = new CharClass(new int[] { c, c });
+            return ignoreCase ? chars.ignoreCase() : chars;
+        }
+
+        private Expr parseEscape() {
+            if (!more()) {
+                throw unsupported();
+            }
+            char c = peek();
+            switch (c) {
+            case 'A':
+                pos++;
+                return new Anchor(Node.BOL);
+            case 'z':
+            case 'Z':
+                // same as '$' without line terminators
+                pos++;
+                return new Anchor(Node.EOL);
+            default:
+                CharClass chars = parseClassEscape();
+                if (chars.ranges.length == 2
+                        && chars.ranges[0] == chars.ranges[1] && ignoreCase) {
+                    return new Chars(chars.ignoreCase());
+                }
+                return new Chars(chars);
+            }
+        }
+
+        /** Parses what follows a backslash in or out of a class **/
+        private CharClass parseClassEscape() {
+            char c = regex.charAt(pos++);
+            switch (c) {
+            case 'd':
+                return CharClass.DIGITS;
+            case 'D':
+                return CharClass.DIGITS.negate();
+            case 'w':
+                return CharClass.WORD;
+            case 'W':
+                return CharClass.WORD.negate();
+            case 's':
+                return CharClass.SPACES;
+            case 'S':
+                return CharClass.SPACES.negate();
+            case 't':
+                return new CharClass(new int[] { '\t', '\t' });
+            case 'n':
+                return new CharClass(new int[] { '\n', '\n' });
+            case 'r':
+                return new CharClass(new int[] { '\r', '\r' });
+            case 'f':
+                return new CharClass(new int[] { '\f', '\f' });
+            case 'a':
+                return new CharClass(new int[] { 7, 7 });
+            case 'e':
+                return new CharClass(new int[] { 27, 27 });
+            case 'x':
+                return hex(2);
+            case 'u':
+                return hex(4);
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    // backreferences, boundaries, properties, quoting...
+                    pos--;
+                    throw unsupported();
+                }
+                return new CharClass(new int[] { c, c });
+            }
+        }
+
+        private CharClass hex(int digits) {
+            if (pos + digits > regex.length()) {
+                throw unsupported();
+            }
+            int value;
+            try {
+                value = Integer
+                        .parseInt(regex.substring(pos, pos + digits), 16);
+            } catch (NumberFormatException e) {
+                throw unsupported();
+            }
+            pos += digits;
+            return new CharClass(new int[] { value, value });
+        }
+
+        private CharClass parseClass() {
+            boolean negated = false;
+            if (more() && peek() == '^') {
+                negated = true;
+                pos++;
+            }
+            if (more() && peek() == ']') {
+                throw unsupported();
+            }
+            List<int[]> ranges = new ArrayList<>();
+            while (true) {
+                if (!more()) {
+                    throw unsupported();
+                }
+                char c = regex.charAt(pos++);
+                if (c == ']') {
+                    break;
+                }
+                if (c == '[' || (c == '&' && more() && peek() == '&')) {
+                    // unions and intersections
+                    throw unsupported();
+                }
+                int lo;
+                if (c == '\\') {
+                    CharClass escaped = parseClassEscape();
+                    if (escaped.ranges.length != 2
+                            || escaped.ranges[0] != escaped.ranges[1]) {
+                        escaped.addTo(ranges);
+                        continue;
+                    }
+                    lo = escaped.ranges[0];
+                } else {
+                    lo = c;
+                }
+                int hi = lo;
+                if (pos + 1 < regex.length() && peek() == '-'
+                        && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    char h = regex.charAt(pos++);
+                    if (h == '[') {
+                        throw unsupported();
+                    }
+                    if (h == '\\') {
+                        CharClass escaped = parseClassEscape();
+                        if (escaped.ranges.length != 2
+                                || escaped.ranges[0] != escaped.ranges[1]) {
+                            throw unsupported();
+                        }
+                        hi = escaped.ranges[0];
+                    } else {
+                        hi = h;
+                    }
+                }
+                ranges.add(new int[] { lo, hi });
+            }
+            CharClass chars = CharClass.of(ranges);
+            if (ignoreCase) {
+                chars = chars.ignoreCase();
+            }
+            return negated ? chars.negate() : chars;
+        }
+    }
+}
@@ -38,7 +38,9 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 
 /**
  * An abstract class for implementing Regex URL filtering. Adapted from Apache
- * Nutch 1.9
+ * Nutch 1.9. Setting the parameter <i>automaton</i> to true matches the rules
+ * in a single pass with a {@link RegexRuleAutomaton}, the expressions must then
+ * follow the syntax of java.util.regex.
  */
 public abstract class RegexURLFilterBase implements URLFilter {
 
@@ -48,6 +50,9 @@ public abstract class RegexURLFilterBase implements URLFilter {
     /** A list of applicable rules */
     private List<RegexRule> rules;
 
+    /** Rules compiled into a single automaton, null if not used */
+    private RegexRuleAutomaton automaton;
+
     @Override
     public void configure(Map stormConf, JsonNode paramNode) {
         JsonNode node = paramNode.get("urlFilters");
@@ -63,6 +68,14 @@ public abstract class RegexURLFilterBase implements URLFilter {
             }
             rules = readRules(rulesFileName);
         }
+
+        // match all the rules in one pass instead of one by one
+        JsonNode automatonNode = paramNode.get("automaton");
+        if (automatonNode != null && automatonNode.asBoolean()) {
+            automaton = new RegexRuleAutomaton(rules);
+            LOG.info("Compiled {} rules out of {} into an automaton",
+                    automaton.getCompiledRules(), rules.size());
+        }
     }
 
     /** Populates a List of Rules off of JsonNode. */
@@ -154,6 +167,10 @@ public abstract class RegexURLFilterBase implements URLFilter {
 
     @Override
     public String filter(URL pageUrl, Metadata sourceMetadata, String url) {
+        if (automaton != null) {
+            RegexRule rule = automaton.firstMatch(url);
+            return rule != null && rule.accept() ? url : null;
+        }
         for (RegexRule rule : rules) {
             if (rule.match(url)) {
                 return rule.accept() ? url : null;
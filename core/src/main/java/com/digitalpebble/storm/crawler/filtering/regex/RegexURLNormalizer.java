@@ -24,7 +24,6 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -67,14 +66,42 @@ public class RegexURLNormalizer implements URLFilter {
         public Pattern pattern;
 
         public String substitution;
+
+        /** null if the pattern must always be run **/
+        public RegexPrefilter prefilter;
     }
 
-    private List<Rule> rules;
+    /**
+     * Rules and the matchers reused by each thread for them, replaced as a
+     * whole when the filter is configured again
+     **/
+    private static class RuleSet {
+        final List<Rule> rules;
+
+        final ThreadLocal<Matcher[]> matchers;
+
+        RuleSet(final List<Rule> rules) {
+            this.rules = rules;
+            this.matchers = new ThreadLocal<Matcher[]>() {
+                @Override
+                protected Matcher[] initialValue() {
+                    Matcher[] matchers = new Matcher[rules.size()];
+                    for (int i = 0; i < matchers.length; i++) {
+                        matchers[i] = rules.get(i).pattern.matcher("");
+                    }
+                    return matchers;
+                }
+            };
+        }
+    }
+
+    private volatile RuleSet ruleSet = new RuleSet(EMPTY_RULES);
 
     private static final List<Rule> EMPTY_RULES = Collections.emptyList();
 
     @Override
     public void configure(Map stormConf, JsonNode paramNode) {
+        List<Rule> rules;
         JsonNode node = paramNode.get("urlNormalizers");
         if (node != null && node.isArray()) {
             rules = readRules((ArrayNode) node);
@@ -88,26 +115,41 @@ public class RegexURLNormalizer implements URLFilter {
             }
             rules = readRules(rulesFileName);
         }
-
+        ruleSet = new RuleSet(rules);
     }
 
     /**
      * This function does the replacements by iterating through all the regex
      * patterns. It accepts a string url as input and returns the altered
      * string. If the normalized url is an empty string, the function will
-     * return null.
+     * return null. The rules which can't match the url are skipped based on the
+     * literals they contain and a new string is only created when a
+     * substitution happens.
      */
     @Override
     public String filter(URL sourceUrl, Metadata sourceMetadata,
             String urlString) {
 
-        Iterator<Rule> i = rules.iterator();
-        while (i.hasNext()) {
-            Rule r = i.next();
+        RuleSet set = ruleSet;
+        Matcher[] ruleMatchers = set.matchers.get();
+        for (int i = 0; i < ruleMatchers.length; i++) {
+            Rule r = set.rules.get(i);
 
-            Matcher matcher = r.pattern.matcher(urlString);
+            if (r.prefilter != null && !r.prefilter.mayMatch(urlString)) {
+                continue;
+            }
 
-            urlString = matcher.replaceAll(r.substitution);
+            Matcher matcher = ruleMatchers[i].reset(urlString);
+            if (matcher.find()) {
+                StringBuffer sb = new StringBuffer(urlString.length() + 16);
+                do {
+                    matcher.appendReplacement(sb, r.substitution);
+                } while (matcher.find());
+                matcher.appendTail(sb);
+                urlString = sb.toString();
+            }
+            // don't keep a reference to the URL
+            matcher.reset("");
         }
 
         if (urlString.equals("")) {
@@ -230,6 +272,8 @@ public class RegexURLNormalizer implements URLFilter {
             return null;
         }
         rule.substitution = subValue;
+        rule.prefilter = RegexPrefilter.of(patternValue);
+        LOG.debug("Prefilter for {} : {}", patternValue, rule.prefilter);
         return rule;
     }
 
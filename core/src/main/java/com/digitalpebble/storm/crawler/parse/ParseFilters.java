@@ -28,13 +28,18 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.DocumentFragment;
 
+import backtype.storm.metric.api.IMetric;
+
 import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.digitalpebble.storm.crawler.util.FilterStats;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.NullNode;
 
 /**
- * Wrapper for the ParseFilters defined in a JSON configuration
+ * Wrapper for the ParseFilters defined in a JSON configuration. The number of
+ * calls, time spent and documents skipped for lack of a DOM by each filter are
+ * available as a metric with {@link #getMetric()}.
  */
 public class ParseFilters extends ParseFilter {
 
@@ -43,10 +48,15 @@ public class ParseFilters extends ParseFilter {
     private static final org.slf4j.Logger LOG = LoggerFactory
             .getLogger(ParseFilters.class);
 
+    private static final int SKIPPED = 0;
+
     private ParseFilter[] filters;
 
+    private FilterStats stats;
+
     private ParseFilters() {
         filters = new ParseFilter[0];
+        stats = new FilterStats(new String[0], 0, "skipped");
     }
 
     /**
@@ -104,6 +114,9 @@ public class ParseFilters extends ParseFilter {
     public void configure(Map stormConf, JsonNode filtersConf) {
         // initialises the filters
         List<ParseFilter> filterLists = new ArrayList<>();
+        List<String> statsNames = new ArrayList<>();
+        int sampling = ConfUtils.getInt(stormConf, "filters.timing.sampling",
+                16);
 
         // get the filters part
         String name = getClass().getCanonicalName();
@@ -112,6 +125,7 @@ public class ParseFilters extends ParseFilter {
         if (filtersConf == null) {
             LOG.info("No field {} in JSON config. Skipping", name);
             filters = new ParseFilter[0];
+            stats = new FilterStats(new String[0], sampling, "skipped");
             return;
         }
 
@@ -131,6 +145,8 @@ public class ParseFilters extends ParseFilter {
                 continue;
             }
             String className = classNode.textValue().trim();
+            String statsName = nameNode != null ? filterName : StringUtils
+                    .substringAfterLast("." + className, ".");
             filterName += '[' + className + ']';
             // check that it is available and implements the interface
             // ParseFilter
@@ -155,6 +171,7 @@ public class ParseFilters extends ParseFilter {
                 }
 
                 filterLists.add(filterInstance);
+                statsNames.add(statsName);
                 LOG.info("Setup {}", filterName);
             } catch (Exception e) {
                 LOG.error("Can't setup {}: {}", filterName, e);
@@ -163,6 +180,8 @@ public class ParseFilters extends ParseFilter {
         }
 
         filters = filterLists.toArray(new ParseFilter[filterLists.size()]);
+        stats = new FilterStats(FilterStats.uniqueNames(statsNames), sampling,
+                "skipped");
     }
 
     @Override
@@ -180,19 +199,27 @@ public class ParseFilters extends ParseFilter {
     public void filter(String URL, byte[] content, DocumentFragment doc,
             ParseResult parse) {
 
-        for (ParseFilter filter : filters) {
-            long start = System.currentTimeMillis();
+        for (int i = 0; i < filters.length; i++) {
+            ParseFilter filter = filters[i];
             if (doc == null && filter.needsDOM()) {
                 LOG.info(
                         "ParseFilter {} needs DOM but has none to work on - skip : {}",
                         filter.getClass().getName(), URL);
+                stats.increment(i, SKIPPED);
                 continue;
             }
+            long start = stats.start(i);
             filter.filter(URL, content, doc, parse);
-            long end = System.currentTimeMillis();
-            LOG.debug("ParseFilter {} took {} msec", filter.getClass()
-                    .getName(), end - start);
+            stats.end(i, start);
         }
     }
 
+    /**
+     * Returns a metric with for each filter the number of calls, the time spent
+     * in msec and the number of documents skipped because they had no DOM
+     **/
+    public IMetric getMetric() {
+        return stats.getMetric();
+    }
+
 }
@@ -42,6 +42,10 @@ public abstract class AbstractHttpProtocol implements Protocol {
         return robots.getRobotRulesSet(this, url);
     }
 
+    @Override
+    public void cleanup() {
+    }
+
     protected static String getAgentString(String agentName,
             String agentVersion, String agentDesc, String agentURL,
             String agentEmail) {
@@ -0,0 +1,52 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.protocol;
+
+import com.digitalpebble.storm.crawler.Metadata;
+
+/**
+ * A {@link Protocol} which can fetch the content without blocking the calling
+ * thread. The blocking method getProtocolOutput(String, Metadata) must still be
+ * implemented e.g. for fetching the robots.txt files.
+ */
+public interface AsyncProtocol extends Protocol {
+
+    /**
+     * Fetches the content and additional metadata asynchronously. The callback
+     * is notified from a thread managed by the implementation.
+     * 
+     * @param url
+     *            the location of the content
+     * @param metadata
+     *            extra information
+     * @param callback
+     *            notified when the content has been fetched or if the fetch
+     *            failed
+     * @throws Exception
+     *             if the request could not be submitted
+     */
+    public void getProtocolOutput(String url, Metadata metadata,
+            Callback callback) throws Exception;
+
+    public interface Callback {
+
+        public void completed(ProtocolResponse response);
+
+        public void failed(Exception exception);
+    }
+}
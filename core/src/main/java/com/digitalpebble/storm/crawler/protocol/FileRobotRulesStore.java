@@ -0,0 +1,154 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.google.common.hash.Hashing;
+
+/**
+ * Stores the robots.txt on the local disk, one file per key under
+ * robots.store.dir, which must be set and writable only by the user running the
+ * workers. The workers running on the same machine can share the directory. The
+ * files are written to a temporary file first then renamed so that a reader
+ * never sees a partial one. Expired files are deleted when they are read.
+ **/
+public class FileRobotRulesStore implements RobotRulesStore {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(FileRobotRulesStore.class);
+
+    /** first byte of the files, changed whenever their layout changes **/
+    private static final int FORMAT_VERSION = 1;
+
+    private File dir;
+
+    @Override
+    public void configure(Map stormConf) {
+        String path = ConfUtils.getString(stormConf, "robots.store.dir");
+        if (StringUtils.isBlank(path)) {
+            throw new RuntimeException(
+                    "robots.store.dir must be set to use the FileRobotRulesStore");
+        }
+        dir = new File(path);
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new RuntimeException("Can't create directory " + dir);
+        }
+        LOG.info("Storing the robots rules in {}", dir);
+    }
+
+    private File getFile(String key) {
+        String hash = Hashing.md5().hashString(key, StandardCharsets.UTF_8)
+                .toString();
+        // spread the files over 256 sub directories
+        return new File(new File(dir, hash.substring(0, 2)), hash);
+    }
+
+    @Override
+    public StoredRobots get(String key) {
+        File file = getFile(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readByte() != FORMAT_VERSION) {
+                throw new IOException("Unknown format");
+            }
+            long expires = in.readLong();
+            String storedKey = in.readUTF();
+            if (!storedKey.equals(key)) {
+                return null;
+            }
+            if (expires < System.currentTimeMillis()) {
+                file.delete();
+                return null;
+            }
+            String url = in.readUTF();
+            String contentType = in.readUTF();
+            boolean forbidAll = in.readBoolean();
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Invalid length " + length);
+            }
+            byte[] content = new byte[length];
+            in.readFully(content);
+            return new StoredRobots(url, content, contentType.isEmpty() ? null
+                    : contentType, forbidAll, expires);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Can't read the robots rules from {}", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, StoredRobots robots) {
+        File file = getFile(key);
+        File parent = file.getParentFile();
+        parent.mkdirs();
+        File tmp;
+        try {
+            // unique even if several workers write the same key
+            tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        } catch (IOException e) {
+            LOG.warn("Can't store the robots rules in {}", file, e);
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(robots.getExpires());
+            out.writeUTF(key);
+            out.writeUTF(robots.getUrl());
+            String contentType = robots.getContentType();
+            out.writeUTF(contentType != null ? contentType : "");
+            out.writeBoolean(robots.isForbidAll());
+            byte[] content = robots.getContent();
+            out.writeInt(content.length);
+            out.write(content);
+        } catch (IOException e) {
+            LOG.warn("Can't store the robots rules in {}", file, e);
+            tmp.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Can't store the robots rules in {}", file, e);
+            tmp.delete();
+        }
+    }
+}
@@ -19,11 +19,15 @@ package com.digitalpebble.storm.crawler.protocol;
 
 import java.net.URL;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 
 import com.digitalpebble.storm.crawler.Metadata;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 
 import backtype.storm.Config;
 import crawlercommons.robots.BaseRobotRules;
@@ -35,6 +39,12 @@ import crawlercommons.robots.BaseRobotRules;
  */
 public class HttpRobotRulesParser extends RobotRulesParser {
 
+    /**
+     * robots.txt being fetched, the threads which need the same rules wait for
+     * the result instead of fetching them again
+     **/
+    private static final ConcurrentMap<String, SettableFuture<BaseRobotRules>> IN_FLIGHT = new ConcurrentHashMap<>();
+
     protected boolean allowForbidden = false;
 
     HttpRobotRulesParser() {
@@ -75,7 +85,9 @@ public class HttpRobotRulesParser extends RobotRulesParser {
      * Robot rules are cached for a unique combination of host, protocol, and
      * port. If no rules are found in the cache, a HTTP request is send to fetch
      * {{protocol://host:port/robots.txt}}. The robots.txt is then parsed and
-     * the rules are cached to avoid re-fetching and re-parsing it again.
+     * the rules are cached to avoid re-fetching and re-parsing it again. The
+     * threads asking for the same rules while they are being fetched wait for
+     * the result of that fetch.
      * 
      * @param http
      *            The {@link Protocol} object
@@ -89,18 +101,107 @@ public class HttpRobotRulesParser extends RobotRulesParser {
 
         String cacheKey = getCacheKey(url);
 
-        // check in the error cache first
-        BaseRobotRules robotRules = ERRORCACHE.getIfPresent(cacheKey);
+        BaseRobotRules robotRules = getCachedRules(cacheKey);
         if (robotRules != null) {
             return robotRules;
         }
 
+        // is another thread already fetching the rules for this key?
+        SettableFuture<BaseRobotRules> future = SettableFuture.create();
+        SettableFuture<BaseRobotRules> existing = IN_FLIGHT.putIfAbsent(
+                cacheKey, future);
+        if (existing != null) {
+            LOG.debug("Waiting for robots of {} to be fetched", cacheKey);
+            return Futures.getUnchecked(existing);
+        }
+
+        try {
+            // could have been cached since the first check
+            robotRules = getCachedRules(cacheKey);
+            if (robotRules == null) {
+                robotRules = getStoredRules(cacheKey);
+            }
+            if (robotRules == null) {
+                robotRules = fetchRules(http, url, cacheKey);
+            }
+        } finally {
+            future.set(robotRules != null ? robotRules : EMPTY_RULES);
+            IN_FLIGHT.remove(cacheKey, future);
+        }
+        return robotRules;
+    }
+
+    /**
+     * Returns true if valid rules for the URL are in the caches or being
+     * fetched, without counting the lookup in the cache statistics
+     **/
+    public static boolean isCached(URL url) {
+        String cacheKey = getCacheKey(url);
+        if (IN_FLIGHT.containsKey(cacheKey)
+                || ERRORCACHE.asMap().containsKey(cacheKey)) {
+            return true;
+        }
+        CacheEntry entry = CACHE.asMap().get(cacheKey);
+        return entry != null && entry.expires >= System.currentTimeMillis();
+    }
+
+    private static BaseRobotRules getCachedRules(String cacheKey) {
+        // check in the error cache first
+        CacheEntry entry = ERRORCACHE.getIfPresent(cacheKey);
+        if (entry != null) {
+            return entry.rules;
+        }
         // now try the proper cache
-        robotRules = CACHE.getIfPresent(cacheKey);
-        if (robotRules != null) {
-            return robotRules;
+        entry = CACHE.getIfPresent(cacheKey);
+        if (entry == null) {
+            return null;
+        }
+        // loaded from the store with less than the TTL left
+        if (entry.expires < System.currentTimeMillis()) {
+            CACHE.invalidate(cacheKey);
+            return null;
+        }
+        return entry.rules;
+    }
+
+    /**
+     * Loads the robots.txt from the persistent store if any and parses it, the
+     * rules are cached until the expiry time they were stored with
+     **/
+    private BaseRobotRules getStoredRules(String cacheKey) {
+        RobotRulesStore store = STORE;
+        if (store == null)
+            return null;
+        StoredRobots robots = store.get(cacheKey);
+        if (robots == null)
+            return null;
+        LOG.debug("Found robots for {} in store", cacheKey);
+        BaseRobotRules robotRules = FORBID_ALL_RULES;
+        if (!robots.isForbidAll()) {
+            robotRules = parseRules(robots.getUrl(), robots.getContent(),
+                    robots.getContentType(), agentNames);
+        }
+        CACHE.put(cacheKey, new CacheEntry(robotRules,
+                robots.getContent().length, robots.getExpires()));
+        return robotRules;
+    }
+
+    private static void cacheRules(String cacheKey, BaseRobotRules robotRules,
+            StoredRobots robots) {
+        CACHE.put(cacheKey, new CacheEntry(robotRules,
+                robots.getContent().length, robots.getExpires()));
+        RobotRulesStore store = STORE;
+        if (store != null) {
+            store.put(cacheKey, robots);
         }
+    }
 
+    private BaseRobotRules fetchRules(Protocol http, URL url, String cacheKey) {
+        BaseRobotRules robotRules;
+        // what the rules were obtained from, kept in the store
+        byte[] content = new byte[0];
+        String contentType = null;
+        boolean forbidden = false;
         boolean cacheRule = true;
         URL redir = null;
         LOG.debug("Cache miss {} for {}", cacheKey, url);
@@ -128,12 +229,16 @@ public class HttpRobotRulesParser extends RobotRulesParser {
 
             if (response.getStatusCode() == 200) // found rules: parse them
             {
-                String ct = response.getMetadata().getFirstValue(
+                contentType = response.getMetadata().getFirstValue(
                         HttpHeaders.CONTENT_TYPE);
-                robotRules = parseRules(url.toString(), response.getContent(),
-                        ct, agentNames);
+                if (response.getContent() != null) {
+                    content = response.getContent();
+                }
+                robotRules = parseRules(url.toString(), content, contentType,
+                        agentNames);
             } else if ((response.getStatusCode() == 403) && (!allowForbidden)) {
                 robotRules = FORBID_ALL_RULES; // use forbid all
+                forbidden = true;
             } else if (response.getStatusCode() >= 500) {
                 cacheRule = false;
                 robotRules = EMPTY_RULES;
@@ -147,24 +252,31 @@ public class HttpRobotRulesParser extends RobotRulesParser {
 
         if (cacheRule) {
             LOG.debug("Caching robots for {} under key {}", url, cacheKey);
-            CACHE.put(cacheKey, robotRules); // cache rules for host
+            StoredRobots robots = new StoredRobots(url.toString(), content,
+                    contentType, forbidden, System.currentTimeMillis()
+                            + cacheTTL);
+            // cache rules for host
+            cacheRules(cacheKey, robotRules, robots);
             if (redir != null
                     && !redir.getHost().equalsIgnoreCase(url.getHost())) {
                 // cache also for the redirected host
                 String keyredir = getCacheKey(redir);
                 LOG.debug("Caching robots for {} under key {}", redir, keyredir);
-                CACHE.put(keyredir, robotRules);
+                cacheRules(keyredir, robotRules, robots);
             }
         } else {
             LOG.debug("Error Caching robots for {} under key {}", url, cacheKey);
-            ERRORCACHE.put(cacheKey, robotRules); // cache rules for host
+            // cache rules for host, the error cache has its own TTL
+            ERRORCACHE.put(cacheKey, new CacheEntry(robotRules, 0,
+                    Long.MAX_VALUE));
             if (redir != null
                     && !redir.getHost().equalsIgnoreCase(url.getHost())) {
                 // cache also for the redirected host
                 String keyredir = getCacheKey(redir);
                 LOG.debug("Error Caching robots for {} under key {}", redir,
                         keyredir);
-                ERRORCACHE.put(keyredir, robotRules);
+                ERRORCACHE.put(keyredir, new CacheEntry(robotRules, 0,
+                        Long.MAX_VALUE));
             }
         }
 
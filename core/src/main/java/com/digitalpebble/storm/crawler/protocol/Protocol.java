@@ -43,4 +43,7 @@ public interface Protocol {
             throws Exception;
 
     public BaseRobotRules getRobotRules(String url);
+
+    /** Releases the resources used by the implementation **/
+    public void cleanup();
 }
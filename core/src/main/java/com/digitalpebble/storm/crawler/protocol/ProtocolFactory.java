@@ -19,11 +19,15 @@ package com.digitalpebble.storm.crawler.protocol;
 
 import java.net.URL;
 import java.util.HashMap;
+import java.util.Map.Entry;
 
 import org.apache.commons.lang.StringUtils;
 
 import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
 
+import com.digitalpebble.storm.crawler.protocol.httpclient.HttpProtocol;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
 
 public class ProtocolFactory {
@@ -83,6 +87,32 @@ public class ProtocolFactory {
 
     }
 
+    /**
+     * Registers the protocol implementations which provide metrics, under the
+     * name protocol.{protocol} e.g. protocol.http. The connection pools of the
+     * {@link HttpProtocol} instances are registered once per JVM as
+     * protocol.connection_pool.
+     **/
+    public void registerMetrics(TopologyContext context, int timeBucketSecs) {
+        for (Entry<String, Protocol> entry : cache.entrySet()) {
+            if (entry.getValue() instanceof HttpProtocol) {
+                ((HttpProtocol) entry.getValue()).registerMetric(context,
+                        "protocol.connection_pool", timeBucketSecs);
+            } else if (entry.getValue() instanceof IMetric) {
+                context.registerMetric("protocol." + entry.getKey(),
+                        (IMetric) entry.getValue(), timeBucketSecs);
+            }
+        }
+    }
+
+    /** Releases the resources of the protocol implementations **/
+    public synchronized void cleanup() {
+        for (Protocol protocol : cache.values()) {
+            protocol.cleanup();
+        }
+        cache.clear();
+    }
+
     /** Returns an instance of the protocol to use for a given URL */
     public synchronized Protocol getProtocol(URL url) {
         // get the protocol
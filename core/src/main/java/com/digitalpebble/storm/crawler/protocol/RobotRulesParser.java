@@ -19,19 +19,26 @@ package com.digitalpebble.storm.crawler.protocol;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.concurrent.TimeUnit;
 
 import javax.security.auth.login.Configuration;
 
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.storm.crawler.util.ConfUtils;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 
 import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
 import crawlercommons.robots.BaseRobotRules;
 import crawlercommons.robots.SimpleRobotRules;
 import crawlercommons.robots.SimpleRobotRules.RobotRulesMode;
@@ -47,16 +54,66 @@ public abstract class RobotRulesParser {
     public static final Logger LOG = LoggerFactory
             .getLogger(RobotRulesParser.class);
 
-    // TODO configure TTL and max size via config
-    protected static final Cache<String, BaseRobotRules> CACHE = CacheBuilder
-            .newBuilder().expireAfterWrite(6, TimeUnit.HOURS)
-            .maximumSize(10000).build();
+    /**
+     * Rules kept in the caches with the size of the robots.txt they are from
+     * and the time after which they must not be used. The shared
+     * {@link #EMPTY_RULES} and {@link #FORBID_ALL_RULES} take no space of their
+     * own.
+     **/
+    protected static class CacheEntry {
+        final BaseRobotRules rules;
+        final int contentLength;
+        final long expires;
+
+        CacheEntry(BaseRobotRules rules, int contentLength, long expires) {
+            this.rules = rules;
+            if (rules == EMPTY_RULES || rules == FORBID_ALL_RULES) {
+                contentLength = 0;
+            }
+            this.contentLength = contentLength;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Approximate memory used by an entry, in bytes. The rules take roughly as
+     * much as the robots.txt they were parsed from.
+     **/
+    private static final Weigher<String, CacheEntry> WEIGHER = new Weigher<String, CacheEntry>() {
+        @Override
+        public int weigh(String key, CacheEntry entry) {
+            // entry and key
+            return 64 + 2 * key.length() + entry.contentLength;
+        }
+    };
+
+    /**
+     * Shared by all the parsers of the JVM, configured by the first call to
+     * {@link #setConf(Config)} with robots.cache.ttl (secs) and
+     * robots.cache.max.weight (approximate size in bytes of the rules kept)
+     **/
+    protected static volatile Cache<String, CacheEntry> CACHE = buildCache(
+            6 * 3600, 64 * 1024 * 1024);
 
     // if a server or client error happened while fetching the robots
     // cache the result for a shorter period before trying again
-    protected static final Cache<String, BaseRobotRules> ERRORCACHE = CacheBuilder
-            .newBuilder().expireAfterWrite(1, TimeUnit.HOURS)
-            .maximumSize(10000).build();
+    // see robots.error.cache.ttl and robots.error.cache.max.weight
+    protected static volatile Cache<String, CacheEntry> ERRORCACHE = buildCache(
+            3600, 4 * 1024 * 1024);
+
+    /** settings the caches were built with, null until they are **/
+    private static String cachesConf;
+
+    private static boolean cacheMetricRegistered = false;
+
+    /** how long the rules are valid for, in msec **/
+    protected static long cacheTTL = 6 * 3600 * 1000L;
+
+    /**
+     * persists the rules across restarts if robots.store.class is set, null
+     * otherwise
+     **/
+    protected static volatile RobotRulesStore STORE;
 
     /**
      * A {@link BaseRobotRules} object appropriate for use when the
@@ -73,6 +130,18 @@ public abstract class RobotRulesParser {
     public static BaseRobotRules FORBID_ALL_RULES = new SimpleRobotRules(
             RobotRulesMode.ALLOW_NONE);
 
+    /** what the parser returns for a robots.txt without rules for us **/
+    private static final BaseRobotRules NO_RULES = new SimpleRobotRules(
+            RobotRulesMode.ALLOW_SOME);
+
+    /** what the parser returns for a robots.txt disallowing everything **/
+    private static final BaseRobotRules ROOT_DISALLOWED = new SimpleRobotRules(
+            RobotRulesMode.ALLOW_SOME);
+
+    static {
+        ((SimpleRobotRules) ROOT_DISALLOWED).addRule("/", false);
+    }
+
     private static SimpleRobotRulesParser robotParser = new SimpleRobotRulesParser();
     protected String agentNames;
 
@@ -84,6 +153,8 @@ public abstract class RobotRulesParser {
      */
     public void setConf(Config conf) {
 
+        configureCaches(conf);
+
         // Grab the agent names we advertise to robots files.
         String agentName = ConfUtils.getString(conf, "http.agent.name");
         if (null == agentName) {
@@ -127,6 +198,112 @@ public abstract class RobotRulesParser {
         }
     }
 
+    private static synchronized void configureCaches(Config conf) {
+        int ttl = ConfUtils.getInt(conf, "robots.cache.ttl", 6 * 3600);
+        int maxWeight = ConfUtils.getInt(conf, "robots.cache.max.weight",
+                64 * 1024 * 1024);
+        int errorTTL = ConfUtils.getInt(conf, "robots.error.cache.ttl", 3600);
+        int errorMaxWeight = ConfUtils.getInt(conf,
+                "robots.error.cache.max.weight", 4 * 1024 * 1024);
+        String storeClass = ConfUtils.getString(conf, "robots.store.class");
+        String settings = ttl + "/" + maxWeight + "/" + errorTTL + "/"
+                + errorMaxWeight + "/" + storeClass;
+        if (cachesConf != null) {
+            if (!cachesConf.equals(settings)) {
+                LOG.warn(
+                        "Robots caches already configured for this JVM with {} (ttl/max.weight/error.ttl/error.max.weight/store), ignoring {}",
+                        cachesConf, settings);
+            }
+            return;
+        }
+        cacheTTL = ttl * 1000L;
+        CACHE = buildCache(ttl, maxWeight);
+        ERRORCACHE = buildCache(errorTTL, errorMaxWeight);
+        if (StringUtils.isNotBlank(storeClass)) {
+            try {
+                RobotRulesStore store = (RobotRulesStore) Class.forName(
+                        storeClass).newInstance();
+                store.configure(conf);
+                STORE = store;
+            } catch (Exception e) {
+                throw new RuntimeException("Can't instanciate " + storeClass, e);
+            }
+        }
+        cachesConf = settings;
+    }
+
+    private static Cache<String, CacheEntry> buildCache(int ttlSecs,
+            int maxWeight) {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSecs, TimeUnit.SECONDS)
+                .maximumWeight(maxWeight).weigher(WEIGHER).recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the shared {@link #EMPTY_RULES} or {@link #FORBID_ALL_RULES}
+     * instances if the rules are equivalent to them, so that the hosts with
+     * such rules cost next to nothing in the cache. The rules parsed from a
+     * robots.txt are compared with a rule-less instance and with one
+     * disallowing "/", the comparison taking the crawl delay and sitemaps into
+     * account.
+     **/
+    protected static BaseRobotRules compact(BaseRobotRules rules) {
+        if (rules.getCrawlDelay() != BaseRobotRules.UNSET_CRAWL_DELAY
+                || rules.isDeferVisits() || !rules.getSitemaps().isEmpty())
+            return rules;
+        if (rules.isAllowNone() || ROOT_DISALLOWED.equals(rules))
+            return FORBID_ALL_RULES;
+        if (rules.isAllowAll() || NO_RULES.equals(rules))
+            return EMPTY_RULES;
+        return rules;
+    }
+
+    /**
+     * Registers the robots_cache metric for the first component of the JVM to
+     * call this method only, as the metric reports the activity of the caches
+     * shared by all the parsers of the JVM.
+     **/
+    public static synchronized void registerCacheMetric(
+            TopologyContext context, int timeBucketSecs) {
+        if (cacheMetricRegistered) {
+            return;
+        }
+        context.registerMetric("robots_cache", getCacheMetric(), timeBucketSecs);
+        cacheMetricRegistered = true;
+    }
+
+    /**
+     * Returns a metric reporting the activity of the caches since the previous
+     * call
+     **/
+    static IMetric getCacheMetric() {
+        return new IMetric() {
+            private CacheStats lastStats = CACHE.stats();
+            private CacheStats lastErrorStats = ERRORCACHE.stats();
+
+            @Override
+            public synchronized Object getValueAndReset() {
+                Map<String, Object> values = new HashMap<>();
+                CacheStats stats = CACHE.stats();
+                CacheStats errorStats = ERRORCACHE.stats();
+                CacheStats delta = stats.minus(lastStats);
+                values.put("hits", delta.hitCount());
+                values.put("misses", delta.missCount());
+                values.put("hit_ratio", delta.hitRate());
+                values.put("evictions", delta.evictionCount());
+                values.put("size", CACHE.size());
+                delta = errorStats.minus(lastErrorStats);
+                values.put("error.hits", delta.hitCount());
+                values.put("error.evictions", delta.evictionCount());
+                values.put("error.size", ERRORCACHE.size());
+                lastStats = stats;
+                lastErrorStats = errorStats;
+                return values;
+            }
+        };
+    }
+
     /**
      * Parses the robots content using the {@link SimpleRobotRulesParser} from
      * crawler commons
@@ -143,7 +320,8 @@ public abstract class RobotRulesParser {
      */
     public BaseRobotRules parseRules(String url, byte[] content,
             String contentType, String robotName) {
-        return robotParser.parseContent(url, content, contentType, robotName);
+        return compact(robotParser.parseContent(url, content, contentType,
+                robotName));
     }
 
     public BaseRobotRules getRobotRulesSet(Protocol protocol, String url) {
@@ -0,0 +1,42 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.protocol;
+
+import java.util.Map;
+
+/**
+ * Persistent storage for the robots rules, used by the {@link RobotRulesParser}
+ * when the rules for a host are not in its memory cache. This allows the rules
+ * to survive a restart of the workers and to be shared between them. The
+ * robots.txt is stored rather than the rules so that nothing but bytes is ever
+ * read back, the rules being parsed again when loaded. The implementation is
+ * set with robots.store.class.
+ **/
+public interface RobotRulesStore {
+
+    public void configure(Map stormConf);
+
+    /**
+     * Returns what is stored for the key or null if there is nothing or if it
+     * has expired
+     **/
+    public StoredRobots get(String key);
+
+    /** Stores the robots.txt for the key until its expiry time **/
+    public void put(String key, StoredRobots robots);
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol;
+
+/**
+ * What a {@link RobotRulesStore} keeps for a key: the robots.txt the rules were
+ * parsed from, so that they can be parsed again when loaded, and the time at
+ * which they expire.
+ **/
+public class StoredRobots {
+
+    private final String url;
+
+    private final byte[] content;
+
+    private final String contentType;
+
+    private final boolean forbidAll;
+
+    private final long expires;
+
+    /**
+     * @param url
+     *            URL of the robots.txt
+     * @param content
+     *            content of the robots.txt, empty if there was none
+     * @param contentType
+     *            content type of the robots.txt, can be null
+     * @param forbidAll
+     *            true if the robots.txt was forbidden, in which case nothing
+     *            may be fetched and the content is ignored
+     * @param expires
+     *            time in msec after which the rules must not be used
+     **/
+    public StoredRobots(String url, byte[] content, String contentType,
+            boolean forbidAll, long expires) {
+        this.url = url;
+        this.content = content;
+        this.contentType = contentType;
+        this.forbidAll = forbidAll;
+        this.expires = expires;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isForbidAll() {
+        return forbidAll;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.config.RequestConfig.Builder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.protocol.AbstractHttpProtocol;
+import com.digitalpebble.storm.crawler.protocol.AsyncProtocol;
+import com.digitalpebble.storm.crawler.protocol.ProtocolResponse;
+import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import backtype.storm.Config;
+
+/**
+ * Uses Apache httpasyncclient to handle http and https without blocking the
+ * calling threads. The requests are executed by a small number of I/O threads
+ * which can keep a large number of connections open.
+ **/
+public class AsyncHttpProtocol extends AbstractHttpProtocol implements
+        AsyncProtocol {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory
+            .getLogger(AsyncHttpProtocol.class);
+
+    private int maxContent;
+
+    private int maxRawContent;
+
+    private boolean compression;
+
+    private RequestConfig requestConfig;
+
+    private CloseableHttpAsyncClient client;
+
+    @Override
+    public void configure(final Config conf) {
+
+        super.configure(conf);
+
+        this.maxContent = ConfUtils.getInt(conf, "http.content.limit", -1);
+        this.maxRawContent = ConfUtils.getInt(conf, "http.content.limit.raw",
+                -1);
+        this.compression = ConfUtils.getBoolean(conf,
+                "http.content.compression", true);
+
+        String userAgent = getAgentString(
+                ConfUtils.getString(conf, "http.agent.name"),
+                ConfUtils.getString(conf, "http.agent.version"),
+                ConfUtils.getString(conf, "http.agent.description"),
+                ConfUtils.getString(conf, "http.agent.url"),
+                ConfUtils.getString(conf, "http.agent.email"));
+
+        int timeout = ConfUtils.getInt(conf, "http.timeout", 10000);
+
+        int ioThreads = ConfUtils.getInt(conf, "http.async.io.threads", Runtime
+                .getRuntime().availableProcessors());
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads).setConnectTimeout(timeout)
+                .setSoTimeout(timeout).build();
+
+        HttpAsyncClientBuilder builder = HttpAsyncClients
+                .custom()
+                .setUserAgent(userAgent)
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setMaxConnTotal(
+                        ConfUtils.getInt(conf, "http.async.max.connections",
+                                1000))
+                .setMaxConnPerRoute(
+                        ConfUtils.getInt(conf,
+                                "http.async.max.connections.per.route", 20))
+                .setThreadFactory(
+                        new ThreadFactoryBuilder().setDaemon(true)
+                                .setNameFormat("AsyncHttpProtocol-%d").build());
+
+        String proxyHost = ConfUtils.getString(conf, "http.proxy.host", null);
+        int proxyPort = ConfUtils.getInt(conf, "http.proxy.port", 8080);
+
+        // use a proxy?
+        if (proxyHost != null && proxyHost.length() > 0) {
+            builder.setProxy(new HttpHost(proxyHost, proxyPort));
+        }
+
+        Builder requestConfigBuilder = RequestConfig.custom();
+        requestConfigBuilder.setSocketTimeout(timeout);
+        requestConfigBuilder.setConnectTimeout(timeout);
+        requestConfigBuilder.setConnectionRequestTimeout(timeout);
+        // redirections are handled by the bolts
+        requestConfigBuilder.setRedirectsEnabled(false);
+        requestConfig = requestConfigBuilder.build();
+
+        client = builder.build();
+        client.start();
+    }
+
+    @Override
+    public void getProtocolOutput(final String url, Metadata md,
+            final Callback callback) throws Exception {
+        client.execute(HttpAsyncMethods.create(HttpProtocol.createGet(url, md,
+                requestConfig, compression)), new ResponseConsumer(maxContent,
+                maxRawContent), new FutureCallback<ProtocolResponse>() {
+            @Override
+            public void completed(ProtocolResponse response) {
+                callback.completed(response);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.failed(new IOException("Request cancelled " + url));
+            }
+        });
+    }
+
+    @Override
+    public ProtocolResponse getProtocolOutput(String url, Metadata md)
+            throws Exception {
+        try {
+            return client.execute(
+                    HttpAsyncMethods.create(HttpProtocol.createGet(url, md,
+                            requestConfig, compression)),
+                    new ResponseConsumer(maxContent, maxRawContent), null)
+                    .get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOG.warn("Exception while closing the client", e);
+        }
+    }
+
+    /**
+     * Buffers the content of a response up to the maximum length allowed. Any
+     * bytes beyond that limit are discarded as they arrive. A compressed
+     * content is buffered as is, within the raw limit, and decoded once
+     * complete.
+     **/
+    static class ResponseConsumer extends AsyncByteConsumer<ProtocolResponse> {
+
+        private final int maxContent;
+        private final int maxRawContent;
+
+        private HttpResponse response;
+        private Metadata metadata;
+        private boolean encoded;
+        private ContentBuffer buffer;
+
+        ResponseConsumer(int maxContent, int maxRawContent) {
+            this.maxContent = maxContent;
+            this.maxRawContent = maxRawContent;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.response = response;
+            this.metadata = HttpProtocol.getHeaders(response);
+            this.encoded = ContentReader.isEncoded(metadata);
+            long contentLength = -1;
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                contentLength = entity.getContentLength();
+            }
+            int limit = maxRawContent;
+            if (!encoded && maxContent != -1
+                    && (limit == -1 || maxContent < limit)) {
+                limit = maxContent;
+            }
+            buffer = new ContentBuffer(contentLength, limit);
+        }
+
+        @Override
+        protected void onByteReceived(ByteBuffer buf, IOControl ioctrl)
+                throws IOException {
+            buffer.append(buf);
+        }
+
+        @Override
+        protected ProtocolResponse buildResult(HttpContext context)
+                throws IOException {
+            byte[] bytes;
+            if (encoded) {
+                bytes = ContentReader.decode(buffer.toByteArray(),
+                        buffer.isTrimmed(), maxContent, metadata);
+            } else {
+                bytes = buffer.toByteArray();
+                ContentReader.finish(metadata, false, bytes.length, buffer,
+                        false);
+            }
+            return new ProtocolResponse(bytes, response.getStatusLine()
+                    .getStatusCode(), metadata);
+        }
+
+        @Override
+        protected void releaseResources() {
+            if (buffer != null) {
+                buffer.release();
+                buffer = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Accumulates the body of a response up to a maximum length. When the
+ * Content-Length is known, the bytes are written directly into an array of that
+ * size which is then handed over to the ProtocolResponse without any copy.
+ * Otherwise the bytes go into a scratch array borrowed from a shared pool and a
+ * single copy of the exact length is made at the end. The content itself can't
+ * be recycled as it is emitted in the tuples, only the scratch arrays are,
+ * which is why {@link #release()} must be called once the buffer is not needed
+ * anymore.
+ **/
+final class ContentBuffer {
+
+    /** Initial size of the scratch arrays **/
+    static final int SCRATCH_SIZE = 64 * 1024;
+
+    /** Scratch arrays larger than this are left to the GC **/
+    static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private static final BlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(
+            16);
+
+    private final int maxContent;
+
+    private byte[] bytes;
+    private int length = 0;
+    private boolean trimmed = false;
+    private boolean pooled = false;
+
+    /**
+     * @param contentLength
+     *            value of the Content-Length header or -1 if unknown
+     * @param maxContent
+     *            maximum number of bytes to keep, -1 for no limit
+     **/
+    ContentBuffer(long contentLength, int maxContent) {
+        this.maxContent = maxContent;
+        long expected = contentLength;
+        if (maxContent != -1 && expected > maxContent) {
+            expected = maxContent;
+        }
+        if (expected >= 0 && expected <= Integer.MAX_VALUE) {
+            bytes = new byte[(int) expected];
+        } else {
+            bytes = POOL.poll();
+            if (bytes == null) {
+                bytes = new byte[SCRATCH_SIZE];
+            }
+            pooled = true;
+        }
+    }
+
+    /** Reads the stream until its end or until the max length is reached **/
+    void readFrom(InputStream instream) throws IOException {
+        while (!trimmed) {
+            if (room() == 0) {
+                // check whether there is anything left before growing
+                int b = instream.read();
+                if (b == -1) {
+                    return;
+                }
+                if (!grow()) {
+                    trimmed = true;
+                    return;
+                }
+                bytes[length++] = (byte) b;
+                continue;
+            }
+            int l = instream.read(bytes, length, room());
+            if (l == -1) {
+                return;
+            }
+            length += l;
+        }
+    }
+
+    /** Appends the remaining bytes of the buffer and consumes all of them **/
+    void append(ByteBuffer buf) {
+        while (buf.hasRemaining() && !trimmed) {
+            if (room() == 0 && !grow()) {
+                trimmed = true;
+                break;
+            }
+            int l = Math.min(buf.remaining(), room());
+            buf.get(bytes, length, l);
+            length += l;
+        }
+        // discard the rest
+        buf.position(buf.limit());
+    }
+
+    /**
+     * Number of bytes which can be written without growing the array, the
+     * pooled arrays can be larger than the max length
+     **/
+    private int room() {
+        int limit = bytes.length;
+        if (maxContent != -1 && maxContent < limit) {
+            limit = maxContent;
+        }
+        return limit - length;
+    }
+
+    /**
+     * Makes room for more bytes, returns false if the max length has been
+     * reached
+     **/
+    private boolean grow() {
+        if (maxContent != -1 && length >= maxContent) {
+            return false;
+        }
+        long newSize = Math.max(SCRATCH_SIZE, (long) bytes.length * 2);
+        if (maxContent != -1 && newSize > maxContent) {
+            newSize = maxContent;
+        }
+        if (newSize > Integer.MAX_VALUE - 8) {
+            newSize = Integer.MAX_VALUE - 8;
+        }
+        if (newSize <= length) {
+            return false;
+        }
+        byte[] larger = Arrays.copyOf(bytes, (int) newSize);
+        // the content was sized from Content-Length but the server sent more
+        // or the scratch array was too small: give it back and keep going
+        release();
+        bytes = larger;
+        pooled = true;
+        return true;
+    }
+
+    boolean isTrimmed() {
+        return trimmed;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Returns the content read so far. The array is returned as is if it has
+     * the exact length of the content and is not pooled.
+     **/
+    byte[] toByteArray() {
+        if (!pooled && length == bytes.length) {
+            return bytes;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Returns the scratch array to the pool, the buffer must not be used
+     * afterwards
+     **/
+    void release() {
+        if (pooled && bytes.length <= MAX_POOLED_SIZE) {
+            POOL.offer(bytes);
+        }
+        pooled = false;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.client.entity.DeflateInputStream;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Reads the body of a response and decodes it if it was sent compressed.
+ * http.content.limit applies to the decoded bytes and http.content.limit.raw to
+ * the bytes received from the server. The number of bytes on the wire and after
+ * decoding are stored in the metadata.
+ **/
+final class ContentReader {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory
+            .getLogger(ContentReader.class);
+
+    /** Value of the Accept-Encoding header sent with the requests **/
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    static final String WIRE_LENGTH_KEY = "http.length.wire";
+
+    static final String DECODED_LENGTH_KEY = "http.length.decoded";
+
+    private ContentReader() {
+    }
+
+    /** Returns true if the content-encoding is one we can decode **/
+    static boolean isEncoded(Metadata headers) {
+        return getEncoding(headers) != null;
+    }
+
+    private static String getEncoding(Metadata headers) {
+        String encoding = headers.getFirstValue("content-encoding");
+        if (encoding == null)
+            return null;
+        encoding = encoding.trim().toLowerCase(Locale.ROOT);
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")
+                || encoding.equals("deflate"))
+            return encoding;
+        return null;
+    }
+
+    /**
+     * Reads the stream until its end or until one of the limits is reached.
+     * 
+     * @param contentLength
+     *            value of the Content-Length header or -1 if unknown
+     * @param headers
+     *            headers of the response, the sizes and http.trimmed are added
+     *            to it
+     **/
+    static byte[] read(InputStream instream, long contentLength,
+            int maxContent, int maxRawContent, Metadata headers)
+            throws IOException {
+        InputStream limited = instream;
+        if (maxRawContent != -1) {
+            limited = ByteStreams.limit(instream, maxRawContent);
+        }
+        CountingInputStream wire = new CountingInputStream(limited);
+
+        String encoding = getEncoding(headers);
+        ContentBuffer buffer = new ContentBuffer(encoding != null ? -1
+                : contentLength, maxContent);
+        try {
+            EOFException truncated = null;
+            try {
+                buffer.readFrom(decode(wire, encoding));
+            } catch (EOFException e) {
+                truncated = e;
+            }
+            boolean rawTrimmed = maxRawContent != -1
+                    && wire.getCount() >= maxRawContent
+                    && instream.read() != -1;
+            // a compressed stream can be cut short by the raw limit, an
+            // empty one has no content at all, anything else is an error
+            if (truncated != null && !rawTrimmed && wire.getCount() > 0) {
+                throw truncated;
+            }
+            finish(headers, encoding != null, wire.getCount(), buffer,
+                    rawTrimmed);
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Decodes a compressed content which has already been buffered, rawTrimmed
+     * indicates that it was cut at http.content.limit.raw
+     **/
+    static byte[] decode(byte[] raw, boolean rawTrimmed, int maxContent,
+            Metadata headers) throws IOException {
+        String encoding = getEncoding(headers);
+        ContentBuffer buffer = new ContentBuffer(-1, maxContent);
+        try {
+            try {
+                buffer.readFrom(decode(new ByteArrayInputStream(raw), encoding));
+            } catch (EOFException e) {
+                if (!rawTrimmed && raw.length > 0)
+                    throw e;
+            }
+            finish(headers, true, raw.length, buffer, rawTrimmed);
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static InputStream decode(InputStream wire, String encoding)
+            throws IOException {
+        if (encoding == null)
+            return wire;
+        if (encoding.equals("deflate"))
+            return new DeflateInputStream(wire);
+        return new GZIPInputStream(wire);
+    }
+
+    /** Stores the sizes in the metadata and marks it if trimmed **/
+    static void finish(Metadata headers, boolean decoded, long wireLength,
+            ContentBuffer buffer, boolean rawTrimmed) {
+        // the headers describe the encoded content
+        if (decoded) {
+            headers.remove("content-encoding");
+            headers.remove("content-length");
+            headers.remove("content-md5");
+        }
+        headers.setValue(WIRE_LENGTH_KEY, Long.toString(wireLength));
+        headers.setValue(DECODED_LENGTH_KEY, Integer.toString(buffer.length()));
+        if (buffer.isTrimmed() || rawTrimmed) {
+            headers.setValue("http.trimmed", "true");
+            LOG.warn("HTTP content trimmed to {} ({} bytes on the wire)",
+                    buffer.length(), wireLength);
+        }
+    }
+}
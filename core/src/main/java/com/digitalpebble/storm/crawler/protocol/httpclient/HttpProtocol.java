@@ -19,10 +19,14 @@ package com.digitalpebble.storm.crawler.protocol.httpclient;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.http.Header;
 import org.apache.http.HeaderIterator;
 import org.apache.http.HttpEntity;
@@ -33,25 +37,35 @@ import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.config.RequestConfig.Builder;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.Args;
-import org.apache.http.util.ByteArrayBuffer;
 import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.storm.crawler.Metadata;
 import com.digitalpebble.storm.crawler.protocol.AbstractHttpProtocol;
 import com.digitalpebble.storm.crawler.protocol.ProtocolResponse;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
 import crawlercommons.robots.BaseRobotRules;
 
 /**
- * Uses Apache httpclient to handle http and https
+ * Uses Apache httpclient to handle http and https. The instances configured
+ * with the same pool settings share their connection pool within the JVM, the
+ * statistics of which are available as a metric.
  **/
 
 public class HttpProtocol extends AbstractHttpProtocol implements
@@ -60,18 +74,102 @@ public class HttpProtocol extends AbstractHttpProtocol implements
     private static final org.slf4j.Logger LOG = LoggerFactory
             .getLogger(HttpProtocol.class);
 
-    private final static PoolingHttpClientConnectionManager CONNECTION_MANAGER = new PoolingHttpClientConnectionManager();
+    /** pools in use in the JVM, by settings **/
+    private static final Map<String, ConnectionPool> POOLS = new HashMap<>();
 
-    static {
-        // Increase max total connection to 200
-        CONNECTION_MANAGER.setMaxTotal(200);
-        // Increase default max connection per route to 20
-        CONNECTION_MANAGER.setDefaultMaxPerRoute(20);
+    /**
+     * Connection pool and its evictor, shared by the instances configured with
+     * the same settings and shut down when the last of them is cleaned up
+     **/
+    private static class ConnectionPool implements IMetric {
+
+        final String settings;
+
+        final PoolingHttpClientConnectionManager manager;
+
+        /** closes the expired and idle connections of the pool **/
+        ScheduledExecutorService evictor;
+
+        int users = 0;
+
+        boolean metricRegistered = false;
+
+        ConnectionPool(String settings, int maxTotal, int maxPerRoute) {
+            this.settings = settings;
+            manager = new PoolingHttpClientConnectionManager();
+            manager.setMaxTotal(maxTotal);
+            manager.setDefaultMaxPerRoute(maxPerRoute);
+        }
+
+        /**
+         * Closes the expired connections and the ones which have been idle for
+         * longer than maxIdle msec, so that the sockets are not kept open for
+         * hosts which are not fetched anymore.
+         **/
+        void startEvictor(int interval, final int maxIdle) {
+            if (interval <= 0)
+                return;
+
+            evictor = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("HttpProtocol-evictor-%d").build());
+
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    manager.closeExpiredConnections();
+                    if (maxIdle >= 0) {
+                        manager.closeIdleConnections(maxIdle,
+                                TimeUnit.MILLISECONDS);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        void shutdown() {
+            if (evictor != null) {
+                evictor.shutdownNow();
+            }
+            manager.shutdown();
+        }
+
+        /**
+         * Returns the number of leased, pending and available connections in
+         * the pool, in total and for the routes which have leased or pending
+         * ones
+         **/
+        @Override
+        public Object getValueAndReset() {
+            Map<String, Integer> stats = new HashMap<>();
+            PoolStats total = manager.getTotalStats();
+            stats.put("leased", total.getLeased());
+            stats.put("pending", total.getPending());
+            stats.put("available", total.getAvailable());
+            stats.put("max", total.getMax());
+            for (HttpRoute route : manager.getRoutes()) {
+                PoolStats routeStats = manager.getStats(route);
+                if (routeStats.getLeased() == 0 && routeStats.getPending() == 0)
+                    continue;
+                String prefix = route.getTargetHost().toHostString() + ".";
+                stats.put(prefix + "leased", routeStats.getLeased());
+                stats.put(prefix + "pending", routeStats.getPending());
+                stats.put(prefix + "available", routeStats.getAvailable());
+            }
+            return stats;
+        }
     }
 
+    private ConnectionPool pool;
+
     private int maxContent;
 
-    private HttpClientBuilder builder;
+    private int maxRawContent;
+
+    private boolean compression;
+
+    /** thread safe, shared by all the threads using this instance **/
+    private CloseableHttpClient client;
 
     private RequestConfig requestConfig;
 
@@ -81,6 +179,10 @@ public class HttpProtocol extends AbstractHttpProtocol implements
         super.configure(conf);
 
         this.maxContent = ConfUtils.getInt(conf, "http.content.limit", -1);
+        this.maxRawContent = ConfUtils.getInt(conf, "http.content.limit.raw",
+                -1);
+        this.compression = ConfUtils.getBoolean(conf,
+                "http.content.compression", true);
 
         String userAgent = getAgentString(
                 ConfUtils.getString(conf, "http.agent.name"),
@@ -89,10 +191,42 @@ public class HttpProtocol extends AbstractHttpProtocol implements
                 ConfUtils.getString(conf, "http.agent.url"),
                 ConfUtils.getString(conf, "http.agent.email"));
 
-        builder = HttpClients.custom().setUserAgent(userAgent)
-                .setConnectionManager(CONNECTION_MANAGER)
+        // the pool must be large enough for all the fetching threads
+        // and for the threads allowed on a single queue
+        int fetcherThreads = ConfUtils.getInt(conf, "fetcher.threads.number",
+                10);
+        int threadsPerQueue = ConfUtils.getInt(conf,
+                "fetcher.threads.per.queue", 1);
+        // including the queues with their own number of threads
+        for (Object key : conf.keySet()) {
+            if (key.toString().startsWith("fetcher.maxThreads.")) {
+                threadsPerQueue = Math.max(threadsPerQueue,
+                        ConfUtils.getInt(conf, key.toString(), 1));
+            }
+        }
+
+        int maxTotal = ConfUtils.getInt(conf, "http.max.connections", -1);
+        if (maxTotal <= 0) {
+            maxTotal = Math.max(200, fetcherThreads);
+        }
+        int maxPerRoute = ConfUtils.getInt(conf,
+                "http.max.connections.per.route", -1);
+        if (maxPerRoute <= 0) {
+            maxPerRoute = Math.min(maxTotal, Math.max(20, threadsPerQueue));
+        }
+        int interval = ConfUtils.getInt(conf,
+                "http.connection.eviction.interval", 5000);
+        int maxIdle = ConfUtils.getInt(conf, "http.connection.max.idle", 30000);
+
+        pool = acquirePool(maxTotal, maxPerRoute, interval, maxIdle);
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setUserAgent(userAgent).setConnectionManager(pool.manager)
                 .setConnectionManagerShared(true).disableRedirectHandling()
-                .disableAutomaticRetries();
+                .disableAutomaticRetries()
+                // the content is decoded in handleResponse so that the sizes
+                // before and after decoding are known
+                .disableContentCompression();
 
         String proxyHost = ConfUtils.getString(conf, "http.proxy.host", null);
         int proxyPort = ConfUtils.getInt(conf, "http.proxy.port", 8080);
@@ -107,6 +241,29 @@ public class HttpProtocol extends AbstractHttpProtocol implements
             builder.setRoutePlanner(routePlanner);
         }
 
+        // keep the connections alive so that they can be reused?
+        if (!ConfUtils.getBoolean(conf, "http.keepalive", true)) {
+            builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+        } else {
+            // max time in msec an idle connection is kept alive for,
+            // the value from the server is used if shorter
+            final int keepAlive = ConfUtils.getInt(conf,
+                    "http.keepalive.timeout", -1);
+            if (keepAlive >= 0) {
+                builder.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                    @Override
+                    public long getKeepAliveDuration(HttpResponse response,
+                            HttpContext context) {
+                        long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                .getKeepAliveDuration(response, context);
+                        if (duration < 0 || duration > keepAlive)
+                            return keepAlive;
+                        return duration;
+                    }
+                });
+            }
+        }
+
         int timeout = ConfUtils.getInt(conf, "http.timeout", 10000);
 
         Builder requestConfigBuilder = RequestConfig.custom();
@@ -115,18 +272,85 @@ public class HttpProtocol extends AbstractHttpProtocol implements
         requestConfigBuilder.setConnectionRequestTimeout(timeout);
         requestConfig = requestConfigBuilder.build();
 
+        client = builder.build();
+    }
+
+    /**
+     * Returns the pool of the JVM for these settings, created with its evictor
+     * if there is none yet
+     **/
+    private static ConnectionPool acquirePool(int maxTotal, int maxPerRoute,
+            int interval, int maxIdle) {
+        String settings = maxTotal + "/" + maxPerRoute + "/" + interval + "/"
+                + maxIdle;
+        synchronized (POOLS) {
+            ConnectionPool pool = POOLS.get(settings);
+            if (pool == null) {
+                LOG.info("Connection pool : max total {}, max per route {}",
+                        maxTotal, maxPerRoute);
+                pool = new ConnectionPool(settings, maxTotal, maxPerRoute);
+                pool.startEvictor(interval, maxIdle);
+                POOLS.put(settings, pool);
+            }
+            pool.users++;
+            return pool;
+        }
+    }
+
+    /**
+     * Registers the statistics of the connection pool as a metric, once per
+     * pool as it can be shared by several instances
+     **/
+    public void registerMetric(TopologyContext context, String name,
+            int timeBucketSecs) {
+        synchronized (POOLS) {
+            if (pool.metricRegistered) {
+                return;
+            }
+            context.registerMetric(name, pool, timeBucketSecs);
+            pool.metricRegistered = true;
+        }
+    }
+
+    /** Shuts the connection pool down if no other instance uses it **/
+    @Override
+    public void cleanup() {
+        synchronized (POOLS) {
+            if (pool == null) {
+                return;
+            }
+            if (--pool.users == 0) {
+                POOLS.remove(pool.settings);
+                pool.shutdown();
+            }
+            pool = null;
+        }
     }
 
     @Override
     public ProtocolResponse getProtocolOutput(String url, Metadata md)
             throws Exception {
 
-        LOG.debug("HTTP connection manager stats {}",
-                CONNECTION_MANAGER.getTotalStats());
+        HttpGet httpget = createGet(url, md, requestConfig, compression);
+
+        // no need to release the connection explicitly as this is handled
+        // automatically
+        return client.execute(httpget, this);
+    }
 
+    /**
+     * Builds a GET request for the URL, with the conditional headers based on
+     * the metadata if any
+     **/
+    static HttpGet createGet(String url, Metadata md,
+            RequestConfig requestConfig, boolean compression) {
         HttpGet httpget = new HttpGet(url);
         httpget.setConfig(requestConfig);
 
+        if (compression) {
+            httpget.addHeader("Accept-Encoding", ContentReader.ACCEPT_ENCODING);
+        }
+
         if (md != null) {
             String ifModifiedSince = md.getFirstValue("cachedLastModified");
             if (StringUtils.isNotBlank(ifModifiedSince)) {
@@ -138,18 +362,11 @@ public class HttpProtocol extends AbstractHttpProtocol implements
                 httpget.addHeader("If-None-Match", ifNoneMatch);
             }
         }
-
-        // no need to release the connection explicitly as this is handled
-        // automatically. The client itself must be closed though.
-        try (CloseableHttpClient httpclient = builder.build()) {
-            return httpclient.execute(httpget, this);
-        }
+        return httpget;
     }
 
-    @Override
-    public ProtocolResponse handleResponse(HttpResponse response)
-            throws ClientProtocolException, IOException {
-        int status = response.getStatusLine().getStatusCode();
+    /** Converts the headers of a response into Metadata **/
+    static Metadata getHeaders(HttpResponse response) {
         Metadata metadata = new Metadata();
         HeaderIterator iter = response.headerIterator();
         while (iter.hasNext()) {
@@ -157,22 +374,24 @@ public class HttpProtocol extends AbstractHttpProtocol implements
             metadata.addValue(header.getName().toLowerCase(Locale.ROOT),
                     header.getValue());
         }
+        return metadata;
+    }
 
-        MutableBoolean trimmed = new MutableBoolean();
-
-        byte[] bytes = HttpProtocol.toByteArray(response.getEntity(),
-                maxContent, trimmed);
+    @Override
+    public ProtocolResponse handleResponse(HttpResponse response)
+            throws ClientProtocolException, IOException {
+        int status = response.getStatusLine().getStatusCode();
+        Metadata metadata = getHeaders(response);
 
-        if (trimmed.booleanValue()) {
-            metadata.setValue("http.trimmed", "true");
-            LOG.warn("HTTP content trimmed to {}", bytes.length);
-        }
+        byte[] bytes = toByteArray(response.getEntity(), maxContent,
+                maxRawContent, metadata);
 
         return new ProtocolResponse(bytes, status, metadata);
     }
 
     private static final byte[] toByteArray(final HttpEntity entity,
-            int maxContent, MutableBoolean trimmed) throws IOException {
+            int maxContent, int maxRawContent, Metadata metadata)
+            throws IOException {
 
         if (entity == null)
             return new byte[] {};
@@ -184,25 +403,8 @@ public class HttpProtocol extends AbstractHttpProtocol implements
         try {
             Args.check(entity.getContentLength() <= Integer.MAX_VALUE,
                     "HTTP entity too large to be buffered in memory");
-            int i = (int) entity.getContentLength();
-            if (i < 0) {
-                i = 4096;
-            }
-            final ByteArrayBuffer buffer = new ByteArrayBuffer(i);
-            final byte[] tmp = new byte[4096];
-            int l;
-            int total = 0;
-            while ((l = instream.read(tmp)) != -1) {
-                // check whether we need to trim
-                if (maxContent != -1 && total + l > maxContent) {
-                    buffer.append(tmp, 0, maxContent - total);
-                    trimmed.setValue(true);
-                    break;
-                }
-                buffer.append(tmp, 0, l);
-                total += l;
-            }
-            return buffer.toByteArray();
+            return ContentReader.read(instream, entity.getContentLength(),
+                    maxContent, maxRawContent, metadata);
         } finally {
             instream.close();
         }
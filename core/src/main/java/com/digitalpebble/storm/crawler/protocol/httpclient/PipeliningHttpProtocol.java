@@ -0,0 +1,473 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.impl.nio.DefaultHttpClientIODispatch;
+import org.apache.http.impl.nio.pool.BasicNIOConnFactory;
+import org.apache.http.impl.nio.pool.BasicNIOConnPool;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncRequester;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolEntry;
+import org.apache.http.pool.PoolEntryCallback;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpProcessorBuilder;
+import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestTargetHost;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.protocol.AbstractHttpProtocol;
+import com.digitalpebble.storm.crawler.protocol.AsyncProtocol;
+import com.digitalpebble.storm.crawler.protocol.ProtocolResponse;
+import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import backtype.storm.Config;
+
+/**
+ * Sends the concurrent requests for a host as HTTP/1.1 pipelined batches over a
+ * small number of connections, instead of opening one connection per request.
+ * This is only useful if several URLs of the same host are fetched at the same
+ * time i.e. with fetcher.async and fetcher.threads.per.queue > 1. The batches
+ * are sent with the requester of httpcore-nio, which returns the connection to
+ * a pool once a batch is complete, so that the next batch for the host reuses
+ * it. The connection is closed once there is nothing left to send to the host.
+ * Hosts which fail to handle a pipelined batch, as well as the requests going
+ * through a proxy, are fetched with an {@link AsyncHttpProtocol} instead.
+ **/
+public class PipeliningHttpProtocol extends AbstractHttpProtocol implements
+        AsyncProtocol {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory
+            .getLogger(PipeliningHttpProtocol.class);
+
+    private int maxContent;
+
+    private int maxRawContent;
+
+    private boolean compression;
+
+    private String userAgent;
+
+    private int maxBatch;
+
+    private boolean useProxy;
+
+    private RequestConfig requestConfig;
+
+    private ConnectingIOReactor ioReactor;
+
+    private HostConnPool connPool;
+
+    private HttpAsyncRequester requester;
+
+    private AsyncHttpProtocol fallback;
+
+    private final ConcurrentMap<HttpHost, HostPipeline> pipelines = new ConcurrentHashMap<>();
+
+    /** hosts for which pipelining failed **/
+    private final Set<HttpHost> noPipelining = Collections
+            .newSetFromMap(new ConcurrentHashMap<HttpHost, Boolean>());
+
+    @Override
+    public void configure(final Config conf) {
+
+        super.configure(conf);
+
+        fallback = new AsyncHttpProtocol();
+        fallback.configure(conf);
+
+        this.maxContent = ConfUtils.getInt(conf, "http.content.limit", -1);
+        this.maxRawContent = ConfUtils.getInt(conf, "http.content.limit.raw",
+                -1);
+        this.compression = ConfUtils.getBoolean(conf,
+                "http.content.compression", true);
+        this.maxBatch = ConfUtils.getInt(conf, "http.pipelining.max.requests",
+                8);
+
+        userAgent = getAgentString(
+                ConfUtils.getString(conf, "http.agent.name"),
+                ConfUtils.getString(conf, "http.agent.version"),
+                ConfUtils.getString(conf, "http.agent.description"),
+                ConfUtils.getString(conf, "http.agent.url"),
+                ConfUtils.getString(conf, "http.agent.email"));
+
+        String proxyHost = ConfUtils.getString(conf, "http.proxy.host", null);
+        useProxy = proxyHost != null && proxyHost.length() > 0;
+
+        int timeout = ConfUtils.getInt(conf, "http.timeout", 10000);
+
+        requestConfig = RequestConfig.custom().setSocketTimeout(timeout)
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .setRedirectsEnabled(false).build();
+
+        int ioThreads = ConfUtils.getInt(conf, "http.async.io.threads", Runtime
+                .getRuntime().availableProcessors());
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads).setConnectTimeout(timeout)
+                .setSoTimeout(timeout).build();
+
+        ThreadFactoryBuilder threads = new ThreadFactoryBuilder().setDaemon(
+                true).setNameFormat("PipeliningHttpProtocol-%d");
+        try {
+            ioReactor = new DefaultConnectingIOReactor(ioReactorConfig,
+                    threads.build());
+        } catch (IOReactorException e) {
+            throw new RuntimeException(e);
+        }
+
+        // https uses the default SSL context of the JVM
+        connPool = new HostConnPool(ioReactor, new BasicNIOConnFactory(
+                (SSLContext) null, null, ConnectionConfig.DEFAULT), timeout);
+        connPool.setMaxTotal(ConfUtils.getInt(conf,
+                "http.async.max.connections", 1000));
+        connPool.setDefaultMaxPerRoute(ConfUtils.getInt(conf,
+                "http.pipelining.max.connections.per.route", 1));
+
+        requester = new HttpAsyncRequester(HttpProcessorBuilder.create()
+                .add(new RequestContent()).add(new RequestTargetHost())
+                .add(new RequestConnControl()).build());
+
+        final DefaultHttpClientIODispatch dispatch = new DefaultHttpClientIODispatch(
+                new PipeliningRequestExecutor(), ConnectionConfig.DEFAULT);
+        threads.build().newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ioReactor.execute(dispatch);
+                } catch (IOException e) {
+                    LOG.error("I/O reactor terminated", e);
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public void getProtocolOutput(String url, Metadata md, Callback callback)
+            throws Exception {
+        URI uri = new URI(url);
+        HttpHost host = URIUtils.extractHost(uri);
+        if (useProxy || host == null || noPipelining.contains(host)) {
+            fallback.getProtocolOutput(url, md, callback);
+            return;
+        }
+        PendingRequest request = new PendingRequest(url, uri, md, callback);
+        while (true) {
+            HostPipeline pipeline = pipelines.get(host);
+            if (pipeline == null) {
+                pipeline = new HostPipeline(host);
+                HostPipeline existing = pipelines.putIfAbsent(host, pipeline);
+                if (existing != null)
+                    pipeline = existing;
+            }
+            // the pipeline could have been removed in the meantime
+            if (pipeline.submit(request))
+                return;
+        }
+    }
+
+    @Override
+    public ProtocolResponse getProtocolOutput(String url, Metadata md)
+            throws Exception {
+        return fallback.getProtocolOutput(url, md);
+    }
+
+    @Override
+    public void cleanup() {
+        fallback.cleanup();
+        try {
+            connPool.shutdown(1000);
+            ioReactor.shutdown();
+        } catch (IOException e) {
+            LOG.warn("Exception while closing the connections", e);
+        }
+    }
+
+    /**
+     * Writes all the requests of a batch in one go, the default executor only
+     * writes the next one when the connection becomes writable again i.e. once
+     * the previous response has been received
+     **/
+    private static class PipeliningRequestExecutor extends
+            HttpAsyncRequestExecutor {
+
+        @Override
+        public void requestReady(NHttpClientConnection conn)
+                throws IOException, HttpException {
+            long submitted;
+            do {
+                submitted = conn.getMetrics().getRequestCount();
+                super.requestReady(conn);
+            } while (conn.isOpen() && !conn.isRequestSubmitted()
+                    && conn.getMetrics().getRequestCount() > submitted);
+        }
+    }
+
+    /** Can close the idle connections of a host **/
+    private static class HostConnPool extends BasicNIOConnPool {
+
+        HostConnPool(ConnectingIOReactor ioReactor,
+                BasicNIOConnFactory factory, int connectTimeout) {
+            super(ioReactor, factory, connectTimeout);
+        }
+
+        void closeIdle(final HttpHost host) {
+            enumAvailable(new PoolEntryCallback<HttpHost, NHttpClientConnection>() {
+                @Override
+                public void process(
+                        PoolEntry<HttpHost, NHttpClientConnection> entry) {
+                    if (host.equals(entry.getRoute())) {
+                        entry.close();
+                    }
+                }
+            });
+        }
+    }
+
+    private static class PendingRequest {
+        final String url;
+        final URI uri;
+        final Metadata md;
+        final Callback callback;
+
+        /** set once the callback has been given the response **/
+        volatile boolean answered = false;
+
+        PendingRequest(String url, URI uri, Metadata md, Callback callback) {
+            this.url = url;
+            this.uri = uri;
+            this.md = md;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Queues the requests for a host while a batch is in flight and sends them
+     * as the next batch once it is complete.
+     **/
+    private class HostPipeline implements
+            FutureCallback<List<ProtocolResponse>> {
+
+        private final HttpHost host;
+
+        private final LinkedList<PendingRequest> pending = new LinkedList<>();
+
+        private List<PendingRequest> batch;
+
+        private boolean removed = false;
+
+        HostPipeline(HttpHost host) {
+            this.host = host;
+        }
+
+        /** Returns false if the pipeline is not in use anymore **/
+        boolean submit(PendingRequest request) {
+            synchronized (this) {
+                if (removed)
+                    return false;
+                pending.add(request);
+                if (batch != null)
+                    return true;
+                batch = nextBatch();
+            }
+            send(batch);
+            return true;
+        }
+
+        private List<PendingRequest> nextBatch() {
+            List<PendingRequest> next = new ArrayList<>();
+            while (!pending.isEmpty() && next.size() < maxBatch) {
+                next.add(pending.removeFirst());
+            }
+            return next;
+        }
+
+        private void send(List<PendingRequest> requests) {
+            List<HttpAsyncRequestProducer> producers = new ArrayList<>(
+                    requests.size());
+            List<AsyncHttpProtocol.ResponseConsumer> consumers = new ArrayList<>(
+                    requests.size());
+            for (PendingRequest request : requests) {
+                HttpGet get = HttpProtocol.createGet(request.url, request.md,
+                        requestConfig, compression);
+                get.setHeader("User-Agent", userAgent);
+                try {
+                    // the request line must not contain the host
+                    get.setURI(URIUtils.rewriteURI(request.uri, null, true));
+                } catch (Exception e) {
+                    LOG.debug("Can't rewrite {}", request.url, e);
+                }
+                producers.add(HttpAsyncMethods.create(host, get));
+                consumers.add(new AnsweringConsumer(request));
+            }
+            HttpCoreContext context = HttpCoreContext.create();
+            context.setTargetHost(host);
+            try {
+                requester.executePipelined(host, producers, consumers,
+                        connPool, context, this);
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+        }
+
+        /**
+         * Passes the response to the callback as soon as it is complete, so
+         * that it is not lost if a later request of the batch fails
+         **/
+        private class AnsweringConsumer extends
+                AsyncHttpProtocol.ResponseConsumer {
+
+            private final PendingRequest request;
+
+            AnsweringConsumer(PendingRequest request) {
+                super(maxContent, maxRawContent);
+                this.request = request;
+            }
+
+            @Override
+            protected ProtocolResponse buildResult(HttpContext context)
+                    throws IOException {
+                ProtocolResponse response = super.buildResult(context);
+                request.answered = true;
+                request.callback.completed(response);
+                return response;
+            }
+        }
+
+        @Override
+        public void completed(List<ProtocolResponse> responses) {
+            // the batch ends early if the server closes the connection
+            for (PendingRequest request : batch) {
+                if (!request.answered) {
+                    failed(new ConnectionClosedException(
+                            "Connection closed before the end of the batch"));
+                    return;
+                }
+            }
+            next();
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            List<PendingRequest> unanswered = new ArrayList<>();
+            for (PendingRequest request : batch) {
+                if (!request.answered)
+                    unanswered.add(request);
+            }
+            if (batch.size() == 1) {
+                for (PendingRequest request : unanswered) {
+                    request.callback.failed(ex);
+                }
+            } else {
+                // the server or something in between can't deal with
+                // pipelined requests, use one request per connection for
+                // the ones which haven't got a response
+                LOG.info("Pipelining failed for {}, falling back: {}", host,
+                        ex.getMessage());
+                noPipelining.add(host);
+                for (PendingRequest request : unanswered) {
+                    resend(request);
+                }
+            }
+            next();
+        }
+
+        @Override
+        public void cancelled() {
+            for (PendingRequest request : batch) {
+                if (request.answered)
+                    continue;
+                request.callback.failed(new IOException("Request cancelled "
+                        + request.url));
+            }
+            next();
+        }
+
+        private void resend(PendingRequest request) {
+            try {
+                fallback.getProtocolOutput(request.url, request.md,
+                        request.callback);
+            } catch (Exception e) {
+                request.callback.failed(e);
+            }
+        }
+
+        private void next() {
+            List<PendingRequest> next;
+            boolean fallBack;
+            synchronized (this) {
+                fallBack = noPipelining.contains(host);
+                if (pending.isEmpty()) {
+                    batch = null;
+                    removed = true;
+                    pipelines.remove(host, this);
+                    // nothing left to send, the connection can go
+                    connPool.closeIdle(host);
+                    return;
+                }
+                if (fallBack) {
+                    next = new ArrayList<>(pending);
+                    pending.clear();
+                    batch = null;
+                    removed = true;
+                    pipelines.remove(host, this);
+                } else {
+                    next = batch = nextBatch();
+                }
+            }
+            if (!fallBack) {
+                send(next);
+                return;
+            }
+            for (PendingRequest request : next) {
+                resend(request);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.spout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeSet;
+
+/**
+ * Range of bytes of a file read line by line through a memory mapping. A line
+ * belongs to the range in which it starts, so that splitting a file into
+ * contiguous ranges gives every line to exactly one of them. The offsets of the
+ * lines emitted are kept until they are acked and the offset up to which all
+ * the lines have been acked can be saved to a checkpoint file, from which the
+ * reading resumes when the range is opened again.
+ **/
+class FileRange implements Closeable {
+
+    /** Size of the portion of the file mapped at a time **/
+    static final int WINDOW_SIZE = 32 * 1024 * 1024;
+
+    private final Path path;
+
+    private final long end;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final Path checkpoint;
+
+    private long position;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    /** start offsets of the lines emitted and not acked yet **/
+    private final TreeSet<Long> pending = new TreeSet<>();
+
+    private long lastCheckpoint = -1;
+
+    /**
+     * @param checkpoint
+     *            file where the committed offset is stored, can be null
+     **/
+    FileRange(Path path, long start, long end, Path checkpoint)
+            throws IOException {
+        this.path = path;
+        this.end = end;
+        this.checkpoint = checkpoint;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+
+        long committed = -1;
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            committed = Long.parseLong(new String(Files
+                    .readAllBytes(checkpoint), StandardCharsets.UTF_8).trim());
+        }
+        if (committed >= start) {
+            // always a line boundary
+            position = committed;
+            lastCheckpoint = committed;
+        } else {
+            position = start;
+            // the line at the start belongs to the previous range unless
+            // the start is the beginning of a line
+            if (start > 0 && byteAt(start - 1) != '\n') {
+                long eol = indexOfEOL(start);
+                position = eol == -1 ? size : eol + 1;
+            }
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the offsets of the start and end of the next line, the end
+     * excluding the line terminator, or null if there are no lines left
+     **/
+    long[] nextLine() throws IOException {
+        while (position < end && position < size) {
+            long start = position;
+            long eol = indexOfEOL(start);
+            long next = eol == -1 ? size : eol + 1;
+            long stop = eol == -1 ? size : eol;
+            if (stop > start && byteAt(stop - 1) == '\r') {
+                stop--;
+            }
+            position = next;
+            if (stop > start) {
+                pending.add(start);
+                return new long[] { start, stop };
+            }
+        }
+        return null;
+    }
+
+    /** Reads the bytes of a line returned by {@link #nextLine()} **/
+    byte[] read(long start, long stop) throws IOException {
+        byte[] bytes = new byte[(int) (stop - start)];
+        if (window != null && start >= windowStart
+                && stop <= windowStart + window.limit()) {
+            ByteBuffer view = window.duplicate();
+            view.position((int) (start - windowStart));
+            view.get(bytes);
+            return bytes;
+        }
+        // a line which is not in the current window anymore e.g. retried
+        ByteBuffer target = ByteBuffer.wrap(bytes);
+        long offset = start;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, offset);
+            if (read == -1)
+                throw new IOException("Unexpected end of file " + path);
+            offset += read;
+        }
+        return bytes;
+    }
+
+    /** Marks the line starting at that offset as done **/
+    void ack(long start) {
+        pending.remove(start);
+    }
+
+    /** True if all the lines have been read and acked **/
+    boolean isDone() {
+        return pending.isEmpty() && (position >= end || position >= size);
+    }
+
+    /** Offset before which all the lines have been acked **/
+    long committedOffset() {
+        if (!pending.isEmpty())
+            return pending.first();
+        return position;
+    }
+
+    /** Saves the committed offset if it has changed **/
+    void checkpoint() throws IOException {
+        if (checkpoint == null)
+            return;
+        long committed = committedOffset();
+        if (committed == lastCheckpoint)
+            return;
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(tmp,
+                Long.toString(committed).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpoint = committed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /** Offset of the next \n at or after the given offset, -1 if none **/
+    private long indexOfEOL(long from) throws IOException {
+        long offset = from;
+        while (offset < size) {
+            map(offset);
+            int limit = window.limit();
+            for (int i = (int) (offset - windowStart); i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    return windowStart + i;
+                }
+            }
+            offset = windowStart + limit;
+        }
+        return -1;
+    }
+
+    private byte byteAt(long offset) throws IOException {
+        map(offset);
+        return window.get((int) (offset - windowStart));
+    }
+
+    /**
+     * Makes sure that the window contains the offset, the new windows start at
+     * the current position so that the line being read stays mapped if it is
+     * not longer than the window
+     **/
+    private void map(long offset) throws IOException {
+        if (window != null && offset >= windowStart
+                && offset < windowStart + window.limit()) {
+            return;
+        }
+        long from = offset;
+        if (position <= offset && offset - position < WINDOW_SIZE / 2) {
+            from = position;
+        }
+        long length = Math.min(WINDOW_SIZE, size - from);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+        windowStart = from;
+    }
+}
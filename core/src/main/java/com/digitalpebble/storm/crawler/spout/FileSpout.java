@@ -25,6 +25,9 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +37,9 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.google.common.hash.Hashing;
+
 import backtype.storm.spout.Scheme;
 import backtype.storm.spout.SpoutOutputCollector;
 import backtype.storm.task.TopologyContext;
@@ -43,6 +49,16 @@ import backtype.storm.topology.base.BaseRichSpout;
 /**
  * Reads the lines from a UTF-8 file and use them as a spout. Load the entire
  * content into memory
+ * 
+ * <p>
+ * If filespout.mmap is set to true, the files are memory mapped instead and
+ * each of the spout instances reads its share of each file, as a range of bytes
+ * of about the same size. The lines are emitted with their offset as message ID
+ * and if filespout.checkpoint.dir is set, the offset up to which all the lines
+ * of a range have been acked is saved there every filespout.checkpoint.interval
+ * seconds. A restarted spout resumes from there, provided that it has the same
+ * number of instances. Failed lines are emitted again.
+ * </p>
  */
 @SuppressWarnings("serial")
 public class FileSpout extends BaseRichSpout {
@@ -60,6 +76,35 @@ public class FileSpout extends BaseRichSpout {
     private LinkedList<byte[]> buffer = new LinkedList<>();
     private boolean active;
 
+    private boolean mapped = false;
+
+    /** ranges of the files read by this instance when mapped **/
+    private LinkedList<FileRange> ranges = new LinkedList<>();
+
+    private Queue<LineId> retries = new LinkedList<>();
+
+    private long checkpointInterval;
+
+    private long lastCheckpoint;
+
+    /** Message ID of the lines read from a memory mapped file **/
+    private static class LineId {
+        final FileRange range;
+        final long start;
+        final long stop;
+
+        LineId(FileRange range, long start, long stop) {
+            this.range = range;
+            this.start = start;
+            this.stop = stop;
+        }
+
+        @Override
+        public String toString() {
+            return range.getPath() + ":" + start;
+        }
+    }
+
     public FileSpout(String dir, String filter, Scheme scheme) {
         Path pdir = Paths.get(dir);
         _inputFiles = new LinkedList<>();
@@ -128,6 +173,24 @@ public class FileSpout extends BaseRichSpout {
             SpoutOutputCollector collector) {
         _collector = collector;
 
+        mapped = ConfUtils.getBoolean(conf, "filespout.mmap", false);
+        if (mapped) {
+            int numTasks = Math.max(1,
+                    context.getComponentTasks(context.getThisComponentId())
+                            .size());
+            String checkpointDir = ConfUtils.getString(conf,
+                    "filespout.checkpoint.dir", null);
+            checkpointInterval = ConfUtils.getInt(conf,
+                    "filespout.checkpoint.interval", 10) * 1000L;
+            lastCheckpoint = System.currentTimeMillis();
+            try {
+                openRanges(context.getThisTaskIndex(), numTasks, checkpointDir);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
         try {
             populateBuffer();
         } catch (IOException e) {
@@ -135,11 +198,92 @@ public class FileSpout extends BaseRichSpout {
         }
     }
 
+    /** Opens the range of each file which this instance has to read **/
+    private void openRanges(int taskIndex, int numTasks, String checkpointDir)
+            throws IOException {
+        // all the instances must see the files in the same order
+        List<String> files = new ArrayList<>(_inputFiles);
+        Collections.sort(files);
+        Path dir = null;
+        if (StringUtils.isNotBlank(checkpointDir)) {
+            dir = Paths.get(checkpointDir);
+            Files.createDirectories(dir);
+        }
+        for (String file : files) {
+            Path path = Paths.get(file).toAbsolutePath();
+            long size = Files.size(path);
+            long start = size * taskIndex / numTasks;
+            long end = size * (taskIndex + 1) / numTasks;
+            Path checkpoint = null;
+            if (dir != null) {
+                String name = Hashing.md5()
+                        .hashString(path.toString(), StandardCharsets.UTF_8)
+                        .toString()
+                        + "-" + taskIndex + "-of-" + numTasks;
+                checkpoint = dir.resolve(name);
+            }
+            FileRange range = new FileRange(path, start, end, checkpoint);
+            LOG.info("Reading {} from offset {} to {}", path,
+                    range.committedOffset(), end);
+            ranges.add(range);
+        }
+    }
+
+    private void nextMappedTuple() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpoint >= checkpointInterval) {
+            checkpoint();
+            lastCheckpoint = now;
+        }
+
+        LineId id = retries.poll();
+        if (id == null) {
+            for (FileRange range : ranges) {
+                long[] line = range.nextLine();
+                if (line != null) {
+                    id = new LineId(range, line[0], line[1]);
+                    break;
+                }
+            }
+        }
+        if (id == null)
+            return;
+
+        byte[] bytes = id.range.read(id.start, id.stop);
+        List<Object> fields = this._scheme.deserialize(bytes);
+        this._collector.emit(fields, id);
+    }
+
+    /**
+     * Saves the offsets of the ranges and closes the ones which have been
+     * completely read and acked
+     **/
+    private void checkpoint() throws IOException {
+        Iterator<FileRange> iter = ranges.iterator();
+        while (iter.hasNext()) {
+            FileRange range = iter.next();
+            range.checkpoint();
+            if (range.isDone()) {
+                range.close();
+                iter.remove();
+            }
+        }
+    }
+
     @Override
     public void nextTuple() {
         if (!active)
             return;
 
+        if (mapped) {
+            try {
+                nextMappedTuple();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
         if (buffer.isEmpty()) {
             try {
                 populateBuffer();
@@ -162,8 +306,33 @@ public class FileSpout extends BaseRichSpout {
         declarer.declare(_scheme.getOutputFields());
     }
 
+    @Override
+    public void ack(Object msgId) {
+        if (msgId instanceof LineId) {
+            LineId id = (LineId) msgId;
+            id.range.ack(id.start);
+        }
+    }
+
+    @Override
+    public void fail(Object msgId) {
+        if (msgId instanceof LineId) {
+            retries.add((LineId) msgId);
+        }
+    }
+
     @Override
     public void close() {
+        if (!mapped)
+            return;
+        try {
+            checkpoint();
+            for (FileRange range : ranges) {
+                range.close();
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to save the offsets", e);
+        }
     }
 
     @Override
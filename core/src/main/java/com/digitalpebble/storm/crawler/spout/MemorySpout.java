@@ -18,17 +18,20 @@
 package com.digitalpebble.storm.crawler.spout;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.util.ConfUtils;
 import com.digitalpebble.storm.crawler.util.StringTabScheme;
+import com.digitalpebble.storm.crawler.util.URLPartitioner;
 
 import backtype.storm.metric.api.IMetric;
 import backtype.storm.spout.SpoutOutputCollector;
@@ -38,7 +41,15 @@ import backtype.storm.topology.base.BaseRichSpout;
 
 /**
  * Stores URLs in memory. Useful for testing and debugging in local mode or with
- * a single worker.
+ * a single worker. The URLs are kept in a {@link URLFrontier} i.e. mostly
+ * outside of the Java heap.
+ * 
+ * The due URLs are put in one queue per host, domain or IP depending on
+ * partition.url.mode and the queues are emitted from in turn, so that a site
+ * with many URLs does not delay all the others. No more than
+ * memoryspout.max.inflight.per.queue URLs of a queue can be in the topology at
+ * any time, the next ones are emitted when the previous ones are acked or
+ * failed.
  */
 @SuppressWarnings("serial")
 public class MemorySpout extends BaseRichSpout {
@@ -50,10 +61,39 @@ public class MemorySpout extends BaseRichSpout {
     private StringTabScheme scheme = new StringTabScheme();
     private boolean active = true;
 
-    private static PriorityQueue<ScheduledURL> queue = new PriorityQueue<>();
+    private static final URLFrontier frontier = new URLFrontier();
 
     private String[] startingURLs;
 
+    private URLPartitioner partitioner;
+
+    /** max number of URLs per queue not acked or failed yet, -1 for no limit **/
+    private int maxInFlightPerQueue;
+
+    /** max number of due URLs taken out of the frontier **/
+    private int maxBuffered;
+
+    private int buffered = 0;
+
+    private final Map<String, URLQueue> queues = new HashMap<>();
+
+    /** queues with URLs which can be emitted, in turn **/
+    private final ArrayDeque<URLQueue> rotation = new ArrayDeque<>();
+
+    private final Map<Object, URLQueue> inFlight = new HashMap<>();
+
+    /** URLs of a partition taken out of the frontier **/
+    private static class URLQueue {
+        final String key;
+        final LinkedList<URLFrontier.Entry> urls = new LinkedList<>();
+        int inFlight = 0;
+        boolean inRotation = false;
+
+        URLQueue(String key) {
+            this.key = key;
+        }
+    }
+
     public MemorySpout(String... urls) {
         startingURLs = urls;
     }
@@ -64,11 +104,18 @@ public class MemorySpout extends BaseRichSpout {
      * @param nextFetch
      **/
     public static void add(String url, Metadata md, Date nextFetch) {
+        add(url, md, nextFetch.getTime());
+    }
+
+    /**
+     * Add a new URL
+     * 
+     * @param nextFetch
+     *            time in msec since the epoch
+     **/
+    public static void add(String url, Metadata md, long nextFetch) {
         LOG.debug("Adding {} with md {} and nextFetch {}", url, md, nextFetch);
-        ScheduledURL tuple = new ScheduledURL(url, md, nextFetch);
-        synchronized (queue) {
-            queue.add(tuple);
-        }
+        frontier.add(url, md, nextFetch);
     }
 
     @Override
@@ -84,7 +131,14 @@ public class MemorySpout extends BaseRichSpout {
                     "Can't have more than one instance of the MemorySpout");
         }
 
-        Date now = new Date();
+        partitioner = new URLPartitioner();
+        partitioner.configure(conf);
+
+        maxInFlightPerQueue = ConfUtils.getInt(conf,
+                "memoryspout.max.inflight.per.queue", -1);
+        maxBuffered = ConfUtils.getInt(conf, "memoryspout.buffer.size", 10000);
+
+        long now = System.currentTimeMillis();
         for (String u : startingURLs) {
             LOG.debug("About to deserialize {} ", u);
             List<Object> tuple = scheme.deserialize(u
@@ -95,10 +149,20 @@ public class MemorySpout extends BaseRichSpout {
         context.registerMetric("queue_size", new IMetric() {
             @Override
             public Object getValueAndReset() {
-                return queue.size();
+                return frontier.size();
             }
         }, 10);
 
+        context.registerMetric("queues", new IMetric() {
+            @Override
+            public Object getValueAndReset() {
+                Map<String, Integer> values = new HashMap<>();
+                values.put("buffered", buffered);
+                values.put("in_flight", inFlight.size());
+                values.put("queues", queues.size());
+                return values;
+            }
+        }, 10);
     }
 
     @Override
@@ -106,25 +170,97 @@ public class MemorySpout extends BaseRichSpout {
         if (!active)
             return;
 
-        synchronized (queue) {
-            // removes the URL
-            ScheduledURL tuple = queue.poll();
-            if (tuple == null)
-                return;
+        fill();
 
-            // check whether it is due for fetching
-            if (tuple.nextFetchDate.after(new Date())) {
-                LOG.debug("Tuple {} not ready for fetching", tuple.URL);
+        // next queue in turn which can emit
+        while (!rotation.isEmpty()) {
+            URLQueue queue = rotation.poll();
+            if (queue.urls.isEmpty() || isFull(queue)) {
+                queue.inRotation = false;
+                continue;
+            }
+            URLFrontier.Entry entry = queue.urls.removeFirst();
+            buffered--;
+            if (!queue.urls.isEmpty() && !isFull(queue)) {
+                rotation.add(queue);
+            } else {
+                queue.inRotation = false;
+            }
 
-                // put it back and wait
-                queue.add(tuple);
-                return;
+            // the same URL could have been added again and emitted before
+            // the previous tuple is acked
+            URLQueue previous = inFlight.put(entry.url, queue);
+            if (previous != null) {
+                release(previous);
             }
+            queue.inFlight++;
 
             List<Object> tobs = new LinkedList<>();
-            tobs.add(tuple.URL);
-            tobs.add(tuple.m);
-            _collector.emit(tobs, tuple.URL);
+            tobs.add(entry.url);
+            tobs.add(entry.metadata);
+            _collector.emit(tobs, entry.url);
+            return;
+        }
+    }
+
+    /** Moves the due URLs from the frontier to their queue **/
+    private void fill() {
+        long now = System.currentTimeMillis();
+        while (buffered < maxBuffered) {
+            URLFrontier.Entry entry = frontier.poll(now);
+            if (entry == null)
+                return;
+            Metadata md = entry.metadata != null ? entry.metadata
+                    : Metadata.empty;
+            String key = partitioner.getPartition(entry.url, md);
+            if (key == null)
+                key = "";
+            URLQueue queue = queues.get(key);
+            if (queue == null) {
+                queue = new URLQueue(key);
+                queues.put(key, queue);
+            }
+            queue.urls.add(entry);
+            buffered++;
+            schedule(queue);
+        }
+    }
+
+    private boolean isFull(URLQueue queue) {
+        return maxInFlightPerQueue != -1
+                && queue.inFlight >= maxInFlightPerQueue;
+    }
+
+    /** Puts the queue in the rotation if it has URLs it can emit **/
+    private void schedule(URLQueue queue) {
+        if (!queue.inRotation && !queue.urls.isEmpty() && !isFull(queue)) {
+            queue.inRotation = true;
+            rotation.add(queue);
+        }
+    }
+
+    private void release(URLQueue queue) {
+        queue.inFlight--;
+        if (queue.urls.isEmpty() && queue.inFlight == 0) {
+            queues.remove(queue.key);
+        } else {
+            schedule(queue);
+        }
+    }
+
+    @Override
+    public void ack(Object msgId) {
+        URLQueue queue = inFlight.remove(msgId);
+        if (queue != null) {
+            release(queue);
+        }
+    }
+
+    @Override
+    public void fail(Object msgId) {
+        URLQueue queue = inFlight.remove(msgId);
+        if (queue != null) {
+            release(queue);
         }
     }
 
@@ -146,31 +282,3 @@ public class MemorySpout extends BaseRichSpout {
     }
 
 }
-
-class ScheduledURL implements Comparable<ScheduledURL> {
-    Date nextFetchDate;
-    String URL;
-    Metadata m;
-
-    ScheduledURL(String URL, Metadata m, Date nextFetchDate) {
-        this.nextFetchDate = nextFetchDate;
-        this.URL = URL;
-        this.m = m;
-    }
-
-    @Override
-    /** Sort by next fetch date then URl **/
-    public int compareTo(ScheduledURL o) {
-        // compare the URL
-        int compString = URL.compareTo(o.URL);
-        if (compString == 0)
-            return 0;
-
-        // compare the date
-        int comp = nextFetchDate.compareTo(o.nextFetchDate);
-        if (comp != 0)
-            return comp;
-
-        return compString;
-    }
-}
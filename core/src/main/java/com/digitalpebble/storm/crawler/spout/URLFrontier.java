@@ -0,0 +1,293 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.spout;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.digitalpebble.storm.crawler.Metadata;
+
+/**
+ * Compact store of the URLs to fetch, ordered by next fetch time. The URLs are
+ * encoded in UTF-8 into direct buffers outside of the Java heap; the heap only
+ * holds one long per URL, grouped by the second at which they are due, so that
+ * getting the next due URL takes constant time. Identical metadata are stored
+ * only once and referenced by an id. The URLs due within the same second are
+ * returned in the order in which they were added. The space used by the URLs is
+ * reclaimed one segment at a time, once all the URLs of a segment have been
+ * returned.
+ **/
+public class URLFrontier {
+
+    /** Size of the off-heap segments in which the URLs are written **/
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Granularity of the fetch times in msec **/
+    private static final long RESOLUTION = 1000L;
+
+    /** Length of the URL and id of the metadata **/
+    private static final int HEADER_SIZE = 8;
+
+    private final int segmentSize;
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+
+    /** number of URLs still referenced in each segment **/
+    private int[] live = new int[0];
+
+    private final LinkedList<Integer> freeSegments = new LinkedList<>();
+
+    private int writeSegment = -1;
+
+    /** URL addresses per second at which they are due **/
+    private final TreeMap<Long, LongQueue> buckets = new TreeMap<>();
+
+    private final MetadataTable metadata = new MetadataTable();
+
+    private int size = 0;
+
+    public URLFrontier() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    URLFrontier(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /** A URL and its metadata returned by {@link URLFrontier#poll(long)} **/
+    public static class Entry {
+        public final String url;
+        public final Metadata metadata;
+
+        Entry(String url, Metadata metadata) {
+            this.url = url;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Adds a URL to be returned when its fetch time is reached
+     * 
+     * @param nextFetch
+     *            time in msec since the epoch
+     **/
+    public synchronized void add(String url, Metadata md, long nextFetch) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_SIZE + bytes.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("URL too long : " + url);
+        }
+        ByteBuffer segment = segmentFor(recordSize);
+        long address = ((long) writeSegment << 32) | segment.position();
+        segment.putInt(bytes.length);
+        segment.putInt(metadata.intern(md));
+        segment.put(bytes);
+        live[writeSegment]++;
+
+        // rounded up so that URLs are never returned before they are due
+        Long second = (nextFetch + RESOLUTION - 1) / RESOLUTION;
+        LongQueue bucket = buckets.get(second);
+        if (bucket == null) {
+            bucket = new LongQueue();
+            buckets.put(second, bucket);
+        }
+        bucket.add(address);
+        size++;
+    }
+
+    /**
+     * Removes and returns the URL due the earliest if it is due at the given
+     * time, returns null otherwise
+     **/
+    public synchronized Entry poll(long now) {
+        Map.Entry<Long, LongQueue> first = buckets.firstEntry();
+        if (first == null || first.getKey() > now / RESOLUTION) {
+            return null;
+        }
+        LongQueue bucket = first.getValue();
+        long address = bucket.poll();
+        if (bucket.isEmpty()) {
+            buckets.remove(first.getKey());
+        }
+        size--;
+        return read(address);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Number of bytes allocated outside of the heap **/
+    public synchronized long offHeapBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    private Entry read(long address) {
+        int index = (int) (address >>> 32);
+        ByteBuffer segment = segments.get(index).duplicate();
+        segment.position((int) address);
+        byte[] bytes = new byte[segment.getInt()];
+        int id = segment.getInt();
+        segment.get(bytes);
+        Entry entry = new Entry(new String(bytes, StandardCharsets.UTF_8),
+                metadata.release(id));
+        if (--live[index] == 0 && index != writeSegment) {
+            segments.get(index).clear();
+            freeSegments.add(index);
+        }
+        return entry;
+    }
+
+    /** Returns a segment with room for the record and sets it for writing **/
+    private ByteBuffer segmentFor(int recordSize) {
+        if (writeSegment != -1) {
+            ByteBuffer current = segments.get(writeSegment);
+            if (current.remaining() >= recordSize) {
+                return current;
+            }
+            // the segment is full, it will be reused once all its URLs are
+            // gone
+            if (live[writeSegment] == 0) {
+                current.clear();
+                return current;
+            }
+        }
+        Integer free = freeSegments.poll();
+        if (free != null) {
+            writeSegment = free;
+            return segments.get(free);
+        }
+        segments.add(ByteBuffer.allocateDirect(segmentSize));
+        live = Arrays.copyOf(live, segments.size());
+        writeSegment = segments.size() - 1;
+        return segments.get(writeSegment);
+    }
+
+    /** Growable FIFO of primitive longs **/
+    private static class LongQueue {
+        private long[] values = new long[4];
+        private int head = 0;
+        private int tail = 0;
+
+        void add(long value) {
+            if (tail == values.length) {
+                // reclaim the space of the values already polled or grow
+                long[] target = head > values.length / 2 ? values
+                        : new long[values.length * 2];
+                System.arraycopy(values, head, target, 0, tail - head);
+                values = target;
+                tail -= head;
+                head = 0;
+            }
+            values[tail++] = value;
+        }
+
+        long poll() {
+            return values[head++];
+        }
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+    }
+
+    /**
+     * Stores each distinct set of metadata once and counts how many URLs
+     * reference it. The instances returned are copies as the bolts downstream
+     * can modify them.
+     **/
+    private static class MetadataTable {
+
+        /** id used for null **/
+        private static final int NULL = -1;
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<Metadata> values = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private int[] references = new int[0];
+        private final LinkedList<Integer> freeIds = new LinkedList<>();
+
+        int intern(Metadata md) {
+            if (md == null)
+                return NULL;
+            String key = canonicalKey(md);
+            Integer id = ids.get(key);
+            if (id == null) {
+                Metadata copy = new Metadata();
+                copy.putAll(md);
+                id = freeIds.poll();
+                if (id == null) {
+                    id = values.size();
+                    values.add(copy);
+                    keys.add(key);
+                    references = Arrays.copyOf(references, values.size());
+                } else {
+                    values.set(id, copy);
+                    keys.set(id, key);
+                }
+                ids.put(key, id);
+            }
+            references[id]++;
+            return id;
+        }
+
+        /** Returns a copy of the metadata and drops a reference to it **/
+        Metadata release(int id) {
+            if (id == NULL)
+                return null;
+            Metadata md = new Metadata();
+            md.putAll(values.get(id));
+            if (--references[id] == 0) {
+                ids.remove(keys.get(id));
+                values.set(id, null);
+                keys.set(id, null);
+                freeIds.add(id);
+            }
+            return md;
+        }
+
+        /** Unambiguous representation of the content of the metadata **/
+        private static String canonicalKey(Metadata md) {
+            String[] names = md.keySet().toArray(new String[md.size()]);
+            Arrays.sort(names);
+            StringBuilder sb = new StringBuilder();
+            for (String name : names) {
+                sb.append(name.length()).append(':').append(name);
+                String[] vals = md.getValues(name);
+                int count = vals == null ? 0 : vals.length;
+                sb.append(count).append(':');
+                for (int i = 0; i < count; i++) {
+                    String v = vals[i];
+                    if (v == null) {
+                        sb.append("-1:");
+                    } else {
+                        sb.append(v.length()).append(':').append(v);
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
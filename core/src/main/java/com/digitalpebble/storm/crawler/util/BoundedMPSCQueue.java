@@ -0,0 +1,135 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue for many producer threads and a single consumer thread, backed
+ * by a ring buffer. The producers claim a slot with a CAS and never take a
+ * lock, the consumer gets the elements in the order in which the slots were
+ * claimed together with the time at which they were added. A producer calling
+ * {@link #put(Object)} waits while the queue is full, which slows down the
+ * producers to the pace of the consumer.
+ **/
+public class BoundedMPSCQueue<E> {
+
+    /** Receives the elements drained from the queue **/
+    public interface Consumer<E> {
+        /**
+         * @param enqueued
+         *            value of System.nanoTime() when the element was added
+         **/
+        void accept(E element, long enqueued);
+    }
+
+    private final AtomicReferenceArray<E> slots;
+
+    /** written before the element is published in its slot **/
+    private final long[] stamps;
+
+    private final int mask;
+
+    private final int capacity;
+
+    /** next slot to be claimed by a producer **/
+    private final AtomicLong tail = new AtomicLong();
+
+    /** next slot to be read by the consumer **/
+    private volatile long head = 0;
+
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    /** the capacity is rounded up to a power of two **/
+    public BoundedMPSCQueue(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.stamps = new long[size];
+    }
+
+    /** Adds the element if there is room for it, returns false otherwise **/
+    public boolean offer(E element) {
+        if (element == null)
+            throw new NullPointerException();
+        while (true) {
+            long t = tail.get();
+            if (t - head >= capacity)
+                return false;
+            if (tail.compareAndSet(t, t + 1)) {
+                int index = (int) (t & mask);
+                stamps[index] = System.nanoTime();
+                // publishes the stamp as well
+                slots.lazySet(index, element);
+                return true;
+            }
+        }
+    }
+
+    /** Adds the element, waiting for room if the queue is full **/
+    public void put(E element) {
+        if (offer(element))
+            return;
+        long start = System.nanoTime();
+        while (!offer(element)) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Passes the elements to the consumer in order, until the queue is empty or
+     * an element claimed by a producer is not published yet. Must be called by
+     * a single thread. Returns the number of elements drained.
+     **/
+    public int drain(Consumer<? super E> consumer) {
+        int drained = 0;
+        long h = head;
+        while (true) {
+            int index = (int) (h & mask);
+            E element = slots.get(index);
+            if (element == null)
+                break;
+            long stamp = stamps[index];
+            slots.lazySet(index, null);
+            // frees the slot for the producers
+            head = ++h;
+            drained++;
+            consumer.accept(element, stamp);
+        }
+        return drained;
+    }
+
+    /** Number of elements in the queue, including the ones being added **/
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /** Total time the producers spent waiting for room **/
+    public long getBlockedNanos() {
+        return blockedNanos.get();
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Kryo serializer for the byte arrays i.e. the content of the pages in the
+ * tuples, registered by the ConfigurableTopology if tuple.content.compression
+ * is true. The arrays of at least {@link #COMPRESSION_THRESHOLD} bytes are
+ * deflated when they are sent to another worker, the tuples passed between
+ * bolts of the same worker are not serialized at all.
+ **/
+public class ContentSerializer extends Serializer<byte[]> {
+
+    public static final int COMPRESSION_THRESHOLD = 1024;
+
+    public ContentSerializer() {
+        setAcceptsNull(false);
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, byte[] bytes) {
+        if (bytes.length >= COMPRESSION_THRESHOLD) {
+            byte[] deflated = deflate(bytes);
+            // not worth it if it is already compressed e.g. images
+            if (deflated.length < bytes.length) {
+                output.writeInt(deflated.length << 1 | 1, true);
+                output.writeInt(bytes.length, true);
+                output.writeBytes(deflated);
+                return;
+            }
+        }
+        output.writeInt(bytes.length << 1, true);
+        output.writeBytes(bytes);
+    }
+
+    @Override
+    public byte[] read(Kryo kryo, Input input, Class<byte[]> type) {
+        int header = input.readInt(true);
+        if ((header & 1) == 0) {
+            return input.readBytes(header >>> 1);
+        }
+        int length = input.readInt(true);
+        byte[] deflated = input.readBytes(header >>> 1);
+        byte[] bytes = inflate(deflated, length);
+        if (bytes.length != length) {
+            throw new KryoException("Expected " + length + " bytes, got "
+                    + bytes.length);
+        }
+        return bytes;
+    }
+
+    static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    bytes.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int l = deflater.deflate(buffer);
+                out.write(buffer, 0, l);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param length
+     *            expected length of the inflated bytes or -1 if unknown
+     **/
+    static byte[] inflate(byte[] bytes, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            if (length >= 0) {
+                byte[] inflated = new byte[length];
+                int offset = 0;
+                while (offset < length && !inflater.finished()) {
+                    int l = inflater.inflate(inflated, offset, length - offset);
+                    if (l == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    offset += l;
+                }
+                if (offset == length)
+                    return inflated;
+                throw new KryoException("Truncated compressed content");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    bytes.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int l = inflater.inflate(buffer);
+                if (l == 0 && inflater.needsInput()) {
+                    throw new KryoException("Truncated compressed content");
+                }
+                out.write(buffer, 0, l);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new KryoException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.util;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * JVM-wide cache of the IP addresses of hostnames, shared by the components
+ * which partition the URLs by IP. The addresses are kept for dns.cache.ttl
+ * seconds and the failed resolutions for dns.cache.negative.ttl seconds. The
+ * hostnames which are not in the cache are resolved by a pool of
+ * dns.resolver.threads threads, concurrent requests for the same hostname
+ * sharing a single lookup, so that the callers do not have to block. The
+ * settings are per JVM and taken from the first component which asks for the
+ * cache.
+ **/
+public class DNSCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DNSCache.class);
+
+    private static DNSCache instance;
+
+    private static class Entry {
+        /** null if the hostname could not be resolved **/
+        final String address;
+        final long expires;
+
+        Entry(String address, long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+
+    private final Cache<String, Entry> cache;
+
+    private final long ttl;
+
+    private final long negativeTtl;
+
+    private final ExecutorService resolvers;
+
+    /** summary of the settings, to detect conflicting configurations **/
+    private final String settings;
+
+    private boolean metricRegistered = false;
+
+    private final ConcurrentMap<String, SettableFuture<Optional<String>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong resolutions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong resolutionTime = new AtomicLong();
+
+    /**
+     * Returns the instance shared within the JVM, the configuration is taken
+     * into account by the first call only
+     **/
+    public static synchronized DNSCache getInstance(Map stormConf) {
+        if (instance == null) {
+            instance = new DNSCache(stormConf);
+        } else if (!instance.settings.equals(getSettings(stormConf))) {
+            LOG.warn(
+                    "DNS cache already created for this JVM with {}, ignoring {}",
+                    instance.settings, getSettings(stormConf));
+        }
+        return instance;
+    }
+
+    private static String getSettings(Map stormConf) {
+        return "dns.cache.ttl="
+                + ConfUtils.getInt(stormConf, "dns.cache.ttl", 300)
+                + ", dns.cache.negative.ttl="
+                + ConfUtils.getInt(stormConf, "dns.cache.negative.ttl", 60)
+                + ", dns.cache.max.entries="
+                + ConfUtils.getInt(stormConf, "dns.cache.max.entries", 10000)
+                + ", dns.resolver.threads="
+                + ConfUtils.getInt(stormConf, "dns.resolver.threads", 4);
+    }
+
+    DNSCache(Map stormConf) {
+        ttl = ConfUtils.getInt(stormConf, "dns.cache.ttl", 300) * 1000L;
+        negativeTtl = ConfUtils.getInt(stormConf, "dns.cache.negative.ttl", 60) * 1000L;
+        int maxEntries = ConfUtils.getInt(stormConf, "dns.cache.max.entries",
+                10000);
+        int threads = ConfUtils.getInt(stormConf, "dns.resolver.threads", 4);
+        settings = getSettings(stormConf);
+
+        cache = CacheBuilder
+                .newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Math.max(ttl, negativeTtl),
+                        TimeUnit.MILLISECONDS).build();
+
+        resolvers = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("DNSCache-%d").build());
+    }
+
+    /**
+     * Returns the cached address for a hostname, Optional.absent() if it could
+     * not be resolved recently or null if it is not in the cache
+     **/
+    public Optional<String> getIfPresent(String host) {
+        Entry entry = cache.getIfPresent(host);
+        if (entry == null || entry.expires < System.currentTimeMillis()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return Optional.fromNullable(entry.address);
+    }
+
+    /**
+     * Returns a future which is set with the address of the hostname or with
+     * Optional.absent() if it can't be resolved. The future is already
+     * completed if the hostname is in the cache.
+     **/
+    public ListenableFuture<Optional<String>> resolveAsync(final String host) {
+        Optional<String> cached = getIfPresent(host);
+        if (cached != null) {
+            SettableFuture<Optional<String>> done = SettableFuture.create();
+            done.set(cached);
+            return done;
+        }
+        SettableFuture<Optional<String>> future = SettableFuture.create();
+        SettableFuture<Optional<String>> existing = inFlight.putIfAbsent(host,
+                future);
+        if (existing != null) {
+            return existing;
+        }
+        final SettableFuture<Optional<String>> result = future;
+        resolvers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(Optional.fromNullable(lookup(host)));
+                } finally {
+                    inFlight.remove(host, result);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the address of the hostname or null if it can't be resolved,
+     * blocks if the hostname is not in the cache
+     **/
+    public String resolve(String host) {
+        try {
+            return resolveAsync(host).get().orNull();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private String lookup(String host) {
+        long start = System.currentTimeMillis();
+        String address = null;
+        try {
+            address = InetAddress.getByName(host).getHostAddress();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            LOG.debug("Unable to resolve IP for: {}", host);
+        }
+        long end = System.currentTimeMillis();
+        resolutions.incrementAndGet();
+        resolutionTime.addAndGet(end - start);
+        LOG.debug("Resolved IP {} in {} msec for : {}", address, end - start,
+                host);
+        cache.put(host, new Entry(address, end
+                + (address != null ? ttl : negativeTtl)));
+        return address;
+    }
+
+    /**
+     * Registers the dns_cache metric for the first component of the JVM to call
+     * this method only, as the metric reports the activity of the whole cache.
+     **/
+    public synchronized void registerMetric(TopologyContext context,
+            int timeBucketSecs) {
+        if (metricRegistered) {
+            return;
+        }
+        context.registerMetric("dns_cache", getMetric(), timeBucketSecs);
+        metricRegistered = true;
+    }
+
+    /**
+     * Returns a metric reporting the hit ratio and the resolution times since
+     * the previous call
+     **/
+    IMetric getMetric() {
+        return new IMetric() {
+            private long lastHits, lastMisses, lastResolutions, lastFailures,
+                    lastTime;
+
+            @Override
+            public synchronized Object getValueAndReset() {
+                long h = hits.get(), m = misses.get(), r = resolutions.get(), f = failures
+                        .get(), t = resolutionTime.get();
+                long dh = h - lastHits, dm = m - lastMisses, dr = r
+                        - lastResolutions;
+                Map<String, Object> values = new HashMap<>();
+                values.put("hits", dh);
+                values.put("misses", dm);
+                values.put("hit_ratio", dh + dm == 0 ? 0d : (double) dh
+                        / (dh + dm));
+                values.put("resolutions", dr);
+                values.put("failures", f - lastFailures);
+                values.put("resolution_msec", dr == 0 ? 0d
+                        : (double) (t - lastTime) / dr);
+                values.put("size", cache.size());
+                lastHits = h;
+                lastMisses = m;
+                lastResolutions = r;
+                lastFailures = f;
+                lastTime = t;
+                return values;
+            }
+        };
+    }
+}
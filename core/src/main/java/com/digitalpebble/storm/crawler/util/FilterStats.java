@@ -0,0 +1,179 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Number of calls, time spent and custom counts of each filter of a chain,
+ * reported as a Storm metric so that the filters can be ordered based on their
+ * cost and selectivity. The counters are striped by thread to limit the
+ * contention when a chain is used by several threads, and only one call out of
+ * <i>sampling</i> is timed with System.nanoTime(), the total time being
+ * extrapolated from the sampled calls.
+ **/
+public class FilterStats {
+
+    /** Value returned by {@link #start(int)} when a call is not timed **/
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final int CALLS = 0;
+    private static final int SAMPLES = 1;
+    private static final int NANOS = 2;
+
+    private static final int STRIPES = 8;
+
+    /** longs between two stripes so that they are on different cache lines **/
+    private static final int PADDING = 8;
+
+    private final String[] filterNames;
+
+    private final String[] counterNames;
+
+    private final int fields;
+
+    private final int stripeSize;
+
+    private final int sampling;
+
+    private final AtomicLongArray counters;
+
+    /**
+     * @param sampling
+     *            one call out of that number is timed, 0 to disable the timing
+     * @param counterNames
+     *            names of the counters specific to the filters
+     **/
+    public FilterStats(String[] filterNames, int sampling,
+            String... counterNames) {
+        this.filterNames = filterNames;
+        this.counterNames = counterNames;
+        this.sampling = sampling;
+        this.fields = 3 + counterNames.length;
+        this.stripeSize = filterNames.length * fields + PADDING;
+        this.counters = new AtomicLongArray(STRIPES * stripeSize);
+    }
+
+    /**
+     * Counts a call to a filter, returns the value of System.nanoTime() if the
+     * call is timed or NOT_TIMED
+     **/
+    public long start(int filter) {
+        long calls = counters.incrementAndGet(offset(filter) + CALLS);
+        if (sampling > 0 && calls % sampling == 0) {
+            return System.nanoTime();
+        }
+        return NOT_TIMED;
+    }
+
+    /** Ends a call started with {@link #start(int)} **/
+    public void end(int filter, long start) {
+        if (start == NOT_TIMED) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        int offset = offset(filter);
+        counters.incrementAndGet(offset + SAMPLES);
+        counters.addAndGet(offset + NANOS, elapsed);
+    }
+
+    /** Increments a counter given by its index in the counter names **/
+    public void increment(int filter, int counter) {
+        counters.incrementAndGet(offset(filter) + 3 + counter);
+    }
+
+    /**
+     * Returns the names as an array, the duplicates being suffixed with their
+     * position in the list so that the filters have distinct keys in the metric
+     **/
+    public static String[] uniqueNames(List<String> names) {
+        String[] unique = new String[names.size()];
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < unique.length; i++) {
+            String name = names.get(i);
+            if (!seen.add(name)) {
+                name = name + "_" + i;
+                seen.add(name);
+            }
+            unique[i] = name;
+        }
+        return unique;
+    }
+
+    private int offset(int filter) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        return stripe * stripeSize + filter * fields;
+    }
+
+    private long[] sum() {
+        long[] totals = new long[filterNames.length * fields];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += counters.get(stripe * stripeSize + i);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Returns a metric reporting for each filter the number of calls, the
+     * estimated time spent in msec and the counters since the previous call.
+     **/
+    public IMetric getMetric() {
+        return new IMetric() {
+            private long[] last = new long[filterNames.length * fields];
+
+            @Override
+            public synchronized Object getValueAndReset() {
+                long[] totals = sum();
+                Map<String, Object> values = new HashMap<>();
+                for (int f = 0; f < filterNames.length; f++) {
+                    int base = f * fields;
+                    String name = filterNames[f];
+                    long calls = totals[base + CALLS] - last[base + CALLS];
+                    long samples = totals[base + SAMPLES]
+                            - last[base + SAMPLES];
+                    long nanos = totals[base + NANOS] - last[base + NANOS];
+                    values.put(name + ".calls", calls);
+                    if (samples > 0) {
+                        // extrapolated from the sampled calls
+                        double estimated = (double) nanos * calls / samples;
+                        values.put(name + ".time_msec", estimated
+                                / TimeUnit.MILLISECONDS.toNanos(1));
+                    } else {
+                        values.put(name + ".time_msec", 0d);
+                    }
+                    for (int c = 0; c < counterNames.length; c++) {
+                        values.put(name + "." + counterNames[c], totals[base
+                                + 3 + c]
+                                - last[base + 3 + c]);
+                    }
+                }
+                last = totals;
+                return values;
+            }
+        };
+    }
+}
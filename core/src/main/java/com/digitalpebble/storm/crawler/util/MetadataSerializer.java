@@ -0,0 +1,158 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.storm.crawler.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Kryo serializer for the Metadata, registered by the ConfigurableTopology.
+ * Unlike the reflection based FieldSerializer, it writes the lengths as varints
+ * and replaces the most common keys with a small number from a fixed
+ * dictionary. Values longer than {@link #COMPRESSION_THRESHOLD} characters are
+ * deflated. The dictionary must be the same on all the workers, keys can only
+ * be appended to it.
+ **/
+public class MetadataSerializer extends Serializer<Metadata> {
+
+    /** Values at least this long are compressed **/
+    public static final int COMPRESSION_THRESHOLD = 1024;
+
+    private static final String[] DICTIONARY = { "url.path", "depth",
+            "fetch.statusCode", "fetch.loadingTime", "fetch.exception",
+            "error.cause", "_redirTo", "isSitemap", "ip", "http.trimmed",
+            "http.length.wire", "http.length.decoded",
+            "parse.Content-Encoding", "cachedLastModified", "cachedEtag",
+            "content-type", "content-length", "content-encoding",
+            "content-language", "date", "server", "last-modified", "etag",
+            "expires", "cache-control", "connection", "keep-alive", "vary",
+            "set-cookie", "location", "accept-ranges", "transfer-encoding",
+            "x-powered-by", "age", "pragma", "via", "x-robots-tag", "link",
+            "p3p", "x-cache", "x-frame-options", "x-xss-protection",
+            "x-content-type-options", "strict-transport-security",
+            "access-control-allow-origin" };
+
+    private static final Map<String, Integer> CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.length; i++) {
+            CODES.put(DICTIONARY[i], i + 1);
+        }
+    }
+
+    /** Markers of the values of a key containing compressed ones **/
+    private static final byte NULL = 0;
+    private static final byte PLAIN = 1;
+    private static final byte DEFLATED = 2;
+
+    @Override
+    public void write(Kryo kryo, Output output, Metadata md) {
+        // keys without values are not kept by read()
+        int size = 0;
+        for (String key : md.keySet()) {
+            if (md.getValues(key) != null)
+                size++;
+        }
+        output.writeInt(size, true);
+        for (String key : md.keySet()) {
+            String[] values = md.getValues(key);
+            if (values == null)
+                continue;
+            Integer code = CODES.get(key);
+            if (code != null) {
+                output.writeInt(code, true);
+            } else {
+                output.writeInt(0, true);
+                output.writeString(key);
+            }
+            boolean compressed = false;
+            for (String value : values) {
+                if (value != null && value.length() >= COMPRESSION_THRESHOLD) {
+                    compressed = true;
+                    break;
+                }
+            }
+            // the lowest bit indicates whether the values have markers
+            output.writeInt(values.length << 1 | (compressed ? 1 : 0), true);
+            for (String value : values) {
+                if (!compressed) {
+                    output.writeString(value);
+                } else if (value == null) {
+                    output.writeByte(NULL);
+                } else if (value.length() < COMPRESSION_THRESHOLD) {
+                    output.writeByte(PLAIN);
+                    output.writeString(value);
+                } else {
+                    output.writeByte(DEFLATED);
+                    byte[] bytes = ContentSerializer.deflate(value
+                            .getBytes(StandardCharsets.UTF_8));
+                    output.writeInt(bytes.length, true);
+                    output.writeBytes(bytes);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Metadata read(Kryo kryo, Input input, Class<Metadata> type) {
+        Metadata md = new Metadata();
+        int size = input.readInt(true);
+        for (int i = 0; i < size; i++) {
+            int code = input.readInt(true);
+            String key;
+            if (code == 0) {
+                key = input.readString();
+            } else if (code <= DICTIONARY.length) {
+                key = DICTIONARY[code - 1];
+            } else {
+                throw new KryoException("Unknown metadata key code " + code);
+            }
+            int header = input.readInt(true);
+            boolean compressed = (header & 1) == 1;
+            String[] values = new String[header >>> 1];
+            for (int j = 0; j < values.length; j++) {
+                if (!compressed) {
+                    values[j] = input.readString();
+                    continue;
+                }
+                byte marker = input.readByte();
+                if (marker == PLAIN) {
+                    values[j] = input.readString();
+                } else if (marker == DEFLATED) {
+                    byte[] bytes = input.readBytes(input.readInt(true));
+                    values[j] = new String(
+                            ContentSerializer.inflate(bytes, -1),
+                            StandardCharsets.UTF_8);
+                } else if (marker != NULL) {
+                    throw new KryoException("Unknown marker " + marker
+                            + " for the values of " + key);
+                }
+            }
+            md.setValues(key, values);
+        }
+        return md;
+    }
+}
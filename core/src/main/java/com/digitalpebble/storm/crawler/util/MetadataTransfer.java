@@ -68,6 +68,9 @@ public class MetadataTransfer {
 
     private boolean trackDepth = true;
 
+    /** all the keys kept by {@link #filter(Metadata)} **/
+    private String[] keysToKeep;
+
     public static MetadataTransfer getInstance(Map<String, Object> conf) {
         String className = ConfUtils.getString(conf,
                 metadataTransferClassParamName);
@@ -109,16 +112,35 @@ public class MetadataTransfer {
         trackDepth = ConfUtils.getBoolean(conf, trackDepthParamName, true);
 
         Object obj = conf.get(metadataTransferParamName);
-        if (obj == null)
-            return;
-
         if (obj instanceof PersistentVector) {
             mdToKeep.addAll((PersistentVector) obj);
         }
         // single value?
-        else {
+        else if (obj != null) {
             mdToKeep.add(obj.toString());
         }
+        keysToKeep = null;
+    }
+
+    private String[] getKeysToKeep() {
+        if (keysToKeep != null)
+            return keysToKeep;
+
+        List<String> metadataToKeep = new ArrayList<>(mdToKeep.size() + 2);
+        metadataToKeep.addAll(mdToKeep);
+
+        // keep the path but don't add anything to it
+        if (trackPath) {
+            metadataToKeep.add(urlPathKeyName);
+        }
+
+        // keep the depth but don't add anything to it
+        if (trackDepth) {
+            metadataToKeep.add(depthKeyName);
+        }
+
+        keysToKeep = metadataToKeep.toArray(new String[metadataToKeep.size()]);
+        return keysToKeep;
     }
 
     /**
@@ -155,21 +177,8 @@ public class MetadataTransfer {
     public Metadata filter(Metadata metadata) {
         Metadata md = new Metadata();
 
-        List<String> metadataToKeep = new ArrayList<>(mdToKeep.size());
-        metadataToKeep.addAll(mdToKeep);
-
-        // keep the path but don't add anything to it
-        if (trackPath) {
-            metadataToKeep.add(urlPathKeyName);
-        }
-
-        // keep the depth but don't add anything to it
-        if (trackDepth) {
-            metadataToKeep.add(depthKeyName);
-        }
-
         // what to keep from parentMD?
-        for (String key : metadataToKeep) {
+        for (String key : getKeysToKeep()) {
             String[] vals = metadata.getValues(key);
             if (vals != null)
                 md.setValues(key, vals);
@@ -0,0 +1,143 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import crawlercommons.url.PaidLevelDomain;
+
+/**
+ * JVM-wide cache of the paid level domains of hostnames, shared by the
+ * components which partition or queue the URLs by domain and by the URL filters
+ * comparing domains. The domains are computed with
+ * {@link PaidLevelDomain#getPLD(String)} and at most pld.cache.max.entries of
+ * them are kept, the least recently used being evicted first.
+ **/
+public class PLDCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PLDCache.class);
+
+    private static volatile PLDCache instance;
+
+    private final Cache<String, String> cache;
+
+    private final int maxEntries;
+
+    private boolean metricRegistered = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the instance shared within the JVM, the configuration is taken
+     * into account by the first call only
+     **/
+    public static synchronized PLDCache getInstance(Map stormConf) {
+        int maxEntries = ConfUtils.getInt(stormConf, "pld.cache.max.entries",
+                100000);
+        if (instance == null) {
+            instance = new PLDCache(maxEntries);
+        } else if (instance.maxEntries != maxEntries) {
+            LOG.warn(
+                    "PLD cache already created for this JVM with pld.cache.max.entries {}, ignoring {}",
+                    instance.maxEntries, maxEntries);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the instance shared within the JVM, with the default
+     * configuration if no component has created it yet
+     **/
+    public static PLDCache getInstance() {
+        // called for every URL, without locking once created
+        PLDCache cache = instance;
+        if (cache != null) {
+            return cache;
+        }
+        return getInstance(new HashMap<String, Object>());
+    }
+
+    PLDCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        cache = CacheBuilder.newBuilder().maximumSize(maxEntries)
+                .concurrencyLevel(8).build();
+    }
+
+    /** Returns the paid level domain of a hostname **/
+    public String getPLD(String host) {
+        String pld = cache.getIfPresent(host);
+        if (pld != null) {
+            hits.incrementAndGet();
+            return pld;
+        }
+        misses.incrementAndGet();
+        pld = PaidLevelDomain.getPLD(host);
+        if (pld != null) {
+            cache.put(host, pld);
+        }
+        return pld;
+    }
+
+    /**
+     * Registers the pld_cache metric for the first component of the JVM to call
+     * this method only. The metric reports the activity of the whole cache, if
+     * every component registered it a sum across components would count the
+     * same hits several times.
+     **/
+    public synchronized void registerMetric(TopologyContext context,
+            int timeBucketSecs) {
+        if (metricRegistered) {
+            return;
+        }
+        context.registerMetric("pld_cache", getMetric(), timeBucketSecs);
+        metricRegistered = true;
+    }
+
+    /** Returns a metric reporting the hit ratio since the previous call **/
+    IMetric getMetric() {
+        return new IMetric() {
+            private long lastHits, lastMisses;
+
+            @Override
+            public synchronized Object getValueAndReset() {
+                long h = hits.get(), m = misses.get();
+                long dh = h - lastHits, dm = m - lastMisses;
+                Map<String, Object> values = new HashMap<>();
+                values.put("hits", dh);
+                values.put("misses", dm);
+                values.put("hit_ratio", dh + dm == 0 ? 0d : (double) dh
+                        / (dh + dm));
+                values.put("size", cache.size());
+                lastHits = h;
+                lastMisses = m;
+                return values;
+            }
+        };
+    }
+}
@@ -17,7 +17,6 @@
 
 package com.digitalpebble.storm.crawler.util;
 
-import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
@@ -29,8 +28,6 @@ import org.slf4j.LoggerFactory;
 import com.digitalpebble.storm.crawler.Constants;
 import com.digitalpebble.storm.crawler.Metadata;
 
-import crawlercommons.url.PaidLevelDomain;
-
 /**
  * Generates a partition key for a given URL based on the hostname, domain or IP
  * address. This can be called by the URLPartitionerBolt or any other component.
@@ -42,6 +39,10 @@ public class URLPartitioner {
 
     private String mode = Constants.PARTITION_MODE_HOST;
 
+    private DNSCache dnsCache;
+
+    private PLDCache pldCache;
+
     /**
      * Returns the host, domain, IP of a URL so that it can be partitioned for
      * politeness
@@ -76,20 +77,15 @@ public class URLPartitioner {
 
         // partition by domain : needs fixing
         else if (mode.equalsIgnoreCase(Constants.PARTITION_MODE_DOMAIN)) {
-            partitionKey = PaidLevelDomain.getPLD(host);
+            partitionKey = pldCache.getPLD(host);
         }
 
         // partition by IP
         if (mode.equalsIgnoreCase(Constants.PARTITION_MODE_IP)
                 && partitionKey == null) {
-            try {
-                long start = System.currentTimeMillis();
-                final InetAddress addr = InetAddress.getByName(host);
-                partitionKey = addr.getHostAddress();
-                long end = System.currentTimeMillis();
-                LOG.debug("Resolved IP {} in {} msec for : {}", partitionKey,
-                        end - start, url);
-            } catch (final Exception e) {
+            // only blocks if the host is not in the cache
+            partitionKey = dnsCache.resolve(host);
+            if (partitionKey == null) {
                 LOG.warn("Unable to resolve IP for: {}", host);
                 return null;
             }
@@ -115,6 +111,12 @@ public class URLPartitioner {
         }
 
         LOG.info("Using partition mode : {}", mode);
+
+        if (mode.equals(Constants.PARTITION_MODE_IP)) {
+            dnsCache = DNSCache.getInstance(stormConf);
+        } else if (mode.equals(Constants.PARTITION_MODE_DOMAIN)) {
+            pldCache = PLDCache.getInstance(stormConf);
+        }
     }
 
 }
@@ -0,0 +1,146 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+
+import com.digitalpebble.storm.crawler.bolt.JSoupParserBolt;
+import com.digitalpebble.storm.crawler.util.MetadataTransfer;
+
+/**
+ * Measures the time and the bytes allocated per operation when generating the
+ * metadata of outlinks, either directly with the MetadataTransfer or by parsing
+ * a page with the JSoupParserBolt. Not a unit test, run it with
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.digitalpebble.storm.crawler.MetadataBenchmark
+ * </pre>
+ **/
+public class MetadataBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static void measure(String name, int warmup, int iterations,
+            Operation op) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            op.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long bytes = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long time = System.nanoTime() - start;
+        bytes = THREADS.getThreadAllocatedBytes(threadId) - bytes;
+        System.out.printf("%-20s %10.1f ns/op %10d bytes/op%n", name,
+                (double) time / iterations, bytes / iterations);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Object> conf = new HashMap<>();
+        final MetadataTransfer transfer = MetadataTransfer.getInstance(conf);
+
+        final Metadata parent = new Metadata();
+        parent.setValue("depth", "2");
+        parent.addValue("url.path", "http://www.example.com/");
+        parent.addValue("url.path", "http://www.example.com/a/");
+        parent.setValue("fetch.statusCode", "200");
+        parent.setValue("content-type", "text/html");
+
+        measure("getMetaForOutlink", 1000000, 5000000, new Operation() {
+            @Override
+            public void run() {
+                transfer.getMetaForOutlink("http://www.example.com/b/",
+                        "http://www.example.com/a/b", parent);
+            }
+        });
+
+        final JSoupParserBolt bolt = new JSoupParserBolt();
+        bolt.prepare(conf, TestUtil.getMockedTopologyContext(),
+                new OutputCollector(new DiscardingCollector()));
+        // don't record the invocations
+        final Tuple tuple = mock(Tuple.class, withSettings().stubOnly());
+        when(tuple.getBinaryByField("content")).thenReturn(
+                readContent("digitalpebble.com.html"));
+        when(tuple.getStringByField("url")).thenReturn(
+                "http://www.digitalpebble.com");
+        when(tuple.getValueByField("metadata")).thenReturn(parent);
+
+        measure("JSoupParserBolt", 2000, 10000, new Operation() {
+            @Override
+            public void run() {
+                bolt.execute(tuple);
+            }
+        });
+    }
+
+    /** Does not keep the tuples so that they can be garbage collected **/
+    private static class DiscardingCollector implements IOutputCollector {
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors,
+                List<Object> tuple) {
+            return null;
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId,
+                Collection<Tuple> anchors, List<Object> tuple) {
+        }
+
+        @Override
+        public void ack(Tuple input) {
+        }
+
+        @Override
+        public void fail(Tuple input) {
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+        }
+    }
+
+    private static byte[] readContent(String filename) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IOUtils.copy(MetadataBenchmark.class.getClassLoader()
+                .getResourceAsStream(filename), baos);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.serialization.KryoValuesDeserializer;
+import backtype.storm.serialization.KryoValuesSerializer;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+
+import com.digitalpebble.storm.crawler.util.MetadataSerializer;
+
+/**
+ * Compares the size and the time of serializing a [url, metadata] tuple with
+ * the FieldSerializer and with the {@link MetadataSerializer}, using the
+ * metadata of {@link TestMetadataSerialization}. Not a unit test, run it with
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.digitalpebble.storm.crawler.MetadataSerializationBenchmark
+ * </pre>
+ **/
+public class MetadataSerializationBenchmark {
+
+    private static void measure(String name, Map conf, List<Object> tuple,
+            int iterations) throws IOException {
+        KryoValuesSerializer kvs = new KryoValuesSerializer(conf);
+        KryoValuesDeserializer kvd = new KryoValuesDeserializer(conf);
+        int size = kvs.serialize(tuple).length;
+        for (int i = 0; i < iterations; i++) {
+            kvd.deserialize(kvs.serialize(tuple));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            kvs.serialize(tuple);
+        }
+        long serialization = System.nanoTime() - start;
+        byte[] bytes = kvs.serialize(tuple);
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            kvd.deserialize(bytes);
+        }
+        long deserialization = System.nanoTime() - start;
+        System.out.printf(
+                "%-20s %6d bytes/tuple %8.1f ns write %8.1f ns read%n", name,
+                size, (double) serialization / iterations,
+                (double) deserialization / iterations);
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Object> tuple = new Values("http://www.digitalpebble.com/",
+                TestMetadataSerialization.getSample());
+        int iterations = 1000000;
+
+        Map fields = Utils.readDefaultConfig();
+        Config.registerSerialization(fields, Metadata.class);
+        measure("FieldSerializer", fields, tuple, iterations);
+
+        Map custom = Utils.readDefaultConfig();
+        Config.registerSerialization(custom, Metadata.class,
+                MetadataSerializer.class);
+        measure("MetadataSerializer", custom, tuple, iterations);
+    }
+}
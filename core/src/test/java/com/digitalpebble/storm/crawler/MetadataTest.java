@@ -0,0 +1,69 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetadataTest {
+
+    @Test
+    public void testValues() {
+        Metadata md = new Metadata();
+        md.setValue("a", "1");
+        md.addValue("a", "2");
+        md.addValues("b", Arrays.asList("3", "4"));
+        md.setValue("c", "5");
+        Assert.assertEquals(3, md.size());
+        Assert.assertArrayEquals(new String[] { "1", "2" }, md.getValues("a"));
+        Assert.assertEquals("3", md.getFirstValue(new String("b")));
+
+        md.remove("a");
+        Assert.assertNull(md.getValues("a"));
+        Assert.assertEquals(2, md.size());
+        Assert.assertArrayEquals(new String[] { "b", "c" }, md.keySet()
+                .toArray());
+    }
+
+    @Test
+    public void testPutAllCopies() {
+        Metadata parent = new Metadata();
+        parent.setValue("a", "1");
+
+        Metadata child = new Metadata();
+        child.putAll(parent);
+        child.addValue("a", "2");
+        child.setValue("b", "3");
+
+        Metadata other = new Metadata();
+        other.putAll(parent);
+        parent.remove("a");
+
+        Assert.assertNull(parent.getValues("a"));
+        Assert.assertArrayEquals(new String[] { "1", "2" },
+                child.getValues("a"));
+        Assert.assertArrayEquals(new String[] { "1" }, other.getValues("a"));
+        Assert.assertNull(other.getValues("b"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testEmpty() {
+        Metadata.empty.setValue("a", "1");
+    }
+}
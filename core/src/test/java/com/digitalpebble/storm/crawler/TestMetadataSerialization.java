@@ -17,8 +17,12 @@
 package com.digitalpebble.storm.crawler;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
 import org.junit.Test;
 
 import backtype.storm.Config;
@@ -26,8 +30,48 @@ import backtype.storm.serialization.KryoValuesDeserializer;
 import backtype.storm.serialization.KryoValuesSerializer;
 import backtype.storm.utils.Utils;
 
+import com.digitalpebble.storm.crawler.util.MetadataSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
 public class TestMetadataSerialization {
 
+    /** Metadata as they are after a page has been fetched **/
+    static Metadata getSample() {
+        Metadata md = new Metadata();
+        md.addValue("url.path", "http://www.digitalpebble.com/");
+        md.setValue("depth", "1");
+        md.setValue("fetch.statusCode", "200");
+        md.setValue("content-type", "text/html; charset=UTF-8");
+        md.setValue("date", "Thu, 15 Oct 2026 10:21:03 GMT");
+        md.setValue("server", "Apache");
+        md.setValue("last-modified", "Mon, 12 Oct 2026 08:01:54 GMT");
+        md.setValue("etag", "\"1f3a-5c2b1a7e\"");
+        md.addValue("set-cookie", "a=1; Path=/");
+        md.addValue("set-cookie", "b=2; Path=/");
+        md.setValue("custom.key", "é \u00e8 value");
+        return md;
+    }
+
+    private static void assertSame(Metadata expected, Metadata actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (String key : expected.keySet()) {
+            Assert.assertTrue(
+                    key,
+                    Arrays.equals(expected.getValues(key),
+                            actual.getValues(key)));
+        }
+    }
+
+    private Metadata roundTrip(Map conf, Metadata md) throws IOException {
+        KryoValuesSerializer kvs = new KryoValuesSerializer(conf);
+        byte[] content = kvs.serializeObject(md);
+        KryoValuesDeserializer kvd = new KryoValuesDeserializer(conf);
+        return (Metadata) kvd.deserializeObject(content);
+    }
+
     @Test
     public void testSerialization() throws IOException {
         Map conf = Utils.readDefaultConfig();
@@ -40,6 +84,55 @@ public class TestMetadataSerialization {
         KryoValuesDeserializer kvd = new KryoValuesDeserializer(conf);
         Metadata md2 = (Metadata) kvd.deserializeObject(content);
 
-        // TODO compare md1 and md2
+        assertSame(md, md2);
+        assertSame(getSample(), roundTrip(conf, getSample()));
+    }
+
+    @Test
+    public void testMetadataSerializer() throws IOException {
+        Map conf = Utils.readDefaultConfig();
+        Config.registerSerialization(conf, Metadata.class,
+                MetadataSerializer.class);
+
+        assertSame(new Metadata(), roundTrip(conf, new Metadata()));
+        assertSame(getSample(), roundTrip(conf, getSample()));
+
+        // large values are compressed, null ones are kept
+        Metadata md = getSample();
+        String large = StringUtils.repeat("large value ", 1000);
+        md.setValues("large", new String[] { "small", large, null });
+        Metadata md2 = roundTrip(conf, md);
+        assertSame(md, md2);
+        Assert.assertEquals(large, md2.getValues("large")[1]);
+        Assert.assertNull(md2.getValues("large")[2]);
+    }
+
+    @Test
+    public void testKeyWithoutValues() throws IOException {
+        Map conf = Utils.readDefaultConfig();
+        Config.registerSerialization(conf, Metadata.class,
+                MetadataSerializer.class);
+
+        Map<String, String[]> map = new HashMap<>();
+        map.put("empty", new String[0]);
+        map.put("depth", new String[] { "1" });
+        Metadata md2 = roundTrip(conf, new Metadata(map));
+        Assert.assertEquals(1, md2.size());
+        Assert.assertArrayEquals(new String[] { "1" }, md2.getValues("depth"));
+    }
+
+    @Test(expected = KryoException.class)
+    public void testUnknownMarker() {
+        Output output = new Output(64);
+        output.writeInt(1, true);
+        // key not in the dictionary
+        output.writeInt(0, true);
+        output.writeString("key");
+        // one value with markers
+        output.writeInt(1 << 1 | 1, true);
+        output.writeByte(7);
+        output.writeString("value");
+        new MetadataSerializer().read(new Kryo(), new Input(output.toBytes()),
+                Metadata.class);
     }
 }
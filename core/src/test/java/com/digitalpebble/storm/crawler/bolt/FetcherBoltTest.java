@@ -17,13 +17,236 @@
 
 package com.digitalpebble.storm.crawler.bolt;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import backtype.storm.Constants;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import com.digitalpebble.storm.crawler.TestOutputCollector;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
 
 public class FetcherBoltTest extends AbstractFetcherBoltTest {
 
+    private final static int port = 8089;
+
+    // keep the same server for all the tests so that the connections
+    // pooled by the protocol implementations remain valid
+    @ClassRule
+    public static WireMockClassRule wireMockRule = new WireMockClassRule(port);
+
+    @Rule
+    public WireMockClassRule instanceRule = wireMockRule;
+
     @Before
     public void setUpContext() throws Exception {
         bolt = new FetcherBolt();
     }
 
+    @Test
+    public void testMultipleQueues() throws InterruptedException {
+        Map config = new HashMap();
+        config.put("http.agent.name", "this is only a test");
+        config.put("fetcher.server.delay", 0.1f);
+        Map<String, Integer> gauges = fetchFromMultipleQueues(config, 500);
+        // one queue per hostname
+        Assert.assertEquals(Integer.valueOf(2), gauges.get("num_queues"));
+    }
+
+    @Test
+    public void testAsyncMode() throws InterruptedException {
+        Map config = new HashMap();
+        config.put("http.agent.name", "this is only a test");
+        config.put("fetcher.server.delay", 0.1f);
+        config.put("fetcher.threads.number", 1);
+        config.put("fetcher.async", true);
+        config.put("http.protocol.implementation",
+                "com.digitalpebble.storm.crawler.protocol.httpclient.AsyncHttpProtocol");
+        Map<String, Integer> gauges = fetchFromMultipleQueues(config, 500);
+        // the single thread does not wait for the responses, both queues
+        // have a request in flight at the same time
+        Assert.assertEquals(Integer.valueOf(2), gauges.get("inflight"));
+    }
+
+    @Test
+    public void testPipelining() throws InterruptedException {
+        Map config = new HashMap();
+        config.put("http.agent.name", "this is only a test");
+        config.put("fetcher.server.min.delay", 0f);
+        config.put("fetcher.threads.number", 1);
+        config.put("fetcher.threads.per.queue", 2);
+        config.put("fetcher.async", true);
+        config.put("http.protocol.implementation",
+                "com.digitalpebble.storm.crawler.protocol.httpclient.PipeliningHttpProtocol");
+        fetchFromMultipleQueues(config);
+    }
+
+    @Test
+    public void testQueueByIP() throws Exception {
+        Map config = new HashMap();
+        config.put("http.agent.name", "this is only a test");
+        config.put("fetcher.server.delay", 0.1f);
+        config.put("fetcher.queue.mode", "byIP");
+        Map<String, Integer> gauges = fetchFromMultipleQueues(config, 500);
+
+        // one queue per address instead of one per hostname
+        Set<String> addresses = new HashSet<>();
+        addresses.add(InetAddress.getByName("localhost").getHostAddress());
+        addresses.add(InetAddress.getByName("127.0.0.1").getHostAddress());
+        Assert.assertEquals(Integer.valueOf(addresses.size()),
+                gauges.get("num_queues"));
+    }
+
+    @Test
+    public void testVirtualThreads() throws InterruptedException {
+        boolean supported;
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            supported = true;
+        } catch (NoSuchMethodException e) {
+            supported = false;
+        }
+        Assume.assumeTrue("Virtual threads are not supported by this JVM",
+                supported);
+
+        Map config = new HashMap();
+        config.put("http.agent.name", "this is only a test");
+        config.put("fetcher.server.delay", 0.1f);
+        config.put("fetcher.threads.number", 1);
+        config.put("fetcher.virtual.threads", true);
+        Map<String, Integer> gauges = fetchFromMultipleQueues(config, 500);
+
+        // the items were handed to the virtual threads and not to the
+        // single FetcherThread
+        Assert.assertEquals(Integer.valueOf(4), gauges.get("threads_started"));
+        // one thread per item fetches both queues at the same time
+        Assert.assertEquals(Integer.valueOf(2), gauges.get("activethreads"));
+    }
+
+    /** Gauges of the bolt sampled while fetching **/
+    private static final String[] GAUGES = { "activethreads", "num_queues",
+            "inflight" };
+
+    private Map<String, Integer> fetchFromMultipleQueues(Map config)
+            throws InterruptedException {
+        return fetchFromMultipleQueues(config, 0);
+    }
+
+    /**
+     * Fetches 4 URLs from 2 hosts, the server taking delay msec to respond, and
+     * returns the highest values of the gauges seen in the meantime as well as
+     * the number of threads_started by the virtual thread dispatcher
+     **/
+    private Map<String, Integer> fetchFromMultipleQueues(Map config, int delay)
+            throws InterruptedException {
+
+        stubFor(get(urlMatching(".+")).willReturn(
+                aResponse().withStatus(200).withBody("some content")
+                        .withFixedDelay(delay)));
+
+        TestOutputCollector output = new TestOutputCollector();
+
+        final Map<String, IMetric> metrics = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.registerMetric(anyString(), any(IMetric.class), anyInt()))
+                .thenAnswer(new Answer<IMetric>() {
+                    @Override
+                    public IMetric answer(InvocationOnMock invocation) {
+                        IMetric metric = invocation.getArgumentAt(1,
+                                IMetric.class);
+                        metrics.put(invocation.getArgumentAt(0, String.class),
+                                metric);
+                        return metric;
+                    }
+                });
+
+        bolt.prepare(config, context, new OutputCollector(output));
+
+        // two hosts pointing to the same server -> two queues
+        String[] urls = new String[] { "http://localhost:" + port + "/a",
+                "http://localhost:" + port + "/b",
+                "http://127.0.0.1:" + port + "/c",
+                "http://127.0.0.1:" + port + "/d" };
+
+        List<Tuple> tuples = new ArrayList<>();
+        for (String url : urls) {
+            Tuple tuple = mock(Tuple.class);
+            when(tuple.getSourceComponent()).thenReturn("source");
+            when(tuple.getStringByField("url")).thenReturn(url);
+            when(tuple.getValueByField("metadata")).thenReturn(null);
+            tuples.add(tuple);
+            bolt.execute(tuple);
+        }
+
+        Tuple tick = mock(Tuple.class);
+        when(tick.getSourceComponent()).thenReturn(
+                Constants.SYSTEM_COMPONENT_ID);
+        when(tick.getSourceStreamId()).thenReturn(
+                Constants.SYSTEM_TICK_STREAM_ID);
+
+        // the items get acked when the bolt is triggered
+        Map<String, Integer> highest = new HashMap<>();
+        long limit = System.currentTimeMillis() + 10000;
+        while (!output.getAckedTuples().containsAll(tuples)
+                && System.currentTimeMillis() < limit) {
+            for (String gauge : GAUGES) {
+                IMetric metric = metrics.get(gauge);
+                if (metric == null) {
+                    continue;
+                }
+                int value = (Integer) metric.getValueAndReset();
+                Integer max = highest.get(gauge);
+                if (max == null || value > max) {
+                    highest.put(gauge, value);
+                }
+            }
+            Thread.sleep(50);
+            bolt.execute(tick);
+        }
+
+        Assert.assertTrue(output.getAckedTuples().containsAll(tuples));
+
+        Map<String, Object> counters = (Map<String, Object>) metrics.get(
+                "fetcher_counter").getValueAndReset();
+        Long started = (Long) counters.get("threads_started");
+        if (started != null) {
+            highest.put("threads_started", started.intValue());
+        }
+
+        // all of them fetched and sent to the default stream
+        Assert.assertEquals(urls.length,
+                output.getEmitted(Utils.DEFAULT_STREAM_ID).size());
+
+        return highest;
+    }
+
 }
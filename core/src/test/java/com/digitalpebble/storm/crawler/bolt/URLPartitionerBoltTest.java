@@ -0,0 +1,90 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.bolt;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+
+import com.digitalpebble.storm.crawler.TestOutputCollector;
+import com.digitalpebble.storm.crawler.TestUtil;
+
+public class URLPartitionerBoltTest {
+
+    @Test
+    public void testTicks() {
+        // the mode could be byIP
+        Assert.assertEquals(
+                1,
+                new URLPartitionerBolt().getComponentConfiguration().get(
+                        Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+        Assert.assertEquals(
+                1,
+                new URLPartitionerBolt("byIP").getComponentConfiguration().get(
+                        Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+        Assert.assertNull(new URLPartitionerBolt("byHost")
+                .getComponentConfiguration());
+    }
+
+    @Test
+    public void testByIP() throws Exception {
+        Map config = new HashMap();
+        config.put("partition.url.mode", "byIP");
+        URLPartitionerBolt bolt = new URLPartitionerBolt();
+        TestOutputCollector output = new TestOutputCollector();
+        bolt.prepare(config, TestUtil.getMockedTopologyContext(),
+                new OutputCollector(output));
+
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.getStringByField("url")).thenReturn(
+                "http://localhost/page.html");
+        bolt.execute(tuple);
+
+        Tuple tick = mock(Tuple.class);
+        when(tick.getSourceComponent()).thenReturn(
+                Constants.SYSTEM_COMPONENT_ID);
+        when(tick.getSourceStreamId()).thenReturn(
+                Constants.SYSTEM_TICK_STREAM_ID);
+
+        // emitted by the bolt's thread once resolved
+        long limit = System.currentTimeMillis() + 10000;
+        while (output.getEmitted().isEmpty()
+                && System.currentTimeMillis() < limit) {
+            Thread.sleep(50);
+            bolt.execute(tick);
+        }
+
+        List<List<Object>> emitted = output.getEmitted();
+        Assert.assertEquals(1, emitted.size());
+        Assert.assertEquals(
+                InetAddress.getByName("localhost").getHostAddress(), emitted
+                        .get(0).get(1));
+        Assert.assertTrue(output.getAckedTuples().contains(tuple));
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering;
+
+import java.net.URL;
+import java.util.HashMap;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.filtering.regex.RegexURLFilter;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Compares the time taken to filter the outlinks of a page with the rules of
+ * default-regex-filters.txt, tried one by one or compiled into an automaton.
+ * Not a unit test, run it with
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.digitalpebble.storm.crawler.filtering.RegexFilterBenchmark
+ * </pre>
+ **/
+public class RegexFilterBenchmark {
+
+    private static final String[] PATHS = { "", "about/team.html",
+            "products/list.php?page=2&sort=asc", "images/logo.png",
+            "static/css/main.css", "blog/2015/06/some-long-title-for-a-post/",
+            "download/archive.tar.gz", "search?q=storm+crawler",
+            "media/video.MP4?autoplay=1", "contact" };
+
+    private static URLFilter createFilter(boolean automaton) {
+        ObjectNode params = new ObjectNode(JsonNodeFactory.instance);
+        params.put("regexFilterFile", "default-regex-filters.txt");
+        params.put("automaton", automaton);
+        RegexURLFilter filter = new RegexURLFilter();
+        filter.configure(new HashMap<String, Object>(), params);
+        return filter;
+    }
+
+    private static long run(URLFilter filter, URL page, String[] outlinks,
+            int pages) {
+        Metadata metadata = new Metadata();
+        long kept = 0;
+        for (int i = 0; i < pages; i++) {
+            for (String outlink : outlinks) {
+                if (filter.filter(page, metadata, outlink) != null) {
+                    kept++;
+                }
+            }
+        }
+        return kept;
+    }
+
+    public static void main(String[] args) throws Exception {
+        URL page = new URL("http://www.example.com/");
+        // 200 outlinks per page
+        String[] outlinks = new String[200];
+        for (int i = 0; i < outlinks.length; i++) {
+            outlinks[i] = "http://www" + (i % 7) + ".example.com/"
+                    + PATHS[i % PATHS.length];
+        }
+
+        for (boolean automaton : new boolean[] { false, true }) {
+            URLFilter filter = createFilter(automaton);
+            run(filter, page, outlinks, 20000);
+            int pages = 50000;
+            long start = System.nanoTime();
+            long kept = run(filter, page, outlinks, pages);
+            long time = System.nanoTime() - start;
+            System.out.printf("%-12s %10.1f ns/url %8d kept%n",
+                    automaton ? "automaton" : "regex", (double) time
+                            / (pages * outlinks.length), kept / pages);
+        }
+    }
+}
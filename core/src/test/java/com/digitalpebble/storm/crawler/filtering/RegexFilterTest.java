@@ -27,6 +27,7 @@ import org.junit.Test;
 
 import com.digitalpebble.storm.crawler.Metadata;
 import com.digitalpebble.storm.crawler.filtering.regex.RegexURLFilter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -87,4 +88,56 @@ public class RegexFilterTest {
         Assert.assertEquals(null, filterResult);
     }
 
+    @Test
+    public void testAutomaton() throws MalformedURLException {
+        ObjectNode filterParams = new ObjectNode(JsonNodeFactory.instance);
+        filterParams.put("regexFilterFile", "default-regex-filters.txt");
+        filterParams.put("automaton", true);
+        URLFilter filter = createFilter(filterParams);
+        Metadata metadata = new Metadata();
+        URL page = new URL("http://www.someFTP.com/");
+
+        Assert.assertNull(filter.filter(page, metadata,
+                "ftp://www.someFTP.com/#0"));
+        Assert.assertNull(filter.filter(page, metadata,
+                "http://www.someFTP.com/bla.GIF?somearg=0"));
+        Assert.assertNull(filter.filter(page, metadata,
+                "http://www.someFTP.com/bla.mp4"));
+        Assert.assertEquals("http://www.someFTP.com/bla.GIF.orNot", filter
+                .filter(page, metadata, "http://www.someFTP.com/bla.GIF.orNot"));
+    }
+
+    @Test
+    public void testAutomatonFirstMatch() throws MalformedURLException {
+        String[] rules = { "-^https://", "-.*(/[^/]+)/[^/]+\\1/[^/]+\\1/",
+                "+(?i)^http://www\\.example\\.com/(a|b{2,3})?$",
+                "-(?<=/)private", "-[?&]session=[0-9a-f]{4}",
+                "+\\.(html?|php)$", "-(?i:\\.PDF)", "-\\s",
+                "+^http://[^/]+/[\\w-]+/?$", "-." };
+        String[] urls = { "https://www.example.com/",
+                "http://www.example.com/", "http://WWW.EXAMPLE.COM/bb",
+                "http://www.example.com/bbbb", "http://a.com/x/y/x/z/x/",
+                "http://a.com/private/a.html", "http://a.com/aprivate.html",
+                "http://a.com/p?session=12ab", "http://a.com/p?session=12",
+                "http://a.com/index.htm", "http://a.com/doc.pdf",
+                "http://a.com/a b", "http://a.com/some-path/",
+                "http://a.com/some/path", "http://a.com/caf\u00e9",
+                "http://a.com/line\nbreak.html", "" };
+
+        ObjectNode params = new ObjectNode(JsonNodeFactory.instance);
+        ArrayNode array = params.putArray("urlFilters");
+        for (String rule : rules) {
+            array.add(rule);
+        }
+        URLFilter regex = createFilter(params);
+        params.put("automaton", true);
+        URLFilter automaton = createFilter(params);
+
+        URL page = new URL("http://www.example.com/");
+        Metadata metadata = new Metadata();
+        for (String url : urls) {
+            Assert.assertEquals(url, regex.filter(page, metadata, url),
+                    automaton.filter(page, metadata, url));
+        }
+    }
 }
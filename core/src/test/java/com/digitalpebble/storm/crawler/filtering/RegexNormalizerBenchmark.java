@@ -0,0 +1,120 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.filtering.regex.RegexURLNormalizer;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Measures the throughput and the bytes allocated per URL when normalizing with
+ * the rules of default-regex-normalizers.xml, compared to calling replaceAll
+ * for each rule. Not a unit test, run it with
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.digitalpebble.storm.crawler.filtering.RegexNormalizerBenchmark
+ * </pre>
+ **/
+public class RegexNormalizerBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    /** same rules as in the file **/
+    private static final String[][] RULES = {
+            {
+                    "(?i)(;?\\b_?(l|j|bv_)?(sid|phpsessid|sessionid)=.*?)(\\?|&|#|$)",
+                    "$4" },
+            {
+                    "/((?i)index|default)\\.((?i)js[pf]{1}?[afx]?|cgi|cfm|asp[x]?|[psx]?htm[l]?|php[3456]?)(\\?|&|#|$)",
+                    "/$3" }, { "#.*?(\\?|&|$)", "$1" }, { "\\?&", "\\?" },
+            { "&{2,}", "&" }, { "[\\?&\\.]$", "" }, { "(?<!:)/{2,}", "/" } };
+
+    private static final String[] PATHS = { "", "about/team.html",
+            "products/list.php?page=2&sort=asc", "blog/2015/06/a-post/",
+            "search?q=storm+crawler", "contact", "a/index.html",
+            "cart;jsessionid=1234?item=2", "docs/guide.html#install",
+            "list?&sort=desc" };
+
+    private interface Normalizer {
+        String normalize(String url) throws Exception;
+    }
+
+    private static void measure(String name, String[] urls, Normalizer n)
+            throws Exception {
+        for (int i = 0; i < 20000; i++) {
+            for (String url : urls) {
+                n.normalize(url);
+            }
+        }
+        int iterations = 100000;
+        long threadId = Thread.currentThread().getId();
+        long bytes = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String url : urls) {
+                n.normalize(url);
+            }
+        }
+        long time = System.nanoTime() - start;
+        bytes = THREADS.getThreadAllocatedBytes(threadId) - bytes;
+        long count = (long) iterations * urls.length;
+        System.out.printf("%-12s %10.0f urls/sec %8d bytes/url%n", name, count
+                * 1e9 / time, bytes / count);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String[] urls = new String[PATHS.length];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = "http://www.example.com/" + PATHS[i];
+        }
+
+        final Pattern[] patterns = new Pattern[RULES.length];
+        for (int i = 0; i < RULES.length; i++) {
+            patterns[i] = Pattern.compile(RULES[i][0]);
+        }
+        measure("replaceAll", urls, new Normalizer() {
+            @Override
+            public String normalize(String url) {
+                for (int i = 0; i < patterns.length; i++) {
+                    url = patterns[i].matcher(url).replaceAll(RULES[i][1]);
+                }
+                return url;
+            }
+        });
+
+        ObjectNode params = new ObjectNode(JsonNodeFactory.instance);
+        params.put("regexNormalizerFile", "default-regex-normalizers.xml");
+        final RegexURLNormalizer normalizer = new RegexURLNormalizer();
+        normalizer.configure(new HashMap<String, Object>(), params);
+        final URL page = new URL("http://www.example.com/");
+        final Metadata metadata = new Metadata();
+        measure("normalizer", urls, new Normalizer() {
+            @Override
+            public String normalize(String url) {
+                return normalizer.filter(page, metadata, url);
+            }
+        });
+    }
+}
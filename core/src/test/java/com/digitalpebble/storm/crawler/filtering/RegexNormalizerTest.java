@@ -0,0 +1,113 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.filtering.regex.RegexURLNormalizer;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class RegexNormalizerTest {
+
+    private URLFilter createFilter(ObjectNode filterParams) {
+        RegexURLNormalizer filter = new RegexURLNormalizer();
+        filter.configure(new HashMap<String, Object>(), filterParams);
+        return filter;
+    }
+
+    private String normalize(URLFilter filter, String url)
+            throws MalformedURLException {
+        return filter.filter(new URL("http://www.example.com/"),
+                new Metadata(), url);
+    }
+
+    @Test
+    public void testDefaultRules() throws MalformedURLException {
+        ObjectNode params = new ObjectNode(JsonNodeFactory.instance);
+        params.put("regexNormalizerFile", "default-regex-normalizers.xml");
+        URLFilter filter = createFilter(params);
+
+        Assert.assertEquals("http://www.example.com/page",
+                normalize(filter, "http://www.example.com/page"));
+        Assert.assertEquals("http://www.example.com/a?b=c",
+                normalize(filter, "http://www.example.com/a;jsessionid=42?b=c"));
+        Assert.assertEquals("http://www.example.com/",
+                normalize(filter, "http://www.example.com/index.html"));
+        Assert.assertEquals("http://www.example.com/a",
+                normalize(filter, "http://www.example.com/a#top"));
+        Assert.assertEquals("http://www.example.com/a?b=c&d=e",
+                normalize(filter, "http://www.example.com/a?&b=c&&d=e"));
+        Assert.assertEquals("http://www.example.com/a/b",
+                normalize(filter, "http://www.example.com//a///b?"));
+    }
+
+    @Test
+    public void testPrefilter() throws MalformedURLException {
+        // rules for which only part of the pattern can be used to skip them
+        String[][] rules = { { "(?i)SESSION=[^&]*&?", "" },
+                { "a(?=b)c|d", "X" }, { "[#?]$", "" },
+                { "(?<!x)y+z{0,2}\\.(?:html?|php)", "P" },
+                { "\\Q.\\E", "dot" }, { "(?i:ab)c", "Z" } };
+        String[] urls = { "http://a.com/?session=1&b=2",
+                "http://a.com/?SeSsIoN=1", "http://a.com/abc",
+                "http://a.com/d", "http://a.com/?", "http://a.com/#",
+                "http://a.com/yyz.htm", "http://a.com/xyy.php",
+                "http://a.com/ABc", "http://a.com/ab" };
+
+        ObjectNode params = new ObjectNode(JsonNodeFactory.instance);
+        ArrayNode array = params.putArray("urlNormalizers");
+        for (String[] rule : rules) {
+            ObjectNode node = array.addObject();
+            node.put("pattern", rule[0]);
+            node.put("substitution", rule[1]);
+        }
+        URLFilter filter = createFilter(params);
+
+        for (String url : urls) {
+            String expected = url;
+            for (String[] rule : rules) {
+                expected = expected.replaceAll(rule[0], rule[1]);
+            }
+            Assert.assertEquals(url, expected, normalize(filter, url));
+        }
+    }
+
+    @Test
+    public void testReconfigure() throws MalformedURLException {
+        ObjectNode params = new ObjectNode(JsonNodeFactory.instance);
+        params.putArray("urlNormalizers").addObject().put("pattern", "a")
+                .put("substitution", "b");
+        URLFilter filter = createFilter(params);
+        Assert.assertEquals("http://b.com/", normalize(filter, "http://a.com/"));
+
+        // more rules than the matchers this thread already has
+        params = new ObjectNode(JsonNodeFactory.instance);
+        ArrayNode array = params.putArray("urlNormalizers");
+        array.addObject().put("pattern", "a").put("substitution", "c");
+        array.addObject().put("pattern", "com").put("substitution", "org");
+        filter.configure(new HashMap<String, Object>(), params);
+        Assert.assertEquals("http://c.org/", normalize(filter, "http://a.com/"));
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.filtering;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.metric.api.IMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class URLFiltersTest {
+
+    /** Only works on Strings, goes through the adapter **/
+    public static class LowerCasePathFilter implements URLFilter {
+        @Override
+        public void configure(Map stormConf, JsonNode filterParams) {
+        }
+
+        @Override
+        public String filter(URL sourceUrl, Metadata sourceMetadata,
+                String urlToFilter) {
+            if (urlToFilter.contains("/UPPER")) {
+                return urlToFilter.toLowerCase(Locale.ROOT);
+            }
+            return urlToFilter;
+        }
+    }
+
+    @Test
+    public void testChain() throws IOException {
+        URLFilters filters = new URLFilters(new HashMap<String, Object>(),
+                "test.urlfilters.json");
+        URL source = new URL("http://www.example.com/");
+        Metadata metadata = new Metadata();
+
+        Assert.assertEquals("http://sub.example.com/a?b=c", filters.filter(
+                source, metadata, " http://SUB.example.com/a&b=c#anchor"));
+        Assert.assertEquals("http://www.example.com/upper/case", filters
+                .filter(source, metadata, "http://www.example.com/UPPER/Case"));
+        Assert.assertNull(filters.filter(source, metadata,
+                "http://www.other.com/a"));
+        Assert.assertNull(filters.filter(source, metadata, "not a URL"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMetric() throws IOException {
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("filters.timing.sampling", 1);
+        URLFilters filters = new URLFilters(conf, "test.urlfilters.json");
+        IMetric metric = filters.getMetric();
+        URL source = new URL("http://www.example.com/");
+        Metadata metadata = new Metadata();
+
+        filters.filter(source, metadata, "http://www.example.com/a#anchor");
+        filters.filter(source, metadata, "http://www.example.com/UPPER");
+        filters.filter(source, metadata, "http://www.other.com/a");
+        filters.filter(source, metadata, "not a URL");
+
+        Map<String, Object> values = (Map<String, Object>) metric
+                .getValueAndReset();
+        Assert.assertEquals(4L, values.get("BasicURLNormalizer.calls"));
+        Assert.assertEquals(1L, values.get("BasicURLNormalizer.rejected"));
+        Assert.assertEquals(1L, values.get("BasicURLNormalizer.rewritten"));
+        Assert.assertEquals(3L, values.get("LowerCasePathFilter.calls"));
+        Assert.assertEquals(0L, values.get("LowerCasePathFilter.rejected"));
+        Assert.assertEquals(1L, values.get("LowerCasePathFilter.rewritten"));
+        Assert.assertEquals(3L, values.get("HostURLFilter.calls"));
+        Assert.assertEquals(1L, values.get("HostURLFilter.rejected"));
+        Assert.assertEquals(0L, values.get("HostURLFilter.rewritten"));
+        Assert.assertTrue((Double) values.get("HostURLFilter.time_msec") > 0);
+
+        // only what happened since the previous call is reported
+        filters.filter(source, metadata, "http://www.example.com/b");
+        values = (Map<String, Object>) metric.getValueAndReset();
+        Assert.assertEquals(1L, values.get("HostURLFilter.calls"));
+        Assert.assertEquals(0L, values.get("HostURLFilter.rejected"));
+    }
+
+    @Test
+    public void testParsedOnce() throws IOException {
+        URLFilters filters = new URLFilters(new HashMap<String, Object>(),
+                "test.urlfilters.json");
+        ParsedURL url = new ParsedURL("http://www.example.com/a/b");
+        URL parsed = url.getURL();
+        Assert.assertTrue(filters.filter(new URL("http://www.example.com/"),
+                new Metadata(), url));
+        // nothing changed the URL so it has not been parsed again
+        Assert.assertSame(parsed, url.getURL());
+        Assert.assertEquals("example.com", url.getPaidLevelDomain());
+
+        url.set("http://www.example.org/c?d=e");
+        Assert.assertNotSame(parsed, url.getURL());
+        Assert.assertEquals("/c", url.getPath());
+        Assert.assertEquals("d=e", url.getQuery());
+        Assert.assertEquals("example.org", url.getPaidLevelDomain());
+    }
+}
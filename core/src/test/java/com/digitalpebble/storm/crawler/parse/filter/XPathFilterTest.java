@@ -18,7 +18,9 @@
 package com.digitalpebble.storm.crawler.parse.filter;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -26,6 +28,8 @@ import org.junit.Test;
 
 import com.digitalpebble.storm.crawler.Metadata;
 import com.digitalpebble.storm.crawler.bolt.JSoupParserBolt;
+import com.digitalpebble.storm.crawler.parse.ParseFilters;
+import com.digitalpebble.storm.crawler.parse.ParseResult;
 
 public class XPathFilterTest extends ParsingTester {
 
@@ -73,4 +77,18 @@ public class XPathFilterTest extends ParsingTester {
         Assert.assertTrue(scripts[1].contains("urchinTracker();"));
     }
 
+    @Test
+    public void testSkippedWithoutDOM() throws IOException {
+        ParseFilters filters = new ParseFilters(new HashMap<String, Object>(),
+                "test.parsefilters.json");
+        filters.filter("http://www.digitalpebble.com", new byte[0], null,
+                new ParseResult());
+
+        Map<?, ?> values = (Map<?, ?>) filters.getMetric().getValueAndReset();
+        Assert.assertEquals(1L, values.get("XPathFilter.skipped"));
+        // the documents skipped are not counted as calls
+        Assert.assertEquals(0L, values.get("XPathFilter.calls"));
+        Assert.assertEquals(0d, values.get("XPathFilter.time_msec"));
+    }
+
 }
@@ -0,0 +1,109 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileRobotRulesStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileRobotRulesStore createStore() {
+        Map conf = new HashMap();
+        conf.put("robots.store.dir", folder.getRoot().getPath());
+        FileRobotRulesStore store = new FileRobotRulesStore();
+        store.configure(conf);
+        return store;
+    }
+
+    @Test
+    public void testStore() {
+        byte[] content = "User-agent: *\nDisallow: /private/\nCrawl-delay: 2\n"
+                .getBytes(StandardCharsets.UTF_8);
+        long expires = System.currentTimeMillis() + 60000;
+
+        FileRobotRulesStore store = createStore();
+        Assert.assertNull(store.get("http:a.test:80"));
+
+        store.put("http:a.test:80", new StoredRobots(
+                "http://a.test/robots.txt", content, "text/plain", false,
+                expires));
+
+        // read by another instance e.g. after a restart
+        StoredRobots stored = createStore().get("http:a.test:80");
+        Assert.assertNotNull(stored);
+        Assert.assertEquals("http://a.test/robots.txt", stored.getUrl());
+        Assert.assertArrayEquals(content, stored.getContent());
+        Assert.assertEquals("text/plain", stored.getContentType());
+        Assert.assertFalse(stored.isForbidAll());
+        Assert.assertEquals(expires, stored.getExpires());
+
+        // no temporary file left behind
+        Assert.assertEquals(1, folder.getRoot().listFiles()[0].list().length);
+    }
+
+    @Test
+    public void testForbidAll() {
+        FileRobotRulesStore store = createStore();
+        store.put("http:c.test:80",
+                new StoredRobots("http://c.test/robots.txt", new byte[0], null,
+                        true, System.currentTimeMillis() + 60000));
+        StoredRobots stored = store.get("http:c.test:80");
+        Assert.assertTrue(stored.isForbidAll());
+        Assert.assertNull(stored.getContentType());
+        Assert.assertEquals(0, stored.getContent().length);
+    }
+
+    @Test
+    public void testExpired() {
+        FileRobotRulesStore store = createStore();
+        store.put("http:b.test:80",
+                new StoredRobots("http://b.test/robots.txt", new byte[0], null,
+                        true, System.currentTimeMillis() - 1));
+        Assert.assertNull(store.get("http:b.test:80"));
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        FileRobotRulesStore store = createStore();
+        store.put("http:d.test:80",
+                new StoredRobots("http://d.test/robots.txt", new byte[10],
+                        null, false, System.currentTimeMillis() + 60000));
+        File dir = folder.getRoot().listFiles()[0];
+        File file = dir.listFiles()[0];
+        Files.write(file.toPath(),
+                new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 });
+        Assert.assertNull(store.get("http:d.test:80"));
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testNoDirectory() {
+        new FileRobotRulesStore().configure(new HashMap());
+    }
+}
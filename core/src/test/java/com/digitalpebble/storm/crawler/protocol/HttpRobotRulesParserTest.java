@@ -0,0 +1,186 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+import com.digitalpebble.storm.crawler.Metadata;
+
+import crawlercommons.robots.BaseRobotRules;
+
+public class HttpRobotRulesParserTest {
+
+    /** Serves a robots.txt slowly and counts the requests **/
+    private static class SlowProtocol implements Protocol {
+        final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public void configure(Config conf) {
+        }
+
+        @Override
+        public ProtocolResponse getProtocolOutput(String url, Metadata metadata)
+                throws Exception {
+            requests.incrementAndGet();
+            Thread.sleep(200);
+            byte[] content = "User-agent: *\nDisallow: /private/\n"
+                    .getBytes(StandardCharsets.UTF_8);
+            Metadata md = new Metadata();
+            md.setValue(HttpHeaders.CONTENT_TYPE, "text/plain");
+            return new ProtocolResponse(content, 200, md);
+        }
+
+        @Override
+        public BaseRobotRules getRobotRules(String url) {
+            return null;
+        }
+
+        @Override
+        public void cleanup() {
+        }
+    }
+
+    @Test
+    public void testCompactRules() {
+        Config conf = new Config();
+        conf.put("http.agent.name", "this is only a test");
+        HttpRobotRulesParser parser = new HttpRobotRulesParser(conf);
+
+        Assert.assertSame(RobotRulesParser.EMPTY_RULES, parser.parseRules(
+                "http://a.test/robots.txt", new byte[0], "text/plain",
+                "this is only a test"));
+
+        byte[] allowAll = "User-agent: *\nDisallow:\n"
+                .getBytes(StandardCharsets.UTF_8);
+        Assert.assertSame(RobotRulesParser.EMPTY_RULES, parser.parseRules(
+                "http://a.test/robots.txt", allowAll, "text/plain",
+                "this is only a test"));
+
+        // no rules for our agent
+        byte[] otherAgent = "User-agent: other\nDisallow: /\n"
+                .getBytes(StandardCharsets.UTF_8);
+        Assert.assertSame(RobotRulesParser.EMPTY_RULES, parser.parseRules(
+                "http://a.test/robots.txt", otherAgent, "text/plain",
+                "this is only a test"));
+
+        byte[] forbidAll = "User-agent: *\nDisallow: /\n"
+                .getBytes(StandardCharsets.UTF_8);
+        Assert.assertSame(RobotRulesParser.FORBID_ALL_RULES, parser.parseRules(
+                "http://a.test/robots.txt", forbidAll, "text/plain",
+                "this is only a test"));
+
+        // other rules are kept as they are
+        byte[] some = "User-agent: *\nDisallow: /private/\n"
+                .getBytes(StandardCharsets.UTF_8);
+        BaseRobotRules rules = parser.parseRules("http://a.test/robots.txt",
+                some, "text/plain", "this is only a test");
+        Assert.assertNotSame(RobotRulesParser.EMPTY_RULES, rules);
+        Assert.assertFalse(rules.isAllowed("http://a.test/private/a.html"));
+        Assert.assertTrue(rules.isAllowed("http://a.test/page.html"));
+
+        // crawl delay must be kept
+        byte[] delay = "User-agent: *\nCrawl-delay: 5\n"
+                .getBytes(StandardCharsets.UTF_8);
+        rules = parser.parseRules("http://a.test/robots.txt", delay,
+                "text/plain", "this is only a test");
+        Assert.assertNotSame(RobotRulesParser.EMPTY_RULES, rules);
+        Assert.assertEquals(5000, rules.getCrawlDelay());
+
+        // the shared rules are not weighed by the robots.txt they come from
+        Assert.assertEquals(
+                0,
+                new RobotRulesParser.CacheEntry(
+                        RobotRulesParser.FORBID_ALL_RULES, forbidAll.length, 0).contentLength);
+        Assert.assertEquals(some.length, new RobotRulesParser.CacheEntry(rules,
+                some.length, 0).contentLength);
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        Config conf = new Config();
+        conf.put("http.agent.name", "this is only a test");
+        final HttpRobotRulesParser parser = new HttpRobotRulesParser(conf);
+        final SlowProtocol protocol = new SlowProtocol();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<BaseRobotRules> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    BaseRobotRules rules = parser.getRobotRulesSet(protocol,
+                            "http://coalescing.test/page.html");
+                    synchronized (results) {
+                        results.add(rules);
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assert.assertEquals(1, protocol.requests.get());
+        Assert.assertEquals(5, results.size());
+        for (BaseRobotRules rules : results) {
+            Assert.assertFalse(rules
+                    .isAllowed("http://coalescing.test/private/a.html"));
+        }
+    }
+
+    @Test
+    public void testSingleCacheMetric() {
+        TopologyContext fetcher = mock(TopologyContext.class);
+        TopologyContext other = mock(TopologyContext.class);
+        RobotRulesParser.registerCacheMetric(fetcher, 10);
+        RobotRulesParser.registerCacheMetric(other, 10);
+        // another test may have registered it first in this JVM
+        verify(fetcher, atMost(1)).registerMetric(eq("robots_cache"),
+                any(IMetric.class), eq(10));
+        verify(other, never()).registerMetric(anyString(), any(IMetric.class),
+                anyInt());
+    }
+}
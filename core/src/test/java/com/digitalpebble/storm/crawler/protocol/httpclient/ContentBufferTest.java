@@ -0,0 +1,90 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentBufferTest {
+
+    private static byte[] content(int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+
+    private static byte[] read(byte[] content, long contentLength,
+            int maxContent, boolean expectTrimmed) throws IOException {
+        ContentBuffer buffer = new ContentBuffer(contentLength, maxContent);
+        buffer.readFrom(new ByteArrayInputStream(content));
+        Assert.assertEquals(expectTrimmed, buffer.isTrimmed());
+        byte[] result = buffer.toByteArray();
+        buffer.release();
+        return result;
+    }
+
+    @Test
+    public void testKnownLength() throws IOException {
+        byte[] content = content(10000);
+        Assert.assertArrayEquals(content,
+                read(content, content.length, -1, false));
+        // exact limit is not trimmed
+        Assert.assertArrayEquals(content,
+                read(content, content.length, content.length, false));
+        byte[] trimmed = read(content, content.length, 100, true);
+        Assert.assertEquals(100, trimmed.length);
+    }
+
+    @Test
+    public void testWrongLength() throws IOException {
+        byte[] content = content(10000);
+        // server sent more than announced
+        Assert.assertArrayEquals(content, read(content, 10, -1, false));
+        // or less
+        Assert.assertArrayEquals(content, read(content, 20000, -1, false));
+    }
+
+    @Test
+    public void testUnknownLength() throws IOException {
+        byte[] content = content(ContentBuffer.SCRATCH_SIZE * 3 + 17);
+        Assert.assertArrayEquals(content, read(content, -1, -1, false));
+        byte[] trimmed = read(content, -1, ContentBuffer.SCRATCH_SIZE + 1, true);
+        Assert.assertEquals(ContentBuffer.SCRATCH_SIZE + 1, trimmed.length);
+        // pooled buffers don't leak previous content
+        Assert.assertArrayEquals(new byte[0], read(new byte[0], -1, -1, false));
+    }
+
+    @Test
+    public void testAppend() {
+        byte[] content = content(10000);
+        ContentBuffer buffer = new ContentBuffer(-1, 5000);
+        ByteBuffer buf = ByteBuffer.wrap(content, 0, 4000);
+        buffer.append(buf);
+        Assert.assertFalse(buf.hasRemaining());
+        Assert.assertFalse(buffer.isTrimmed());
+        buffer.append(ByteBuffer.wrap(content, 4000, 6000));
+        Assert.assertTrue(buffer.isTrimmed());
+        Assert.assertEquals(5000, buffer.toByteArray().length);
+        buffer.release();
+    }
+}
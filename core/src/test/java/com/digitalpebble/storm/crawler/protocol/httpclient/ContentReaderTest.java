@@ -0,0 +1,125 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.digitalpebble.storm.crawler.Metadata;
+
+public class ContentReaderTest {
+
+    private static final byte[] TEXT;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<p>Some highly compressible text</p>\n");
+        }
+        TEXT = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(bos);
+        gz.write(content);
+        gz.close();
+        return bos.toByteArray();
+    }
+
+    private static Metadata gzipHeaders(int length) {
+        Metadata md = new Metadata();
+        md.setValue("content-encoding", "gzip");
+        md.setValue("content-length", Integer.toString(length));
+        return md;
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        byte[] compressed = gzip(TEXT);
+        Metadata md = gzipHeaders(compressed.length);
+        byte[] content = ContentReader.read(
+                new ByteArrayInputStream(compressed), compressed.length, -1,
+                -1, md);
+        Assert.assertArrayEquals(TEXT, content);
+        Assert.assertEquals(Integer.toString(compressed.length),
+                md.getFirstValue(ContentReader.WIRE_LENGTH_KEY));
+        Assert.assertEquals(Integer.toString(TEXT.length),
+                md.getFirstValue(ContentReader.DECODED_LENGTH_KEY));
+        Assert.assertNull(md.getFirstValue("content-encoding"));
+        Assert.assertNull(md.getFirstValue("http.trimmed"));
+    }
+
+    @Test
+    public void testDecodedLimit() throws IOException {
+        byte[] compressed = gzip(TEXT);
+        Metadata md = gzipHeaders(compressed.length);
+        byte[] content = ContentReader.read(
+                new ByteArrayInputStream(compressed), compressed.length, 1000,
+                -1, md);
+        Assert.assertArrayEquals(Arrays.copyOf(TEXT, 1000), content);
+        Assert.assertEquals("true", md.getFirstValue("http.trimmed"));
+    }
+
+    @Test
+    public void testRawLimit() throws IOException {
+        byte[] compressed = gzip(TEXT);
+        int maxRaw = compressed.length / 2;
+        Metadata md = gzipHeaders(compressed.length);
+        byte[] content = ContentReader.read(
+                new ByteArrayInputStream(compressed), compressed.length, -1,
+                maxRaw, md);
+        Assert.assertTrue(content.length > 0);
+        Assert.assertArrayEquals(Arrays.copyOf(TEXT, content.length), content);
+        Assert.assertEquals("true", md.getFirstValue("http.trimmed"));
+        Assert.assertEquals(Integer.toString(maxRaw),
+                md.getFirstValue(ContentReader.WIRE_LENGTH_KEY));
+
+        // same thing once buffered
+        md = gzipHeaders(compressed.length);
+        byte[] decoded = ContentReader.decode(
+                Arrays.copyOf(compressed, maxRaw), true, -1, md);
+        Assert.assertArrayEquals(content, decoded);
+        Assert.assertEquals("true", md.getFirstValue("http.trimmed"));
+    }
+
+    @Test
+    public void testIdentity() throws IOException {
+        Metadata md = new Metadata();
+        byte[] content = ContentReader.read(new ByteArrayInputStream(TEXT),
+                TEXT.length, -1, 100, md);
+        Assert.assertEquals(100, content.length);
+        Assert.assertEquals("true", md.getFirstValue("http.trimmed"));
+        Assert.assertEquals("100",
+                md.getFirstValue(ContentReader.WIRE_LENGTH_KEY));
+    }
+
+    @Test
+    public void testEmptyGzip() throws IOException {
+        Metadata md = gzipHeaders(0);
+        byte[] content = ContentReader.read(new ByteArrayInputStream(
+                new byte[0]), 0, -1, -1, md);
+        Assert.assertEquals(0, content.length);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+public class HttpProtocolTest {
+
+    private static HttpProtocol create(int maxConnections) {
+        Config conf = new Config();
+        conf.put("http.agent.name", "this is only a test");
+        conf.put("http.max.connections", maxConnections);
+        HttpProtocol protocol = new HttpProtocol();
+        protocol.configure(conf);
+        return protocol;
+    }
+
+    @Test
+    public void testSharedPool() {
+        // e.g. the instances for http and https
+        HttpProtocol http = create(123);
+        HttpProtocol https = create(123);
+
+        TopologyContext first = mock(TopologyContext.class);
+        TopologyContext second = mock(TopologyContext.class);
+        http.registerMetric(first, "protocol.connection_pool", 10);
+        https.registerMetric(second, "protocol.connection_pool", 10);
+
+        ArgumentCaptor<IMetric> metric = ArgumentCaptor.forClass(IMetric.class);
+        verify(first).registerMetric(eq("protocol.connection_pool"),
+                metric.capture(), eq(10));
+        verify(second, never()).registerMetric(anyString(), any(IMetric.class),
+                anyInt());
+        // a single pool of the size configured
+        Map<?, ?> values = (Map<?, ?>) metric.getValue().getValueAndReset();
+        Assert.assertEquals(123, values.get("max"));
+
+        // still used by https
+        http.cleanup();
+        HttpProtocol other = create(123);
+        TopologyContext third = mock(TopologyContext.class);
+        other.registerMetric(third, "protocol.connection_pool", 10);
+        verify(third, never()).registerMetric(anyString(), any(IMetric.class),
+                anyInt());
+
+        // shut down once none uses it, a new one gets created
+        https.cleanup();
+        other.cleanup();
+        HttpProtocol last = create(123);
+        TopologyContext fourth = mock(TopologyContext.class);
+        last.registerMetric(fourth, "protocol.connection_pool", 10);
+        verify(fourth).registerMetric(eq("protocol.connection_pool"),
+                any(IMetric.class), eq(10));
+        last.cleanup();
+    }
+
+    @Test
+    public void testPoolPerSettings() {
+        HttpProtocol small = create(10);
+        HttpProtocol large = create(20);
+        TopologyContext first = mock(TopologyContext.class);
+        TopologyContext second = mock(TopologyContext.class);
+        small.registerMetric(first, "protocol.connection_pool", 10);
+        large.registerMetric(second, "protocol.connection_pool", 10);
+        verify(first).registerMetric(anyString(), any(IMetric.class), anyInt());
+        verify(second)
+                .registerMetric(anyString(), any(IMetric.class), anyInt());
+        small.cleanup();
+        large.cleanup();
+    }
+}
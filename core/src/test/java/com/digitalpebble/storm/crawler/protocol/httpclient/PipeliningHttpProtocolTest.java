@@ -0,0 +1,214 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.protocol.httpclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.Config;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.protocol.AsyncProtocol;
+import com.digitalpebble.storm.crawler.protocol.ProtocolResponse;
+
+public class PipeliningHttpProtocolTest {
+
+    /**
+     * Minimal HTTP/1.1 server returning the path of each request as content,
+     * optionally closing the connection after the first response.
+     **/
+    private static class Server implements Runnable {
+
+        final ServerSocket socket;
+
+        final boolean closeAfterFirst;
+
+        final AtomicInteger connections = new AtomicInteger();
+
+        final AtomicInteger requests = new AtomicInteger();
+
+        /** requests which were already sent when the previous one was served **/
+        final AtomicInteger pipelined = new AtomicInteger();
+
+        Server(boolean closeAfterFirst) throws IOException {
+            this.closeAfterFirst = closeAfterFirst;
+            socket = new ServerSocket(0);
+            Thread thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String url(String path) {
+            return "http://localhost:" + socket.getLocalPort() + path;
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    final Socket connection = socket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread() {
+                        @Override
+                        public void run() {
+                            serve(connection);
+                        }
+                    };
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket connection) {
+            try (Socket s = connection) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        s.getInputStream(), StandardCharsets.ISO_8859_1));
+                OutputStream out = s.getOutputStream();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String path = line.split(" ")[1];
+                    requests.incrementAndGet();
+                    // skip the headers
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    }
+                    // leaves time for the client to send the next requests
+                    Thread.sleep(200);
+                    if (in.ready()) {
+                        pipelined.incrementAndGet();
+                    }
+                    byte[] body = path.getBytes(StandardCharsets.ISO_8859_1);
+                    String headers = "HTTP/1.1 200 OK\r\nContent-Length: "
+                            + body.length + "\r\n"
+                            + (closeAfterFirst ? "Connection: close\r\n" : "")
+                            + "\r\n";
+                    out.write(headers.getBytes(StandardCharsets.ISO_8859_1));
+                    out.write(body);
+                    out.flush();
+                    if (closeAfterFirst) {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                // connection closed by the client
+            }
+        }
+    }
+
+    /** Keeps the paths fetched in the order the callbacks were notified **/
+    private static class Results implements AsyncProtocol.Callback {
+
+        final List<String> fetched = Collections
+                .synchronizedList(new ArrayList<String>());
+
+        final AtomicInteger failures = new AtomicInteger();
+
+        final CountDownLatch done;
+
+        Results(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void completed(ProtocolResponse response) {
+            Assert.assertEquals(200, response.getStatusCode());
+            fetched.add(new String(response.getContent(),
+                    StandardCharsets.ISO_8859_1));
+            done.countDown();
+        }
+
+        @Override
+        public void failed(Exception exception) {
+            failures.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    private Server server;
+
+    @After
+    public void stopServer() throws IOException {
+        if (server != null) {
+            server.socket.close();
+        }
+    }
+
+    private Results fetch(String... paths) throws Exception {
+        Config conf = new Config();
+        conf.put("http.agent.name", "this is only a test");
+        PipeliningHttpProtocol protocol = new PipeliningHttpProtocol();
+        protocol.configure(conf);
+
+        Results results = new Results(paths.length);
+        for (String path : paths) {
+            protocol.getProtocolOutput(server.url(path), new Metadata(),
+                    results);
+        }
+        Assert.assertTrue(results.done.await(20, TimeUnit.SECONDS));
+        return results;
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        server = new Server(false);
+        Results results = fetch("/a", "/b", "/c", "/d");
+
+        Assert.assertEquals(0, results.failures.get());
+        // same order as the requests
+        Assert.assertEquals(Arrays.asList("/a", "/b", "/c", "/d"),
+                results.fetched);
+        // the first request is sent on its own, the others queued meanwhile
+        // are sent as a batch over the same connection without waiting for
+        // the responses
+        Assert.assertEquals(1, server.connections.get());
+        Assert.assertEquals(2, server.pipelined.get());
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        // can't serve more than one request per connection
+        server = new Server(true);
+        Results results = fetch("/a", "/b", "/c", "/d");
+
+        Assert.assertEquals(0, results.failures.get());
+        List<String> fetched = new ArrayList<>(results.fetched);
+        Collections.sort(fetched);
+        Assert.assertEquals(Arrays.asList("/a", "/b", "/c", "/d"), fetched);
+        // the batch /b /c /d failed after /b had been served, only /c and /d
+        // were sent again with one request per connection
+        Assert.assertEquals(4, server.requests.get());
+        Assert.assertEquals(4, server.connections.get());
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.spout;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+
+import com.digitalpebble.storm.crawler.TestOutputCollector;
+import com.digitalpebble.storm.crawler.TestUtil;
+import com.digitalpebble.storm.crawler.util.StringTabScheme;
+
+public class FileSpoutTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeSeeds(int count) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("http://host").append(i).append(".com/\tkey=value");
+            // mix line terminators and blank lines
+            sb.append(i % 3 == 0 ? "\r\n" : "\n");
+            if (i % 10 == 0)
+                sb.append("\n");
+        }
+        File seeds = folder.newFile("seeds.txt");
+        Files.write(seeds.toPath(),
+                sb.toString().getBytes(StandardCharsets.UTF_8));
+        return seeds;
+    }
+
+    private TopologyContext getContext(int index, int tasks) {
+        TopologyContext context = TestUtil.getMockedTopologyContext();
+        when(context.getThisTaskIndex()).thenReturn(index);
+        Integer[] ids = new Integer[tasks];
+        for (int i = 0; i < tasks; i++)
+            ids[i] = i;
+        when(context.getComponentTasks(anyString())).thenReturn(
+                Arrays.asList(ids));
+        return context;
+    }
+
+    private List<List<Object>> run(FileSpout spout, TestOutputCollector output,
+            int times) {
+        for (int i = 0; i < times; i++) {
+            spout.nextTuple();
+        }
+        return output.getEmitted();
+    }
+
+    @Test
+    public void testSplit() throws IOException {
+        File seeds = writeSeeds(100);
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("filespout.mmap", true);
+
+        Set<String> urls = new HashSet<>();
+        int total = 0;
+        for (int task = 0; task < 3; task++) {
+            FileSpout spout = new FileSpout(seeds.getAbsolutePath(),
+                    new StringTabScheme());
+            TestOutputCollector output = new TestOutputCollector();
+            spout.open(conf, getContext(task, 3), new SpoutOutputCollector(
+                    output));
+            spout.activate();
+            List<List<Object>> emitted = run(spout, output, 200);
+            for (List<Object> tuple : emitted) {
+                urls.add((String) tuple.get(0));
+            }
+            total += emitted.size();
+            spout.close();
+        }
+        // every line read once and only once
+        Assert.assertEquals(100, urls.size());
+        Assert.assertEquals(100, total);
+        Assert.assertTrue(urls.contains("http://host0.com/"));
+        Assert.assertTrue(urls.contains("http://host99.com/"));
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        File seeds = writeSeeds(20);
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("filespout.mmap", true);
+        conf.put("filespout.checkpoint.dir", folder.newFolder()
+                .getAbsolutePath());
+
+        FileSpout spout = new FileSpout(seeds.getAbsolutePath(),
+                new StringTabScheme());
+        TestOutputCollector output = new TestOutputCollector();
+        final List<Object> ids = new ArrayList<>();
+        spout.open(conf, getContext(0, 1), new SpoutOutputCollector(output) {
+            @Override
+            public List<Integer> emit(List<Object> tuple, Object messageId) {
+                ids.add(messageId);
+                return super.emit(tuple, messageId);
+            }
+        });
+        spout.activate();
+        run(spout, output, 10);
+        Assert.assertEquals(10, ids.size());
+
+        // ack the first 5 lines and the 7th
+        for (int i = 0; i < 5; i++) {
+            spout.ack(ids.get(i));
+        }
+        spout.ack(ids.get(6));
+        // a failed line is emitted again
+        spout.fail(ids.get(5));
+        run(spout, output, 1);
+        Assert.assertEquals("http://host5.com/", output.getEmitted().get(10)
+                .get(0));
+        spout.close();
+
+        // restarts from the 6th line
+        spout = new FileSpout(seeds.getAbsolutePath(), new StringTabScheme());
+        output = new TestOutputCollector();
+        spout.open(conf, getContext(0, 1), new SpoutOutputCollector(output));
+        spout.activate();
+        List<List<Object>> emitted = run(spout, output, 30);
+        Assert.assertEquals(15, emitted.size());
+        Assert.assertEquals("http://host5.com/", emitted.get(0).get(0));
+        spout.close();
+    }
+}
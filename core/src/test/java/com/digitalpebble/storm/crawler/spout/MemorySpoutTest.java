@@ -0,0 +1,76 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.spout;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.spout.SpoutOutputCollector;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.TestOutputCollector;
+import com.digitalpebble.storm.crawler.TestUtil;
+
+public class MemorySpoutTest {
+
+    @Test
+    public void testRoundRobin() {
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("memoryspout.max.inflight.per.queue", 1);
+
+        // due times are rounded up to the second
+        long now = System.currentTimeMillis() - 1000;
+        MemorySpout.add("http://a.com/1", new Metadata(), now);
+        MemorySpout.add("http://a.com/2", new Metadata(), now);
+        MemorySpout.add("http://a.com/3", new Metadata(), now);
+        MemorySpout.add("http://b.com/1", new Metadata(), now);
+
+        TestOutputCollector output = new TestOutputCollector();
+        MemorySpout spout = new MemorySpout();
+        spout.open(conf, TestUtil.getMockedTopologyContext(),
+                new SpoutOutputCollector(output));
+
+        for (int i = 0; i < 5; i++) {
+            spout.nextTuple();
+        }
+
+        // one URL per host until they are acked
+        List<List<Object>> emitted = output.getEmitted();
+        Assert.assertEquals(2, emitted.size());
+        Assert.assertEquals("http://a.com/1", emitted.get(0).get(0));
+        Assert.assertEquals("http://b.com/1", emitted.get(1).get(0));
+
+        spout.fail("http://b.com/1");
+        spout.nextTuple();
+        Assert.assertEquals(2, emitted.size());
+
+        spout.ack("http://a.com/1");
+        spout.nextTuple();
+        spout.nextTuple();
+        Assert.assertEquals(3, emitted.size());
+        Assert.assertEquals("http://a.com/2", emitted.get(2).get(0));
+
+        spout.ack("http://a.com/2");
+        spout.nextTuple();
+        Assert.assertEquals(4, emitted.size());
+        Assert.assertEquals("http://a.com/3", emitted.get(3).get(0));
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.spout;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.digitalpebble.storm.crawler.Metadata;
+
+public class URLFrontierTest {
+
+    @Test
+    public void testOrder() {
+        URLFrontier frontier = new URLFrontier(1024);
+        frontier.add("http://b.com/", null, 5000);
+        frontier.add("http://a.com/", null, 2000);
+        frontier.add("http://c.com/é", null, 2000);
+        Assert.assertEquals(3, frontier.size());
+
+        // nothing due yet
+        Assert.assertNull(frontier.poll(1000));
+        // due in the same second but not yet
+        Assert.assertNull(frontier.poll(1999));
+
+        Assert.assertEquals("http://a.com/", frontier.poll(2000).url);
+        Assert.assertEquals("http://c.com/é", frontier.poll(2000).url);
+        Assert.assertNull(frontier.poll(4000));
+        URLFrontier.Entry entry = frontier.poll(10000);
+        Assert.assertEquals("http://b.com/", entry.url);
+        Assert.assertNull(entry.metadata);
+        Assert.assertEquals(0, frontier.size());
+        Assert.assertNull(frontier.poll(10000));
+    }
+
+    @Test
+    public void testMetadata() {
+        URLFrontier frontier = new URLFrontier(1024);
+        Metadata md = new Metadata();
+        md.setValue("depth", "1");
+        frontier.add("http://a.com/", md, 0);
+        frontier.add("http://b.com/", md, 0);
+        // modifying the original has no effect
+        md.setValue("depth", "2");
+
+        Metadata first = frontier.poll(0).metadata;
+        Assert.assertEquals("1", first.getFirstValue("depth"));
+        // modifying what was returned has no effect either
+        first.setValue("depth", "3");
+        Metadata second = frontier.poll(0).metadata;
+        Assert.assertEquals("1", second.getFirstValue("depth"));
+        Assert.assertNotSame(first, second);
+    }
+
+    @Test
+    public void testSegmentReuse() {
+        URLFrontier frontier = new URLFrontier(64);
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 10; i++) {
+                frontier.add("http://host" + i + ".com/" + round, null,
+                        round * 1000L);
+            }
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("http://host" + i + ".com/" + round,
+                        frontier.poll(round * 1000L).url);
+            }
+        }
+        // the segments are recycled once empty, a round needs 5 of them
+        Assert.assertTrue(frontier.offHeapBytes() <= 64 * 6);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedMPSCQueueTest {
+
+    private static class Collector implements
+            BoundedMPSCQueue.Consumer<Integer> {
+        final List<Integer> elements = new ArrayList<>();
+
+        @Override
+        public void accept(Integer element, long enqueued) {
+            elements.add(element);
+        }
+    }
+
+    @Test
+    public void testCapacity() {
+        BoundedMPSCQueue<Integer> queue = new BoundedMPSCQueue<>(3);
+        // rounded up to 4
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertFalse(queue.offer(4));
+        Assert.assertEquals(4, queue.size());
+
+        Collector collector = new Collector();
+        Assert.assertEquals(4, queue.drain(collector));
+        Assert.assertEquals(0, queue.size());
+        Assert.assertTrue(queue.offer(4));
+        queue.drain(collector);
+        Assert.assertEquals(5, collector.elements.size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(i, collector.elements.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testProducers() throws InterruptedException {
+        final BoundedMPSCQueue<Integer> queue = new BoundedMPSCQueue<>(16);
+        final int producers = 4;
+        final int perProducer = 10000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.put(base + i);
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        Collector collector = new Collector();
+        int total = producers * perProducer;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (collector.elements.size() < total
+                && System.currentTimeMillis() < deadline) {
+            queue.drain(collector);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        // everything received once, in order for each producer
+        Assert.assertEquals(total, collector.elements.size());
+        int[] last = new int[producers];
+        for (int p = 0; p < producers; p++) {
+            last[p] = p * perProducer - 1;
+        }
+        for (int value : collector.elements) {
+            int p = value / perProducer;
+            Assert.assertEquals(last[p] + 1, value);
+            last[p] = value;
+        }
+    }
+}
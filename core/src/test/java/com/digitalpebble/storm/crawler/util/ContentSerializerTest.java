@@ -0,0 +1,77 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.Config;
+import backtype.storm.serialization.KryoValuesDeserializer;
+import backtype.storm.serialization.KryoValuesSerializer;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+
+public class ContentSerializerTest {
+
+    private byte[] roundTrip(Map conf, byte[] content) throws IOException {
+        KryoValuesSerializer kvs = new KryoValuesSerializer(conf);
+        byte[] serialized = kvs.serialize(new Values("url", content));
+        KryoValuesDeserializer kvd = new KryoValuesDeserializer(conf);
+        List<Object> values = kvd.deserialize(serialized);
+        return (byte[]) values.get(1);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map conf = Utils.readDefaultConfig();
+        Config.registerSerialization(conf, byte[].class,
+                ContentSerializer.class);
+
+        byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(small, roundTrip(conf, small));
+        Assert.assertArrayEquals(new byte[0], roundTrip(conf, new byte[0]));
+
+        byte[] html = StringUtils.repeat("<p>some text</p>", 1000).getBytes(
+                StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(html, roundTrip(conf, html));
+
+        // can't be compressed
+        byte[] random = new byte[10000];
+        new Random(0).nextBytes(random);
+        Assert.assertArrayEquals(random, roundTrip(conf, random));
+    }
+
+    @Test
+    public void testSmaller() throws IOException {
+        byte[] html = StringUtils.repeat("<p>some text</p>", 1000).getBytes(
+                StandardCharsets.UTF_8);
+        Map conf = Utils.readDefaultConfig();
+        int plain = new KryoValuesSerializer(conf).serialize(new Values(html)).length;
+        Config.registerSerialization(conf, byte[].class,
+                ContentSerializer.class);
+        int compressed = new KryoValuesSerializer(conf).serialize(new Values(
+                html)).length;
+        Assert.assertTrue(compressed < plain / 10);
+    }
+}
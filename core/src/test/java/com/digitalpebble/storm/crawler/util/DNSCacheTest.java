@@ -0,0 +1,78 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.util;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+import com.google.common.base.Optional;
+
+public class DNSCacheTest {
+
+    @Test
+    public void testCache() throws Exception {
+        DNSCache cache = new DNSCache(new HashMap());
+
+        Assert.assertNull(cache.getIfPresent("localhost"));
+        String address = cache.resolveAsync("localhost").get().orNull();
+        Assert.assertNotNull(address);
+
+        // now in the cache
+        Assert.assertTrue(cache.resolveAsync("localhost").isDone());
+        Assert.assertEquals(Optional.of(address),
+                cache.getIfPresent("localhost"));
+    }
+
+    @Test
+    public void testNegativeCache() {
+        DNSCache cache = new DNSCache(new HashMap());
+        Assert.assertNull(cache.resolve("unknown.invalid"));
+        Assert.assertEquals(Optional.absent(),
+                cache.getIfPresent("unknown.invalid"));
+
+        Map values = (Map) cache.getMetric().getValueAndReset();
+        Assert.assertEquals(1l, values.get("failures"));
+        Assert.assertEquals(1l, values.get("resolutions"));
+    }
+
+    @Test
+    public void testSingleMetric() {
+        DNSCache cache = new DNSCache(new HashMap());
+        TopologyContext partitioner = mock(TopologyContext.class);
+        TopologyContext fetcher = mock(TopologyContext.class);
+        cache.registerMetric(partitioner, 10);
+        cache.registerMetric(fetcher, 10);
+        verify(partitioner).registerMetric(eq("dns_cache"), any(IMetric.class),
+                eq(10));
+        verify(fetcher, never()).registerMetric(anyString(),
+                any(IMetric.class), anyInt());
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.storm.crawler.util;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+import crawlercommons.url.PaidLevelDomain;
+
+public class PLDCacheTest {
+
+    @Test
+    public void testHits() {
+        PLDCache cache = new PLDCache(100);
+        Map<?, ?> values = (Map<?, ?>) cache.getMetric().getValueAndReset();
+        Assert.assertEquals(0d, values.get("hit_ratio"));
+
+        String[] hosts = { "www.example.com", "sub.example.co.uk", "a.b.c.org" };
+        for (int i = 0; i < 3; i++) {
+            for (String host : hosts) {
+                Assert.assertEquals(PaidLevelDomain.getPLD(host),
+                        cache.getPLD(host));
+            }
+        }
+
+        Map<?, ?> metric = (Map<?, ?>) cache.getMetric().getValueAndReset();
+        Assert.assertEquals(6L, metric.get("hits"));
+        Assert.assertEquals(3L, metric.get("misses"));
+        Assert.assertEquals(3L, metric.get("size"));
+    }
+
+    @Test
+    public void testBounded() {
+        PLDCache cache = new PLDCache(10);
+        for (int i = 0; i < 1000; i++) {
+            cache.getPLD("www.host" + i + ".com");
+        }
+        Map<?, ?> metric = (Map<?, ?>) cache.getMetric().getValueAndReset();
+        Assert.assertTrue((Long) metric.get("size") <= 10);
+    }
+
+    @Test
+    public void testSingleMetric() {
+        PLDCache cache = new PLDCache(10);
+        TopologyContext partitioner = mock(TopologyContext.class);
+        TopologyContext fetcher = mock(TopologyContext.class);
+        cache.registerMetric(partitioner, 10);
+        cache.registerMetric(fetcher, 10);
+        verify(partitioner).registerMetric(eq("pld_cache"), any(IMetric.class),
+                eq(10));
+        verify(fetcher, never()).registerMetric(anyString(),
+                any(IMetric.class), anyInt());
+    }
+}
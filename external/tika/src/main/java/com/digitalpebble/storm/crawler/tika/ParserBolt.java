@@ -76,6 +76,11 @@ public class ParserBolt extends BaseRichBolt {
     private MetadataTransfer metadataTransfer;
     private boolean emitOutlinks = true;
 
+    /** false to emit an empty array instead of the raw content **/
+    private boolean emitContent = true;
+
+    private static final byte[] NO_CONTENT = new byte[0];
+
     private boolean ignorePreviouslyParsed = false;
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -84,10 +89,12 @@ public class ParserBolt extends BaseRichBolt {
             OutputCollector collector) {
 
         emitOutlinks = ConfUtils.getBoolean(conf, "parser.emitOutlinks", true);
+        emitContent = ConfUtils.getBoolean(conf, "parser.emitContent", true);
         ignorePreviouslyParsed = ConfUtils.getBoolean(conf, "parser.tika.ignore.parsed", false);
         urlFilters = URLFilters.fromConf(conf);
 
-        parseFilters = ParseFilters.fromConf(conf);
+        ParseFilters filters = ParseFilters.fromConf(conf);
+        parseFilters = filters;
 
         upperCaseElementNames = ConfUtils.getBoolean(conf,
                 "parser.uppercase.element.names", true);
@@ -121,6 +128,8 @@ public class ParserBolt extends BaseRichBolt {
 
         this.eventCounter = context.registerMetric(this.getClass()
                 .getSimpleName(), new MultiCountMetric(), 10);
+        context.registerMetric("url_filters", urlFilters.getMetric(), 10);
+        context.registerMetric("parse_filters", filters.getMetric(), 10);
 
         this.metadataTransfer = MetadataTransfer.getInstance(conf);
     }
@@ -268,8 +277,9 @@ public class ParserBolt extends BaseRichBolt {
 
             collector.emit(
                     tuple,
-                    new Values(doc.getKey(), parseDoc.getContent(), parseDoc
-                            .getMetadata(), parseDoc.getText()));
+                    new Values(doc.getKey(), emitContent ? parseDoc
+                            .getContent() : NO_CONTENT, parseDoc.getMetadata(),
+                            parseDoc.getText()));
         }
 
         collector.ack(tuple);